@@ -2,6 +2,12 @@ from flask import Flask, request, jsonify
 import numpy as np
 from openai import OpenAI
 import os
+import gzip
+import hashlib
+import json
+import struct
+import threading
+from collections import OrderedDict
 app = Flask(__name__)
 import numpy as np  # Assuming numpy is used for the cosine_similarity function
 
@@ -123,32 +129,16 @@ client = OpenAI(
 
 
 
-@app.route('/check-uc', methods=['POST'])
-def process_data():
-    # Taking JSON from query
-    data = request.get_json()
-
-    # Extract data
-    use_case = data.get('useCase')
-    regulations = data.get('regulation', [])
+def split_requirements(regulations):
+    # Splitting every regulation section into separate points
     requirements = {}
     for reg in regulations:
         requirements.update(split_paragraph_by_query(reg.get("requirement"), client))
+    return requirements
 
-    # requirements = {}
-    # for reg in regulations:
-    #     requirements[reg.get('section')] = reg.get('requirement')
-    
-    # Creating embeddings for requirement
-    requirements_list = []
-    for i in requirements:
-        requirements_list.append(requirements[i])
-
-    if not("".join(requirements_list)):
-        return jsonify("Requirements are met")
-    
-    requirements_embeddings = get_embeddings(requirements_list, client)
 
+def check_use_case(use_case, requirements, requirements_embeddings):
+    # Creating embedding for use case
     usecase_embedding = get_single_embedding(use_case, client)
 
     # Calculating similarities of usecase embedding with requirements embeddings
@@ -163,11 +153,11 @@ def process_data():
     for idx, key in enumerate(requirements):
         requirements_keys[idx] = key
 
-    # Taking n most similar to use case requirements
+    # Taking n most similar to use case requirements, all of them if fewer were sent (e.g. an incremental re-check)
     n_requirements = int(os.getenv('N_REQUIREMENTS'))
 
     final_requirements = {}
-    for i in range(n_requirements):
+    for i in range(min(n_requirements, len(similarities))):
         req_idx = similarities[i][0]
         req_key = requirements_keys[req_idx]
         final_requirements[req_key] = requirements[req_key]
@@ -212,8 +202,122 @@ def process_data():
 
     if not answer:
         answer = "The regulations objects were found. Requirements are met"
+    return answer
+
+
+# Use cases and regulations received by the check by reference, by content hash (least recently used are evicted)
+MAX_BLOBS = int(os.getenv('MAX_BLOBS', '256'))
+blobs = OrderedDict()
+blobs_lock = threading.Lock()
+
+
+def read_json():
+    # Request body may be gzip-compressed (Content-Encoding: gzip)
+    body = request.get_data()
+    if request.headers.get('Content-Encoding', '').lower() == 'gzip':
+        body = gzip.decompress(body)
+    return json.loads(body)
+
+
+def update_hash(digest, value):
+    # Big-endian 32-bit length of the UTF-8 bytes followed by the bytes, -1 for null
+    if value is None:
+        digest.update(struct.pack('>i', -1))
+        return
+    data = value.encode('utf-8')
+    digest.update(struct.pack('>i', len(data)))
+    digest.update(data)
+
+
+def use_case_hash(use_case):
+    return hashlib.sha256(use_case.encode('utf-8')).hexdigest()
+
+
+def regulation_hash(regulation):
+    digest = hashlib.sha256()
+    for requirement in regulation:
+        update_hash(digest, requirement.get('section'))
+        update_hash(digest, requirement.get('requirement'))
+    return digest.hexdigest()
+
+
+def remember(content_hash, content):
+    # Stores the content sent with the request or looks up the stored one
+    with blobs_lock:
+        if content is None:
+            content = blobs.get(content_hash)
+            if content is not None:
+                blobs.move_to_end(content_hash)
+            return content
+        blobs[content_hash] = content
+        blobs.move_to_end(content_hash)
+        while len(blobs) > MAX_BLOBS:
+            blobs.popitem(last=False)
+        return content
+
+
+def check_single(use_case, regulation):
+    requirements = split_requirements(regulation)
+
+    # Creating embeddings for requirement
+    requirements_list = list(requirements.values())
+
+    if not("".join(requirements_list)):
+        return "Requirements are met"
+
+    requirements_embeddings = get_embeddings(requirements_list, client)
+    return check_use_case(use_case, requirements, requirements_embeddings)
+
+
+@app.route('/check-uc', methods=['POST'])
+def process_data():
+    # Taking JSON from query
+    data = read_json()
+
     # Return answer with results
-    return jsonify(answer)
+    return jsonify(check_single(data.get('useCase'), data.get('regulation', [])))
+
+
+@app.route('/check-uc-ref', methods=['POST'])
+def process_by_reference():
+    # Use case and regulation are referenced by content hash and sent only when they are missing here
+    data = read_json()
+    uc_hash = data.get('useCaseHash')
+    reg_hash = data.get('regulationHash')
+    if data.get('useCase') is not None and use_case_hash(data['useCase']) != uc_hash:
+        return jsonify({"error": "Bad Request", "description": "Use case doesn't match its hash"}), 400
+    if data.get('regulation') is not None and regulation_hash(data['regulation']) != reg_hash:
+        return jsonify({"error": "Bad Request", "description": "Regulation doesn't match its hash"}), 400
+
+    use_case = remember(uc_hash, data.get('useCase'))
+    regulation = remember(reg_hash, data.get('regulation'))
+    missing = [h for h, content in ((uc_hash, use_case), (reg_hash, regulation)) if content is None]
+    if missing:
+        return jsonify({"answer": None, "missing": missing})
+
+    return jsonify({"answer": check_single(use_case, regulation), "missing": []})
+
+
+@app.route('/check-uc-batch', methods=['POST'])
+def process_batch():
+    # Taking JSON from query
+    data = read_json()
+
+    # Regulation is split and embedded once for every use case of the batch
+    use_cases = data.get('useCases', [])
+    requirements = split_requirements(data.get('regulation', []))
+    requirements_list = list(requirements.values())
+
+    if not("".join(requirements_list)):
+        return jsonify({uc.get('id'): "Requirements are met" for uc in use_cases})
+
+    requirements_embeddings = get_embeddings(requirements_list, client)
+
+    # Return answers by use case id
+    return jsonify({
+        uc.get('id'): check_use_case(uc.get('useCase'), requirements, requirements_embeddings)
+        for uc in use_cases
+    })
 
 
 if __name__ == '__main__':
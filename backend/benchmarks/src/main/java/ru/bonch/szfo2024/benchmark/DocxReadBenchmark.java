@@ -0,0 +1,39 @@
+package ru.bonch.szfo2024.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.web.multipart.MultipartFile;
+import ru.bonch.szfo2024.dto.UseCaseDto;
+import ru.bonch.szfo2024.service.files.DocxReadService;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Use Case extraction from a DOCX file by {@link DocxReadService}.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DocxReadBenchmark {
+
+    private DocxReadService docxReadService;
+    private List<MultipartFile> files;
+
+    @Setup
+    public void setUp() {
+        docxReadService = new DocxReadService(Samples.UPLOAD_SPOOL, Samples.CHECK_METRICS);
+        files = List.of(Samples.multipartFile(Samples.USE_CASE,
+                "application/vnd.openxmlformats-officedocument.wordprocessingml.document"));
+    }
+
+    @Benchmark
+    public Map<String, UseCaseDto> getUseCases() {
+        return docxReadService.getUseCases(files);
+    }
+}
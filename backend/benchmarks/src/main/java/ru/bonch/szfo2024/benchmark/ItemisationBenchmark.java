@@ -0,0 +1,51 @@
+package ru.bonch.szfo2024.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.bonch.szfo2024.dto.RequirementDto;
+import ru.bonch.szfo2024.service.RegulationItemisationService;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Breakdown of an extracted regulation text into requirements by {@link RegulationItemisationService}
+ * on the GOST and on the UNITED NATIONS point formats.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ItemisationBenchmark {
+
+    @Param({"GOST", "UN"})
+    public String standard;
+
+    private RegulationItemisationService itemisationService;
+    private String text;
+
+    @Setup
+    public void setUp() {
+        itemisationService = new RegulationItemisationService();
+        String file = "UN".equals(standard) ? Samples.UN_REGULATION : Samples.GOST_REGULATION;
+        text = Samples.pdfReadService(1)
+                .uploadFiles(List.of(Samples.multipartFile(file, "application/pdf")))
+                .values().iterator().next();
+    }
+
+    @Benchmark
+    public List<RequirementDto> itemise() {
+        return itemisationService.itemise(text);
+    }
+
+    /**
+     * Time to the first requirement, which is emitted as soon as the second point is found.
+     */
+    @Benchmark
+    public RequirementDto firstRequirement() {
+        return itemisationService.stream(text).findFirst().orElse(null);
+    }
+}
@@ -0,0 +1,62 @@
+package ru.bonch.szfo2024.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.bonch.szfo2024.service.NameRelationIndex;
+import ru.bonch.szfo2024.service.NameRelationService;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching of Use Case system names with a library of regulation names by {@link NameRelationService}:
+ * every pair compared with {@code areRelated} against the precomputed {@link NameRelationIndex}.
+ * One operation matches every system name with every regulation.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NameRelationBenchmark {
+
+    private NameRelationService nameRelationService;
+    private List<String> systemNames;
+    private List<String> regulationNames;
+    private NameRelationIndex index;
+
+    @Setup
+    public void setUp() {
+        nameRelationService = new NameRelationService();
+        systemNames = Samples.lines("system-names.txt");
+        regulationNames = Samples.lines("regulation-names.txt");
+        index = nameRelationService.index(regulationNames);
+    }
+
+    @Benchmark
+    public void areRelated(Blackhole blackhole) {
+        for (String systemName : systemNames) {
+            for (String regulationName : regulationNames) {
+                blackhole.consume(nameRelationService.areRelated(systemName, regulationName));
+            }
+        }
+    }
+
+    @Benchmark
+    public BitSet index() {
+        BitSet related = new BitSet(regulationNames.size());
+        for (String systemName : systemNames) {
+            index.addRelated(systemName, related);
+        }
+        return related;
+    }
+
+    @Benchmark
+    public NameRelationIndex buildIndex() {
+        return nameRelationService.index(regulationNames);
+    }
+}
@@ -0,0 +1,44 @@
+package ru.bonch.szfo2024.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.web.multipart.MultipartFile;
+import ru.bonch.szfo2024.service.files.PdfReadService;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Text extraction from a regulation PDF by {@link PdfReadService}, the text cache is disabled.
+ * The pages are extracted in a single pass or split into page ranges extracted in parallel.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PdfReadBenchmark {
+
+    @Param({Samples.UN_REGULATION, Samples.GOST_REGULATION})
+    public String file;
+
+    @Param({"1", "4"})
+    public int ranges;
+
+    private PdfReadService pdfReadService;
+    private List<MultipartFile> files;
+
+    @Setup
+    public void setUp() {
+        pdfReadService = Samples.pdfReadService(ranges);
+        files = List.of(Samples.multipartFile(file, "application/pdf"));
+    }
+
+    @Benchmark
+    public Map<String, String> uploadFiles() {
+        return pdfReadService.uploadFiles(files);
+    }
+}
@@ -0,0 +1,97 @@
+package ru.bonch.szfo2024.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.multipart.MultipartFile;
+import ru.bonch.szfo2024.service.CheckMetrics;
+import ru.bonch.szfo2024.service.files.DocumentHeapBudget;
+import ru.bonch.szfo2024.service.files.PdfReadService;
+import ru.bonch.szfo2024.service.files.PdfTextCache;
+import ru.bonch.szfo2024.service.files.UploadSpool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sample files checked in under {@code src/main/resources/samples}.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+final class Samples {
+
+    static final String UN_REGULATION = "Cyber_Security_ENG.pdf";  // UNITED NATIONS style points: "1.1."
+    static final String GOST_REGULATION = "Software_Update_EN.pdf"; // GOST style points: "1.1"
+    static final String USE_CASE = "UC_remote_update.docx";
+
+    private static final ExecutorService PDF_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "pdf");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static final UploadSpool UPLOAD_SPOOL = new UploadSpool(Path.of(System.getProperty("java.io.tmpdir"), "szfo2024", "ingest"));
+    static final CheckMetrics CHECK_METRICS = new CheckMetrics(new SimpleMeterRegistry());
+
+    private Samples() {
+    }
+
+    /**
+     * @param name name of the sample file
+     * @return content of the sample file
+     */
+    static byte[] bytes(String name) {
+        try (InputStream inputStream = Samples.class.getResourceAsStream("/samples/" + name)) {
+            if (inputStream == null) {
+                throw new IllegalArgumentException("No sample " + name);
+            }
+            return inputStream.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param name name of the sample file
+     * @return lines of the sample text file, without blank lines
+     */
+    static List<String> lines(String name) {
+        return new String(bytes(name), StandardCharsets.UTF_8).lines()
+                .map(String::trim)
+                .filter(line -> !line.isEmpty())
+                .toList();
+    }
+
+    /**
+     * @param name        name of the sample file, also used as the original file name
+     * @param contentType MIME type of the file
+     * @return uploaded file with the content of the sample
+     */
+    static MultipartFile multipartFile(String name, String contentType) {
+        return new MockMultipartFile("file", name, contentType, bytes(name));
+    }
+
+    /**
+     * @param ranges number of page ranges extracted in parallel, 1 for a single pass on the calling thread
+     * @return PDF service without the text cache, so every call parses the file
+     */
+    static PdfReadService pdfReadService(int ranges) {
+        PdfReadService pdfReadService = new PdfReadService(new RestTemplate(),
+                new PdfTextCache(false, DataSize.ofBytes(0), "", DataSize.ofBytes(0)), PDF_EXECUTOR,
+                new DocumentHeapBudget(DataSize.ofGigabytes(1), Duration.ofMinutes(1)), UPLOAD_SPOOL, CHECK_METRICS);
+        ReflectionTestUtils.setField(pdfReadService, "parallelism", ranges);
+        ReflectionTestUtils.setField(pdfReadService, "parallelMinPages", 1);
+        ReflectionTestUtils.setField(pdfReadService, "buffer", "mixed");
+        ReflectionTestUtils.setField(pdfReadService, "maxDocumentHeap", DataSize.ofMegabytes(64));
+        return pdfReadService;
+    }
+}
@@ -0,0 +1,176 @@
+package ru.bonch.szfo2024.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Stand-in of the neural network service implementing {@code check-uc}, {@code check-uc-batch} and {@code check-uc-ref}.
+ * Every request waits for a latency drawn from the distribution plus a delay per requirement checked, and fails with the
+ * configured HTTP status at the configured rate. Like the service, which checks only its {@code N_REQUIREMENTS} points
+ * most similar to the use case, at most the top N requirements of a request are checked, all of them if fewer are sent. With a concurrency limit, requests above it wait for a slot,
+ * like requests to a model served by a fixed number of workers.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+final class FakeNeuroServer implements AutoCloseable {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final LatencyDistribution latency;
+    private final Duration perRequirement;
+    private final int topN;
+    private final double errorRate;
+    private final int errorStatus;
+    private final Semaphore slots;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Starts the server.
+     *
+     * @param port           port to listen on, 0 for any free port
+     * @param latency        distribution of the latency of a request
+     * @param perRequirement additional latency per requirement checked
+     * @param topN           maximum number of requirements checked per request
+     * @param errorRate      share of requests failed on purpose, from 0 to 1
+     * @param errorStatus    HTTP status of a failed request
+     * @param concurrency    number of requests served at once, 0 for no limit
+     * @throws IOException if the port can't be bound
+     */
+    FakeNeuroServer(int port, LatencyDistribution latency, Duration perRequirement, int topN, double errorRate, int errorStatus,
+                    int concurrency) throws IOException {
+        this.latency = latency;
+        this.perRequirement = perRequirement;
+        this.topN = topN;
+        this.errorRate = errorRate;
+        this.errorStatus = errorStatus;
+        this.slots = concurrency > 0 ? new Semaphore(concurrency, true) : null;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "fake-neuro-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 1024);
+        this.server.setExecutor(executor);
+        this.server.createContext("/", this::handle);
+        this.server.start();
+    }
+
+    /**
+     * @return base URL of the service, ending with a slash
+     */
+    String url() {
+        return "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * @return number of requests received and number of requests failed on purpose
+     */
+    String stats() {
+        return requests.get() + " requests, " + failures.get() + " failed on purpose";
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            requests.incrementAndGet();
+            String path = exchange.getRequestURI().getPath();
+            JsonNode request;
+            try (InputStream body = "gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))
+                    ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody()) {
+                request = objectMapper.readTree(body);
+            }
+            JsonNode regulation = request == null ? null : request.get("regulation");
+            int requirements = regulation != null && regulation.isArray() ? regulation.size() : 0;
+            int checked = Math.min(topN, requirements);
+
+            if (!await(latency.sampleNanos(ThreadLocalRandom.current()) + perRequirement.toNanos() * checked)) {
+                respond(exchange, 503, Map.of("detail", "interrupted"));
+                return;
+            }
+            if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+                failures.incrementAndGet();
+                respond(exchange, errorStatus, Map.of("detail", "failure injected by the load test"));
+                return;
+            }
+
+            String answer = "According to 1.1: load test verdict for " + checked + " of " + requirements + " requirements";
+            if (path.endsWith("/check-uc")) {
+                respond(exchange, 200, answer);
+            } else if (path.endsWith("/check-uc-batch")) {
+                Map<String, String> answers = new LinkedHashMap<>();
+                for (Iterator<JsonNode> useCases = request.get("useCases").elements(); useCases.hasNext(); ) {
+                    answers.put(useCases.next().get("id").asText(), answer);
+                }
+                respond(exchange, 200, answers);
+            } else if (path.endsWith("/check-uc-ref")) {
+                // Every content is treated as known, the second round trip of a miss is not simulated
+                respond(exchange, 200, Map.of("answer", answer, "missing", new String[0]));
+            } else {
+                respond(exchange, 404, Map.of("detail", "Unknown endpoint " + path));
+            }
+        }
+    }
+
+    /**
+     * Waits for the latency of a request while holding a slot of the service.
+     *
+     * @param nanos latency in nanoseconds
+     * @return false if the thread has been interrupted
+     */
+    private boolean await(long nanos) {
+        try {
+            if (slots != null) {
+                slots.acquire();
+            }
+            try {
+                long delay = Math.max(0, nanos);
+                Thread.sleep(delay / 1_000_000, (int) (delay % 1_000_000));
+            } finally {
+                if (slots != null) {
+                    slots.release();
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void respond(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = objectMapper.writeValueAsString(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package ru.bonch.szfo2024.loadtest;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import java.time.Duration;
+import java.util.Random;
+
+/**
+ * Distribution of the latency of the neural network stand-in.
+ * Specified as {@code constant:800ms}, {@code uniform:200ms:2s}, {@code exponential:800ms} (mean)
+ * or {@code lognormal:800ms:0.5} (median and shape, the usual long tail of an LLM service).
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@FunctionalInterface
+interface LatencyDistribution {
+
+    /**
+     * @param random source of randomness of the calling thread
+     * @return latency of a single response in nanoseconds
+     */
+    long sampleNanos(Random random);
+
+    /**
+     * Parses the specification of a distribution.
+     *
+     * @param spec specification, durations in the Spring Boot format
+     * @return distribution
+     * @throws IllegalArgumentException if the specification is invalid
+     */
+    static LatencyDistribution parse(String spec) {
+        String[] parts = spec.split(":");
+        try {
+            switch (parts[0]) {
+                case "constant" -> {
+                    long nanos = nanos(parts[1]);
+                    return random -> nanos;
+                }
+                case "uniform" -> {
+                    long min = nanos(parts[1]);
+                    long max = nanos(parts[2]);
+                    return random -> min + (long) (random.nextDouble() * (max - min));
+                }
+                case "exponential" -> {
+                    long mean = nanos(parts[1]);
+                    return random -> (long) (-mean * Math.log(1 - random.nextDouble()));
+                }
+                case "lognormal" -> {
+                    double median = nanos(parts[1]);
+                    double sigma = Double.parseDouble(parts[2]);
+                    return random -> (long) (median * Math.exp(sigma * random.nextGaussian()));
+                }
+                default -> throw new IllegalArgumentException("Unknown distribution " + parts[0]);
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid latency distribution " + spec
+                    + ", expected constant:D, uniform:MIN:MAX, exponential:MEAN or lognormal:MEDIAN:SIGMA", e);
+        }
+    }
+
+    private static long nanos(String duration) {
+        Duration parsed = DurationStyle.detectAndParse(duration);
+        return parsed.toNanos();
+    }
+}
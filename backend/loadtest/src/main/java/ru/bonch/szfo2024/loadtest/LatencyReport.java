@@ -0,0 +1,106 @@
+package ru.bonch.szfo2024.loadtest;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Results of a load step: response times of the measured requests and their failures.
+ * Response times are measured from the moment the request was scheduled, not from when it was actually sent,
+ * so a backend falling behind the arrival rate shows up in the percentiles.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+final class LatencyReport {
+
+    private final double rate;
+    private long[] latencies = new long[1024]; // Response times of successful requests in ns
+    private int count;
+    private long sent;
+    private long dropped;
+    private long failedPairs;
+    private long firstScheduled = Long.MAX_VALUE;
+    private long lastCompleted = Long.MIN_VALUE;
+    private final Map<String, Long> errors = new TreeMap<>(); // HTTP status or exception → count
+
+    /**
+     * @param rate target arrival rate of the step, requests per second
+     */
+    LatencyReport(double rate) {
+        this.rate = rate;
+    }
+
+    synchronized void sent(long scheduled) {
+        sent++;
+        firstScheduled = Math.min(firstScheduled, scheduled);
+    }
+
+    synchronized void dropped() {
+        dropped++;
+    }
+
+    synchronized void success(long scheduled, long completed, boolean failedPair) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = completed - scheduled;
+        if (failedPair) {
+            failedPairs++;
+        }
+        lastCompleted = Math.max(lastCompleted, completed);
+    }
+
+    synchronized void error(String error, long completed) {
+        errors.merge(error, 1L, Long::sum);
+        lastCompleted = Math.max(lastCompleted, completed);
+    }
+
+    /**
+     * @return summary of the step, times in milliseconds
+     */
+    synchronized Summary summary() {
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        long errorCount = errors.values().stream().mapToLong(Long::longValue).sum();
+        double seconds = lastCompleted > firstScheduled ? (lastCompleted - firstScheduled) / 1e9 : 0;
+        return new Summary(rate, sent, count, errorCount, dropped, failedPairs,
+                seconds > 0 ? count / seconds : 0,
+                count > 0 ? millis(Arrays.stream(sorted).sum() / count) : 0,
+                percentile(sorted, 50), percentile(sorted, 95), percentile(sorted, 99),
+                count > 0 ? millis(sorted[count - 1]) : 0,
+                new TreeMap<>(errors));
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return millis(sorted[Math.max(0, Math.min(sorted.length - 1, index))]);
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1e5) / 10.0;
+    }
+
+    /**
+     * Summary of a load step.
+     *
+     * @param rate        target arrival rate, requests per second
+     * @param sent        requests sent
+     * @param ok          requests answered with HTTP 200
+     * @param errors      requests failed with another status or without a response
+     * @param dropped     requests not sent because too many were in flight
+     * @param failedPairs successful responses with at least one pair reported as failed
+     * @param throughput  successful responses per second
+     * @param mean        mean response time, ms
+     * @param p50         median response time, ms
+     * @param p95         95th percentile of the response time, ms
+     * @param p99         99th percentile of the response time, ms
+     * @param max         maximum response time, ms
+     * @param errorCounts errors by HTTP status or exception
+     */
+    record Summary(double rate, long sent, long ok, long errors, long dropped, long failedPairs, double throughput,
+                   double mean, double p50, double p95, double p99, double max, Map<String, Long> errorCounts) {
+    }
+}
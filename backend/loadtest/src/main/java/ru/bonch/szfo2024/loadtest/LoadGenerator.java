@@ -0,0 +1,119 @@
+package ru.bonch.szfo2024.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-model load generator: requests are started at a fixed arrival rate whether or not earlier requests have finished,
+ * as independent users would do. Requests that would exceed the in-flight limit are dropped and reported,
+ * so an overloaded backend can't slow the generator down.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+final class LoadGenerator {
+
+    private final HttpClient client;
+    private final URI target;
+    private final MultipartBody body;
+    private final Duration timeout;
+    private final int maxInFlight;
+
+    /**
+     * @param target      URL of the check endpoint
+     * @param body        multipart body of every request
+     * @param timeout     timeout of a single request
+     * @param maxInFlight maximum number of requests in flight
+     */
+    LoadGenerator(URI target, MultipartBody body, Duration timeout, int maxInFlight) {
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        this.target = target;
+        this.body = body;
+        this.timeout = timeout;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Runs a load step and waits for its requests to finish.
+     * Requests started during the warm-up are sent but not measured.
+     *
+     * @param rate     arrival rate, requests per second
+     * @param warmup   duration of the warm-up
+     * @param duration duration of the measurement
+     * @return results of the measured requests
+     * @throws InterruptedException if the thread is interrupted
+     */
+    LatencyReport run(double rate, Duration warmup, Duration duration) throws InterruptedException {
+        LatencyReport report = new LatencyReport(rate);
+        AtomicInteger inFlight = new AtomicInteger();
+        long interval = (long) (1e9 / rate);
+        long start = System.nanoTime();
+        long measureFrom = start + warmup.toNanos();
+        long end = measureFrom + duration.toNanos();
+
+        for (long scheduled = start; scheduled < end; scheduled += interval) {
+            long delay = scheduled - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            boolean measured = scheduled >= measureFrom;
+            if (inFlight.get() >= maxInFlight) {
+                if (measured) {
+                    report.dropped();
+                }
+                continue;
+            }
+            inFlight.incrementAndGet();
+            if (measured) {
+                report.sent(scheduled);
+            }
+            long requestScheduled = scheduled;
+            client.sendAsync(request(), HttpResponse.BodyHandlers.ofString())
+                    .whenComplete((response, e) -> {
+                        long completed = System.nanoTime();
+                        inFlight.decrementAndGet();
+                        if (!measured) {
+                            return;
+                        }
+                        if (e != null) {
+                            report.error(errorName(e), completed);
+                        } else if (response.statusCode() != 200) {
+                            report.error("HTTP " + response.statusCode(), completed);
+                        } else {
+                            report.success(requestScheduled, completed, response.body().contains("Check failed:"));
+                        }
+                    });
+        }
+
+        // Wait for the requests in flight, they are limited by the request timeout
+        long deadline = System.nanoTime() + timeout.toNanos() + TimeUnit.SECONDS.toNanos(5);
+        while (inFlight.get() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        return report;
+    }
+
+    private HttpRequest request() {
+        return HttpRequest.newBuilder(target)
+                .timeout(timeout)
+                .header("Content-Type", body.contentType())
+                .header("Accept", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.bytes()))
+                .build();
+    }
+
+    private static String errorName(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        return cause instanceof HttpTimeoutException ? "timeout" : cause.getClass().getSimpleName();
+    }
+}
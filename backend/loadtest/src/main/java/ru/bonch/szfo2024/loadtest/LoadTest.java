@@ -0,0 +1,195 @@
+package ru.bonch.szfo2024.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.ConfigurableApplicationContext;
+import ru.bonch.szfo2024.Szfo2024Application;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Entry point of the load test jar.
+ * <ul>
+ *     <li>{@code fake-neuro} runs the stand-in of the neural network service until the process is stopped;</li>
+ *     <li>{@code run} sends check requests to a running backend at the given arrival rates and reports the results;</li>
+ *     <li>{@code embedded} starts the stand-in and the backend in this process, then does the same as {@code run}.</li>
+ * </ul>
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+public class LoadTest {
+
+    private static final String USAGE = """
+            Usage: java -jar target/loadtest.jar <fake-neuro|run|embedded> [--option value]...
+
+            fake-neuro and embedded:
+              --port 5000                      port of the stand-in (fake-neuro only, embedded uses a free port)
+              --latency lognormal:800ms:0.5    constant:D, uniform:MIN:MAX, exponential:MEAN or lognormal:MEDIAN:SIGMA
+              --per-requirement 0ms            additional latency per requirement checked
+              --top-n 5                        requirements checked per request at most, like N_REQUIREMENTS of the service
+              --error-rate 0                   share of requests failed on purpose, 0..1
+              --error-status 503               HTTP status of the failed requests
+              --concurrency 0                  requests served at once, 0 for no limit
+            run and embedded:
+              --target http://localhost:8000/api/check-uc   (run only)
+              --path /api/check-uc             check endpoint of the backend, e.g. /api/check-uc/reactive (embedded only)
+              --rates 1,2,4                    arrival rates in requests per second, one step each
+              --warmup 10s                     requests of the warm-up of every step are not measured
+              --duration 60s                   measurement of every step
+              --timeout 300s                   timeout of a request
+              --max-in-flight 256              requests above it are dropped and reported
+              --use-case FILE                  Use Case DOCX, repeatable, the sample Use Case by default
+              --regulation FILE                regulation PDF, repeatable, the sample regulations by default
+              --regulation-id ID               catalog regulation, repeatable
+              --report FILE                    also write the results as JSON
+            """;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.print(USAGE);
+            System.exit(2);
+        }
+        Map<String, List<String>> options = options(Arrays.copyOfRange(args, 1, args.length));
+        switch (args[0]) {
+            case "fake-neuro" -> {
+                FakeNeuroServer server = fakeNeuro(options, Integer.parseInt(option(options, "port", "5000")));
+                System.out.println("Neuro stand-in listening on " + server.url());
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.println(server.stats())));
+                Thread.currentThread().join();
+            }
+            case "run" -> run(options, URI.create(option(options, "target", "http://localhost:8000/api/check-uc")));
+            case "embedded" -> {
+                try (FakeNeuroServer server = fakeNeuro(options, 0);
+                     ConfigurableApplicationContext backend = new SpringApplicationBuilder(Szfo2024Application.class).run(
+                             "--server.port=0",
+                             "--makson.connection.url=" + server.url(),
+                             "--danya.connection.url=" + server.url(),
+                             // Every request uploads the same files, the caches would hide the work being measured
+                             "--neuro.cache.enabled=false",
+                             "--pdf.cache.enabled=false",
+                             "--logging.level.ru.bonch.szfo2024=WARN")) {
+                    String port = backend.getEnvironment().getProperty("local.server.port");
+                    run(options, URI.create("http://localhost:" + port + option(options, "path", "/api/check-uc")));
+                    System.out.println("Neuro stand-in: " + server.stats());
+                }
+            }
+            default -> {
+                System.err.print(USAGE);
+                System.exit(2);
+            }
+        }
+    }
+
+    private static FakeNeuroServer fakeNeuro(Map<String, List<String>> options, int port) throws IOException {
+        return new FakeNeuroServer(port,
+                LatencyDistribution.parse(option(options, "latency", "lognormal:800ms:0.5")),
+                DurationStyle.detectAndParse(option(options, "per-requirement", "0ms")),
+                Integer.parseInt(option(options, "top-n", "5")),
+                Double.parseDouble(option(options, "error-rate", "0")),
+                Integer.parseInt(option(options, "error-status", "503")),
+                Integer.parseInt(option(options, "concurrency", "0")));
+    }
+
+    private static void run(Map<String, List<String>> options, URI target) throws Exception {
+        MultipartBody body = new MultipartBody();
+        for (String file : options.getOrDefault("use-case", List.of())) {
+            body.file("useCases", Path.of(file).getFileName().toString(), MultipartBody.DOCX, Files.readAllBytes(Path.of(file)));
+        }
+        if (!options.containsKey("use-case")) {
+            body.file("useCases", "UC_remote_update.docx", MultipartBody.DOCX, sample("UC_remote_update.docx"));
+        }
+        for (String file : options.getOrDefault("regulation", List.of())) {
+            body.file("regulations", Path.of(file).getFileName().toString(), MultipartBody.PDF, Files.readAllBytes(Path.of(file)));
+        }
+        for (String id : options.getOrDefault("regulation-id", List.of())) {
+            body.field("regulationIds", id);
+        }
+        if (!options.containsKey("regulation") && !options.containsKey("regulation-id")) {
+            body.file("regulations", "Cyber_Security_ENG.pdf", MultipartBody.PDF, sample("Cyber_Security_ENG.pdf"));
+            body.file("regulations", "Software_Update_EN.pdf", MultipartBody.PDF, sample("Software_Update_EN.pdf"));
+        }
+
+        Duration warmup = DurationStyle.detectAndParse(option(options, "warmup", "10s"));
+        Duration duration = DurationStyle.detectAndParse(option(options, "duration", "60s"));
+        LoadGenerator generator = new LoadGenerator(target, body,
+                DurationStyle.detectAndParse(option(options, "timeout", "300s")),
+                Integer.parseInt(option(options, "max-in-flight", "256")));
+
+        System.out.printf("Target %s, request body %d bytes%n", target, body.bytes().length);
+        System.out.printf(Locale.ROOT, "%8s %7s %7s %7s %7s %7s %10s %9s %9s %9s %9s %9s%n", "rate/s", "sent", "ok",
+                "errors", "dropped", "failed", "ok/s", "mean ms", "p50 ms", "p95 ms", "p99 ms", "max ms");
+        List<LatencyReport.Summary> summaries = new ArrayList<>();
+        for (String rate : option(options, "rates", "1,2,4").split(",")) {
+            LatencyReport.Summary summary = generator.run(Double.parseDouble(rate.trim()), warmup, duration).summary();
+            summaries.add(summary);
+            System.out.printf(Locale.ROOT, "%8.2f %7d %7d %7d %7d %7d %10.2f %9.1f %9.1f %9.1f %9.1f %9.1f%n",
+                    summary.rate(), summary.sent(), summary.ok(), summary.errors(), summary.dropped(), summary.failedPairs(),
+                    summary.throughput(), summary.mean(), summary.p50(), summary.p95(), summary.p99(), summary.max());
+            if (!summary.errorCounts().isEmpty()) {
+                System.out.println("         errors: " + summary.errorCounts());
+            }
+        }
+
+        String report = option(options, "report", null);
+        if (report != null) {
+            new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(Path.of(report).toFile(), summaries);
+        }
+    }
+
+    /**
+     * Parses {@code --name value} and {@code --name=value} options, an option may be repeated.
+     *
+     * @param args command line arguments after the command
+     * @return values by option name, in the order of the arguments
+     */
+    private static Map<String, List<String>> options(String[] args) {
+        Map<String, List<String>> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + args[i] + "\n" + USAGE);
+            }
+            String name = args[i].substring(2);
+            String value;
+            int equals = name.indexOf('=');
+            if (equals >= 0) {
+                value = name.substring(equals + 1);
+                name = name.substring(0, equals);
+            } else if (i + 1 < args.length) {
+                value = args[++i];
+            } else {
+                throw new IllegalArgumentException("No value for --" + name);
+            }
+            options.computeIfAbsent(name, key -> new ArrayList<>()).add(value);
+        }
+        return options;
+    }
+
+    private static String option(Map<String, List<String>> options, String name, String defaultValue) {
+        List<String> values = options.get(name);
+        return values == null ? defaultValue : values.get(values.size() - 1);
+    }
+
+    private static byte[] sample(String name) {
+        try (InputStream inputStream = LoadTest.class.getResourceAsStream("/samples/" + name)) {
+            if (inputStream == null) {
+                throw new IllegalArgumentException("No sample " + name);
+            }
+            return inputStream.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
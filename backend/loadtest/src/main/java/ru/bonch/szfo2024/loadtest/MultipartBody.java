@@ -0,0 +1,74 @@
+package ru.bonch.szfo2024.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Multipart form data of a check request, built once and sent by every request of the load test.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+final class MultipartBody {
+
+    static final String DOCX = "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
+    static final String PDF = "application/pdf";
+
+    private final String boundary = "----szfo2024-" + UUID.randomUUID();
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private byte[] bytes;
+
+    /**
+     * Adds a file part.
+     *
+     * @param name        name of the form field
+     * @param fileName    original name of the file
+     * @param contentType content type of the file
+     * @param content     content of the file
+     * @return this body
+     */
+    MultipartBody file(String name, String fileName, String contentType, byte[] content) {
+        write("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"" + name + "\"; filename=\"" + fileName + "\"\r\n"
+                + "Content-Type: " + contentType + "\r\n\r\n");
+        body.writeBytes(content);
+        write("\r\n");
+        return this;
+    }
+
+    /**
+     * Adds a text part.
+     *
+     * @param name  name of the form field
+     * @param value value of the field
+     * @return this body
+     */
+    MultipartBody field(String name, String value) {
+        write("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"" + name + "\"\r\n\r\n"
+                + value + "\r\n");
+        return this;
+    }
+
+    /**
+     * @return content type of the body with its boundary
+     */
+    String contentType() {
+        return "multipart/form-data; boundary=" + boundary;
+    }
+
+    /**
+     * @return the whole body, the closing boundary is added on the first call
+     */
+    byte[] bytes() {
+        if (bytes == null) {
+            write("--" + boundary + "--\r\n");
+            bytes = body.toByteArray();
+        }
+        return bytes;
+    }
+
+    private void write(String text) {
+        body.writeBytes(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,369 @@
+package ru.bonch.szfo2024.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.bonch.szfo2024.dto.response.CacheStatsDto;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * String cache with an in-memory LRU tier and an optional on-disk tier that survives restarts.
+ * Both tiers are bounded by size; the least recently used entries are evicted first.
+ * Entries older than the optional time to live are treated as missing.
+ * Each disk entry is a file named after its key, the first line holds the time the entry was written.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Slf4j
+public class TwoTierCache {
+
+    private static final String FILE_SUFFIX = ".cache";
+    private static final Pattern KEY_PATTERN = Pattern.compile("[0-9A-Za-z_-]+");
+
+    private final String name;
+    private final long maxMemoryBytes;
+    private final Path diskDir; // null if the disk tier is disabled
+    private final long maxDiskBytes;
+    private final long ttlMillis; // 0 if entries never expire
+
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes; // guarded by memory
+    private final Object diskLock = new Object();
+    private final AtomicLong diskBytes = new AtomicLong();
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a cache.
+     *
+     * @param name           name of the cache used in logs and statistics
+     * @param maxMemoryBytes maximum estimated size of the in-memory tier
+     * @param diskDir        directory of the on-disk tier, null to keep entries in memory only
+     * @param maxDiskBytes   maximum size of the on-disk tier
+     * @param ttl            time to live of an entry, null or zero if entries never expire
+     */
+    public TwoTierCache(String name, long maxMemoryBytes, Path diskDir, long maxDiskBytes, Duration ttl) {
+        this.name = name;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxDiskBytes = maxDiskBytes;
+        this.ttlMillis = ttl == null ? 0 : ttl.toMillis();
+        this.diskDir = diskDir == null ? null : openDiskDir(diskDir);
+    }
+
+    /**
+     * Returns the value stored for the key, promoting disk entries to memory.
+     *
+     * @param key cache key
+     * @return cached value or null if there is no entry
+     */
+    public String get(String key) {
+        checkKey(key);
+        synchronized (memory) {
+            Entry entry = memory.get(key);
+            if (entry != null && !isExpired(entry)) {
+                memoryHits.incrementAndGet();
+                return entry.value;
+            }
+            if (entry != null) {
+                memory.remove(key);
+                memoryBytes -= entry.estimatedSize(key);
+                evictions.incrementAndGet();
+            }
+        }
+        if (diskDir != null) {
+            Entry entry = readFromDisk(key);
+            if (entry != null && isExpired(entry)) {
+                invalidate(key);
+                evictions.incrementAndGet();
+            } else if (entry != null) {
+                diskHits.incrementAndGet();
+                putInMemory(key, entry);
+                return entry.value;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores the value in both tiers.
+     *
+     * @param key   cache key
+     * @param value value to store
+     */
+    public void put(String key, String value) {
+        checkKey(key);
+        Entry entry = new Entry(value, System.currentTimeMillis());
+        putInMemory(key, entry);
+        if (diskDir != null) {
+            writeToDisk(key, entry);
+        }
+    }
+
+    /**
+     * Removes the entry from both tiers.
+     *
+     * @param key cache key
+     */
+    public void invalidate(String key) {
+        checkKey(key);
+        synchronized (memory) {
+            Entry entry = memory.remove(key);
+            if (entry != null) {
+                memoryBytes -= entry.estimatedSize(key);
+            }
+        }
+        if (diskDir != null) {
+            deleteFromDisk(key);
+        }
+    }
+
+    /**
+     * Removes every entry from both tiers.
+     */
+    public void invalidateAll() {
+        synchronized (memory) {
+            memory.clear();
+            memoryBytes = 0;
+        }
+        if (diskDir == null) {
+            return;
+        }
+        synchronized (diskLock) {
+            try (Stream<Path> stream = Files.list(diskDir)) {
+                for (Path path : stream.filter(path -> path.toString().endsWith(FILE_SUFFIX)).toList()) {
+                    long size = Files.size(path);
+                    if (Files.deleteIfExists(path)) {
+                        diskBytes.addAndGet(-size);
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Cache {}: can't clear disk tier: {}", name, e.getMessage());
+            }
+        }
+        log.info("Cache {}: all entries invalidated", name);
+    }
+
+    /**
+     * Returns statistics of the cache.
+     *
+     * @return current counters and sizes
+     */
+    public CacheStatsDto stats() {
+        synchronized (memory) {
+            return new CacheStatsDto(name, memoryHits.get(), diskHits.get(), misses.get(), evictions.get(),
+                    memory.size(), memoryBytes, diskBytes.get());
+        }
+    }
+
+    /**
+     * Puts the entry in memory and evicts the least recently used entries above the size limit.
+     *
+     * @param key   cache key
+     * @param entry entry to store
+     */
+    private void putInMemory(String key, Entry entry) {
+        long size = entry.estimatedSize(key);
+        if (size > maxMemoryBytes) {
+            return; // Never fits, keep it on disk only
+        }
+        synchronized (memory) {
+            Entry previous = memory.put(key, entry);
+            memoryBytes += size;
+            if (previous != null) {
+                memoryBytes -= previous.estimatedSize(key);
+            }
+            var iterator = memory.entrySet().iterator();
+            while (memoryBytes > maxMemoryBytes && iterator.hasNext()) {
+                Map.Entry<String, Entry> eldest = iterator.next();
+                memoryBytes -= eldest.getValue().estimatedSize(eldest.getKey());
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Reads the entry from disk and marks it as recently used.
+     *
+     * @param key cache key
+     * @return entry or null if there is no readable entry on disk
+     */
+    private Entry readFromDisk(String key) {
+        Path file = file(key);
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            long writtenAt = Long.parseLong(reader.readLine());
+            StringBuilder value = new StringBuilder();
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                value.append(buffer, 0, read);
+            }
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+            return new Entry(value.toString(), writtenAt);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cache {}: unreadable entry {}, removing it: {}", name, key, e.getMessage());
+            deleteFromDisk(key);
+            return null;
+        }
+    }
+
+    /**
+     * Atomically writes the entry to disk and evicts the least recently used files above the size limit.
+     *
+     * @param key   cache key
+     * @param entry entry to store
+     */
+    private void writeToDisk(String key, Entry entry) {
+        Path file = file(key);
+        Path tmp = diskDir.resolve(key + "." + UUID.randomUUID() + ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                writer.write(Long.toString(entry.writtenAt));
+                writer.write('\n');
+                writer.write(entry.value);
+            }
+            long size = Files.size(tmp);
+            synchronized (diskLock) {
+                long previousSize = Files.exists(file) ? Files.size(file) : 0;
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                diskBytes.addAndGet(size - previousSize);
+                if (diskBytes.get() > maxDiskBytes) {
+                    evictFromDisk();
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Cache {}: can't write entry {} to disk: {}", name, key, e.getMessage());
+        } finally {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+                // Nothing to do, the temporary file will be removed on the next start
+            }
+        }
+    }
+
+    /**
+     * Removes the least recently used files until the disk tier fits its limit.
+     *
+     * @throws IOException if the directory can't be listed
+     */
+    private void evictFromDisk() throws IOException {
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(diskDir)) {
+            files = new ArrayList<>(stream.filter(path -> path.toString().endsWith(FILE_SUFFIX)).toList());
+        }
+        files.sort(Comparator.comparing(TwoTierCache::lastModified));
+        for (Path path : files) {
+            if (diskBytes.get() <= maxDiskBytes) {
+                break;
+            }
+            long size = Files.size(path);
+            if (Files.deleteIfExists(path)) {
+                diskBytes.addAndGet(-size);
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Removes the entry from disk.
+     *
+     * @param key cache key
+     */
+    private void deleteFromDisk(String key) {
+        Path file = file(key);
+        synchronized (diskLock) {
+            try {
+                long size = Files.exists(file) ? Files.size(file) : 0;
+                if (Files.deleteIfExists(file)) {
+                    diskBytes.addAndGet(-size);
+                }
+            } catch (IOException e) {
+                log.warn("Cache {}: can't remove entry {} from disk: {}", name, key, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Creates the disk tier directory, removes leftovers of interrupted writes and calculates its size.
+     *
+     * @param dir directory of the disk tier
+     * @return the directory or null if it can't be used
+     */
+    private Path openDiskDir(Path dir) {
+        try {
+            Files.createDirectories(dir);
+            long size = 0;
+            try (Stream<Path> stream = Files.list(dir)) {
+                for (Path path : stream.toList()) {
+                    if (path.toString().endsWith(".tmp")) {
+                        Files.deleteIfExists(path);
+                    } else if (path.toString().endsWith(FILE_SUFFIX)) {
+                        size += Files.size(path);
+                    }
+                }
+            }
+            diskBytes.set(size);
+            log.info("Cache {}: disk tier {} holds {} bytes", name, dir, size);
+            return dir;
+        } catch (IOException e) {
+            log.warn("Cache {}: disk tier {} is not available, keeping entries in memory only: {}", name, dir, e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean isExpired(Entry entry) {
+        return ttlMillis > 0 && System.currentTimeMillis() - entry.writtenAt > ttlMillis;
+    }
+
+    private Path file(String key) {
+        return diskDir.resolve(key + FILE_SUFFIX);
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static void checkKey(String key) {
+        if (key == null || !KEY_PATTERN.matcher(key).matches()) {
+            throw new IllegalArgumentException("Invalid cache key: " + key);
+        }
+    }
+
+    /**
+     * Cached value with the time it was written.
+     */
+    private record Entry(String value, long writtenAt) {
+        long estimatedSize(String key) {
+            return 2L * (key.length() + value.length()) + 64;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package ru.bonch.szfo2024.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Configuration of the executor used to check Use Case and regulation pairs concurrently.
+ * The pool is bounded by {@code check.executor.max-concurrency}; its threads are virtual
+ * when the runtime supports them (Java 21+) and {@code check.executor.virtual-threads} is enabled.
+ * Page ranges of large PDFs are extracted on a separate CPU-bound pool of {@code pdf.extraction.parallelism} threads,
+ * one per available processor by default.
+ * The reactive check parses its input files on a bounded elastic scheduler of {@code check.reactive.parse-threads} threads
+ * queueing at most {@code check.reactive.parse-queue} tasks.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Slf4j
+@Configuration
+public class CheckExecutorConfig {
+
+    @Value("${check.executor.max-concurrency:8}")
+    private int maxConcurrency;
+
+    @Value("${check.executor.virtual-threads:true}")
+    private boolean virtualThreads;
+
+    @Value("${pdf.extraction.parallelism:0}")
+    private int pdfParallelism;
+
+    @Value("${check.reactive.parse-threads:4}")
+    private int parseThreads;
+
+    @Value("${check.reactive.parse-queue:256}")
+    private int parseQueue;
+
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService checkExecutor() {
+        if (maxConcurrency < 1) {
+            throw new IllegalStateException("check.executor.max-concurrency must be positive, got " + maxConcurrency);
+        }
+        return Executors.newFixedThreadPool(maxConcurrency, threadFactory());
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService pdfExecutor() {
+        AtomicInteger counter = new AtomicInteger();
+        int threads = pdfParallelism > 0 ? pdfParallelism : Runtime.getRuntime().availableProcessors();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "pdf-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Bean(destroyMethod = "dispose")
+    public Scheduler parseScheduler() {
+        return Schedulers.newBoundedElastic(parseThreads, parseQueue, "check-parse", 60, true);
+    }
+
+    /**
+     * Creates a thread factory for the check executor.
+     * @return virtual thread factory if available and enabled, platform daemon thread factory otherwise
+     */
+    private ThreadFactory threadFactory() {
+        if (virtualThreads) {
+            ThreadFactory virtualFactory = virtualThreadFactory();
+            if (virtualFactory != null) {
+                log.info("Check executor uses virtual threads, max concurrency {}", maxConcurrency);
+                return virtualFactory;
+            }
+            log.info("Virtual threads are not available in this runtime, falling back to platform threads");
+        }
+        log.info("Check executor uses platform threads, max concurrency {}", maxConcurrency);
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "check-uc-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Looks up {@code Thread.ofVirtual()} reflectively, so the application still runs on Java 17.
+     * @return virtual thread factory or null if the runtime does not provide one
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = ofVirtual.invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "check-uc-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package ru.bonch.szfo2024.config;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.bonch.szfo2024.service.neuro.NeuroClient;
+import ru.bonch.szfo2024.service.neuro.NeuroGuard;
+
+/**
+ * Configuration of the metrics of the neural network client and of its protection,
+ * read from the same statistics as {@code /api/neuro/pool} and {@code /api/neuro/guard}.
+ * Metrics of the check pipeline are registered by {@link ru.bonch.szfo2024.service.CheckMetrics}.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder neuroGuardMetrics(NeuroGuard neuroGuard) {
+        return registry -> {
+            Gauge.builder("neuro.limiter.limit", neuroGuard, guard -> guard.stats().getLimit())
+                    .description("Current limit of concurrent calls to the neural network service")
+                    .register(registry);
+            Gauge.builder("neuro.limiter.in.flight", neuroGuard, guard -> guard.stats().getInFlight())
+                    .description("Calls to the neural network service holding a permit")
+                    .register(registry);
+            Gauge.builder("neuro.circuit.open", neuroGuard, guard -> "CLOSED".equals(guard.stats().getCircuitState()) ? 0 : 1)
+                    .description("1 if the circuit is open or half-open, 0 if it is closed")
+                    .register(registry);
+            FunctionCounter.builder("neuro.limiter.rejected", neuroGuard, guard -> guard.stats().getLimiterRejected())
+                    .description("Calls rejected after waiting for a permit")
+                    .register(registry);
+            FunctionCounter.builder("neuro.circuit.rejected", neuroGuard, guard -> guard.stats().getCircuitRejected())
+                    .description("Calls rejected while the circuit was open")
+                    .register(registry);
+            FunctionCounter.builder("neuro.retries", neuroGuard, guard -> guard.stats().getRetries())
+                    .description("Retried calls to the neural network service")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder neuroPoolMetrics(NeuroClient neuroClient) {
+        return registry -> {
+            Gauge.builder("neuro.pool.in.flight", neuroClient, client -> client.stats().getInFlight())
+                    .description("Requests to the neural network service being executed")
+                    .register(registry);
+            Gauge.builder("neuro.pool.pending", neuroClient, client -> client.stats().getPending())
+                    .description("Requests waiting for a connection, -1 if unknown")
+                    .register(registry);
+        };
+    }
+}
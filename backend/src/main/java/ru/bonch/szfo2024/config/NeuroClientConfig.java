@@ -0,0 +1,119 @@
+package ru.bonch.szfo2024.config;
+
+import io.netty.channel.ChannelOption;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import ru.bonch.szfo2024.service.neuro.NeuroClient;
+
+import java.time.Duration;
+
+/**
+ * Configuration of the pooled HTTP client of the neural network service.
+ * Connections are persistent and reused between requests; every stage of a request has a timeout,
+ * so a hung call can't pin a thread indefinitely.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Slf4j
+@Configuration
+public class NeuroClientConfig {
+
+    @Value("${makson.connection.url}")
+    private String maskonUrl;
+
+    @Value("${neuro.client.mode:blocking}")
+    private String mode;
+
+    @Value("${neuro.client.max-connections:64}")
+    private int maxConnections;
+
+    @Value("${neuro.client.max-connections-per-route:32}")
+    private int maxConnectionsPerRoute;
+
+    @Value("${neuro.client.connect-timeout:5s}")
+    private Duration connectTimeout;
+
+    @Value("${neuro.client.read-timeout:120s}")
+    private Duration readTimeout;
+
+    @Value("${neuro.client.response-timeout:180s}")
+    private Duration responseTimeout;
+
+    @Value("${neuro.client.pool-acquire-timeout:30s}")
+    private Duration poolAcquireTimeout;
+
+    @Value("${neuro.client.keep-alive:60s}")
+    private Duration keepAlive;
+
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager neuroConnectionManager() {
+        return PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(connectTimeout))
+                        .setSocketTimeout(Timeout.of(readTimeout))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(5))
+                        .build())
+                .build();
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient neuroHttpClient(PoolingHttpClientConnectionManager neuroConnectionManager) {
+        return HttpClients.custom()
+                .setConnectionManager(neuroConnectionManager)
+                .setConnectionManagerShared(true)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.of(poolAcquireTimeout))
+                        .setResponseTimeout(Timeout.of(responseTimeout))
+                        .build())
+                .setKeepAliveStrategy((response, context) -> TimeValue.of(keepAlive))
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.of(keepAlive))
+                .build();
+    }
+
+    @Bean
+    public NeuroClient neuroClient(PoolingHttpClientConnectionManager neuroConnectionManager, CloseableHttpClient neuroHttpClient) {
+        if ("reactive".equalsIgnoreCase(mode)) {
+            log.info("Neuro client: reactive WebClient, {} connections", maxConnections);
+            ConnectionProvider connectionProvider = ConnectionProvider.builder("neuro")
+                    .maxConnections(maxConnections)
+                    .pendingAcquireTimeout(poolAcquireTimeout)
+                    .maxIdleTime(keepAlive)
+                    .build();
+            HttpClient httpClient = HttpClient.create(connectionProvider)
+                    .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis())
+                    .keepAlive(true)
+                    .compress(true)
+                    .responseTimeout(responseTimeout);
+            WebClient webClient = WebClient.builder()
+                    .clientConnector(new ReactorClientHttpConnector(httpClient))
+                    .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(16 * 1024 * 1024))
+                    .build();
+            return NeuroClient.reactive(maskonUrl, webClient, responseTimeout, maxConnections);
+        }
+        if (!"blocking".equalsIgnoreCase(mode)) {
+            throw new IllegalStateException("Unknown neuro.client.mode: " + mode + ", expected blocking or reactive");
+        }
+        log.info("Neuro client: pooled RestTemplate, {} connections, {} per route", maxConnections, maxConnectionsPerRoute);
+        RestTemplate restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(neuroHttpClient));
+        return NeuroClient.blocking(maskonUrl, restTemplate, neuroConnectionManager, maxConnectionsPerRoute);
+    }
+}
@@ -0,0 +1,71 @@
+package ru.bonch.szfo2024.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import ru.bonch.szfo2024.dto.response.CacheStatsDto;
+import ru.bonch.szfo2024.error.exception.common.BadRequest;
+import ru.bonch.szfo2024.service.NeuroResultCache;
+import ru.bonch.szfo2024.service.NeuroVerdictStore;
+import ru.bonch.szfo2024.service.files.PdfTextCache;
+
+import java.util.List;
+
+/**
+ * Controller exposing the state of the application caches.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@CrossOrigin
+@RequiredArgsConstructor
+@RestController
+@RequestMapping("/api/cache")
+public class CacheController {
+
+    private final PdfTextCache pdfTextCache;
+    private final NeuroResultCache neuroResultCache;
+    private final NeuroVerdictStore neuroVerdictStore;
+
+    /**
+     * Returns statistics of every cache.
+     *
+     * @return list of cache statistics
+     */
+    @GetMapping("stats")
+    public List<CacheStatsDto> getStats() {
+        return List.of(pdfTextCache.stats(), neuroResultCache.stats(), neuroVerdictStore.stats());
+    }
+
+    /**
+     * Removes every cached neural network response.
+     */
+    @DeleteMapping("neuro")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void invalidateNeuro() {
+        neuroResultCache.invalidateAll();
+    }
+
+    /**
+     * Removes a single cached neural network response.
+     *
+     * @param key key of the response
+     */
+    @DeleteMapping("neuro/{key}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void invalidateNeuro(@PathVariable String key) {
+        try {
+            neuroResultCache.invalidate(key);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequest(e.getMessage());
+        }
+    }
+
+    /**
+     * Removes every stored verdict of the incremental checks, the next checks are full.
+     */
+    @DeleteMapping("verdicts")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void invalidateVerdicts() {
+        neuroVerdictStore.invalidateAll();
+    }
+}
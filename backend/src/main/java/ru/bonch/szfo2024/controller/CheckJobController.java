@@ -0,0 +1,74 @@
+package ru.bonch.szfo2024.controller;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import ru.bonch.szfo2024.dto.response.CheckJobDto;
+import ru.bonch.szfo2024.dto.response.UcResponseDto;
+import ru.bonch.szfo2024.service.files.CheckInputFilesService;
+import ru.bonch.szfo2024.service.job.CheckJobService;
+
+import java.util.List;
+
+/**
+ * Controller running checks of Use Cases as asynchronous jobs.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@CrossOrigin
+@RequiredArgsConstructor
+@RestController
+@RequestMapping("/api/check-uc/jobs")
+@Slf4j
+public class CheckJobController {
+
+    private final CheckInputFilesService checkInputFilesService;
+    private final CheckJobService checkJobService;
+
+    /**
+     * Submits a check job for the uploaded Use Case and regulation files.
+     *
+     * @param useCaseFiles    list of Use Case files
+     * @param regulationFiles list of regulation files
+     * @param regulationIds   list of identifiers of catalog regulations, used alongside or instead of regulation files
+     * @return state of the submitted job, containing its identifier
+     */
+    @PostMapping
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public CheckJobDto submit(
+            @RequestParam("useCases") List<MultipartFile> useCaseFiles,
+            @RequestParam(value = "regulations", required = false) List<MultipartFile> regulationFiles,
+            @RequestParam(value = "regulationIds", required = false) List<String> regulationIds) {
+
+        // Check input files for extensions
+        checkInputFilesService.check(useCaseFiles, regulationFiles, regulationIds);
+
+        CheckJobDto job = checkJobService.submit(useCaseFiles, regulationFiles, regulationIds);
+        log.debug("Check job submitted: {}", job);
+        return job;
+    }
+
+    /**
+     * Returns the progress of the job.
+     *
+     * @param id identifier of the job
+     * @return state of the job
+     */
+    @GetMapping("{id}")
+    public CheckJobDto getStatus(@PathVariable String id) {
+        return checkJobService.getStatus(id);
+    }
+
+    /**
+     * Returns the results of the job finished so far.
+     *
+     * @param id identifier of the job
+     * @return list of responses for each Use Case
+     */
+    @GetMapping("{id}/results")
+    public List<UcResponseDto> getResults(@PathVariable String id) {
+        return checkJobService.getResults(id);
+    }
+}
@@ -1,24 +1,30 @@
 package ru.bonch.szfo2024.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
-import ru.bonch.szfo2024.dto.RequirementDto;
-import ru.bonch.szfo2024.dto.UcAndRegulationDto;
-import ru.bonch.szfo2024.dto.UseCaseDto;
-import ru.bonch.szfo2024.dto.response.RegulationResponseDto;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.bonch.szfo2024.dto.response.CheckEventDto;
 import ru.bonch.szfo2024.dto.response.UcResponseDto;
-import ru.bonch.szfo2024.service.CheckUCService;
-import ru.bonch.szfo2024.service.NameRelationService;
-import ru.bonch.szfo2024.service.RegulationItemisationService;
+import ru.bonch.szfo2024.service.CheckPipelineService;
+import ru.bonch.szfo2024.service.ReactiveCheckService;
 import ru.bonch.szfo2024.service.files.CheckInputFilesService;
-import ru.bonch.szfo2024.service.files.DocxReadService;
-import ru.bonch.szfo2024.service.files.PdfReadService;
+import ru.bonch.szfo2024.trace.PayloadLog;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.time.Duration;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -31,70 +37,191 @@ import java.util.Map;
 @Slf4j
 public class CheckUCController {
 
-    private final CheckUCService checkUCService;
     private final CheckInputFilesService checkInputFilesService;
-    private final NameRelationService nameRelationService;
-    private final PdfReadService pdfReadService;
-    private final DocxReadService docxReadService;
-    private final RegulationItemisationService regulationItemisationService;
+    private final CheckPipelineService checkPipelineService;
+    private final ReactiveCheckService reactiveCheckService;
+    private final ObjectMapper objectMapper;
+    private final PayloadLog payloadLog;
+
+    @Value("${check.stream.timeout:30m}")
+    private Duration streamTimeout;
 
     /**
      * Handles the upload of Use Case and regulation files.
      *
      * @param useCaseFiles    list of Use Case files
      * @param regulationFiles list of regulation files
+     * @param regulationIds   list of identifiers of catalog regulations, used alongside or instead of regulation files
      * @return list of responses for each Use Case
      */
     @PostMapping("check-uc")
     public List<UcResponseDto> handleFileUpload(
             @RequestParam("useCases") List<MultipartFile> useCaseFiles,
-            @RequestParam("regulations") List<MultipartFile> regulationFiles) {
+            @RequestParam(value = "regulations", required = false) List<MultipartFile> regulationFiles,
+            @RequestParam(value = "regulationIds", required = false) List<String> regulationIds) {
+
+        // Check input files for extensions
+        checkInputFilesService.check(useCaseFiles, regulationFiles, regulationIds);
+
+        // Check every Use Case against related regulations
+        List<UcResponseDto> response = checkPipelineService.check(useCaseFiles, regulationFiles, regulationIds);
+
+        payloadLog.debug(log, "Response for {} use cases: {}", useCaseFiles.size(), response);
+        return response;
+    }
+
+    /**
+     * Handles the upload of Use Case and regulation files, streaming every regulation response
+     * as a Server-Sent Event as soon as it is ready. The last event is named "complete".
+     *
+     * @param useCaseFiles    list of Use Case files
+     * @param regulationFiles list of regulation files
+     * @param regulationIds   list of identifiers of catalog regulations, used alongside or instead of regulation files
+     * @return emitter of the check events
+     */
+    @PostMapping(value = "check-uc/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter handleFileUploadSse(
+            @RequestParam("useCases") List<MultipartFile> useCaseFiles,
+            @RequestParam(value = "regulations", required = false) List<MultipartFile> regulationFiles,
+            @RequestParam(value = "regulationIds", required = false) List<String> regulationIds) {
+
+        // Check input files for extensions
+        checkInputFilesService.check(useCaseFiles, regulationFiles, regulationIds);
+
+        CheckPipelineService.Plan plan = checkPipelineService.prepare(useCaseFiles, regulationFiles, regulationIds);
+        SseEmitter emitter = new SseEmitter(streamTimeout.toMillis());
+        stream(plan, emitter, event -> emitter.send(SseEmitter.event()
+                .name(event.getType())
+                .data(event, MediaType.APPLICATION_JSON)));
+        return emitter;
+    }
+
+    /**
+     * Handles the upload of Use Case and regulation files, streaming every regulation response
+     * as a line of newline-delimited JSON as soon as it is ready. The last line has type "complete".
+     *
+     * @param useCaseFiles    list of Use Case files
+     * @param regulationFiles list of regulation files
+     * @param regulationIds   list of identifiers of catalog regulations, used alongside or instead of regulation files
+     * @return emitter of the check events
+     */
+    @PostMapping(value = "check-uc/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<ResponseBodyEmitter> handleFileUploadNdjson(
+            @RequestParam("useCases") List<MultipartFile> useCaseFiles,
+            @RequestParam(value = "regulations", required = false) List<MultipartFile> regulationFiles,
+            @RequestParam(value = "regulationIds", required = false) List<String> regulationIds) {
 
         // Check input files for extensions
-        checkInputFilesService.check(useCaseFiles, regulationFiles);
-
-        // Read regulation files
-        Map<String, String> regulationsText = pdfReadService.uploadFiles(regulationFiles);
-        // Read use case files
-        Map<String, UseCaseDto> useCasesText = docxReadService.getUseCases(useCaseFiles);
-
-        List<UcResponseDto> response = new ArrayList<>();
-
-        // Process each Use Case
-        for (var useCase : useCasesText.entrySet()) {
-            UcResponseDto ucResponse = new UcResponseDto();
-            ucResponse.setFileName(useCase.getKey());
-            // Check Use Case against each regulation
-            for (var regulationText : regulationsText.entrySet()) {
-                // Check relation between Use Case and regulation
-                boolean isRelatedWithRegulation = useCase
-                        .getValue()
-                        .getSystemNames()
-                        .stream()
-                        .anyMatch(systemName ->
-                                nameRelationService.areRelated(systemName, regulationText.getKey())
-                        );
-                if (isRelatedWithRegulation) {
-                    log.debug(useCase.getKey() + " → " + regulationText.getKey());
-                    // Break down regulation into individual requirements
-                    List<RequirementDto> regulation = regulationItemisationService.itemise(regulationText.getValue());
-                    // Prepare data for sending to AI
-                    UcAndRegulationDto ucAndRegulationDto = new UcAndRegulationDto(useCase.getValue().getText(), regulation);
-                    // Send data to AI and add result to response
-                    RegulationResponseDto regulationResponse = new RegulationResponseDto(regulationText.getKey(), checkUCService.sendDataToNeuro(ucAndRegulationDto));
-                    log.debug("regulation text -----------------------------------------");
-                    log.debug(regulation.toString());
-                    log.debug("regulation response -----------------------------------------");
-                    log.debug(regulationResponse.toString());
-                    ucResponse.getRegulations().add(regulationResponse);
-                }
+        checkInputFilesService.check(useCaseFiles, regulationFiles, regulationIds);
+
+        CheckPipelineService.Plan plan = checkPipelineService.prepare(useCaseFiles, regulationFiles, regulationIds);
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(streamTimeout.toMillis());
+        stream(plan, emitter, event -> emitter.send(objectMapper.writeValueAsString(event) + "\n", MediaType.APPLICATION_NDJSON));
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(emitter);
+    }
+
+    /**
+     * Handles the upload of Use Case and regulation files without holding the request thread:
+     * the files are parsed on the parse scheduler and the calls to AI are made without blocking.
+     *
+     * @param useCaseFiles    list of Use Case files
+     * @param regulationFiles list of regulation files
+     * @param regulationIds   list of identifiers of catalog regulations, used alongside or instead of regulation files
+     * @return publisher of the list of responses for each Use Case
+     */
+    @PostMapping("check-uc/reactive")
+    public Mono<List<UcResponseDto>> handleFileUploadReactive(
+            @RequestParam("useCases") List<MultipartFile> useCaseFiles,
+            @RequestParam(value = "regulations", required = false) List<MultipartFile> regulationFiles,
+            @RequestParam(value = "regulationIds", required = false) List<String> regulationIds) {
+
+        // Check input files for extensions
+        checkInputFilesService.check(useCaseFiles, regulationFiles, regulationIds);
+
+        return reactiveCheckService.check(useCaseFiles, regulationFiles, regulationIds)
+                .doOnNext(response -> payloadLog.debug(log, "Response for {} use cases: {}", useCaseFiles.size(), response));
+    }
+
+    /**
+     * Handles the upload of Use Case and regulation files without holding the request thread, streaming every
+     * regulation response as a line of newline-delimited JSON as soon as it is ready. The last line has type "complete".
+     *
+     * @param useCaseFiles    list of Use Case files
+     * @param regulationFiles list of regulation files
+     * @param regulationIds   list of identifiers of catalog regulations, used alongside or instead of regulation files
+     * @return publisher of the check events
+     */
+    @PostMapping(value = "check-uc/reactive", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<CheckEventDto> handleFileUploadReactiveNdjson(
+            @RequestParam("useCases") List<MultipartFile> useCaseFiles,
+            @RequestParam(value = "regulations", required = false) List<MultipartFile> regulationFiles,
+            @RequestParam(value = "regulationIds", required = false) List<String> regulationIds) {
+
+        // Check input files for extensions
+        checkInputFilesService.check(useCaseFiles, regulationFiles, regulationIds);
+
+        return reactiveCheckService.prepare(useCaseFiles, regulationFiles, regulationIds).flatMapMany(plan -> {
+            int total = plan.getPairs().size();
+            AtomicInteger done = new AtomicInteger();
+            return reactiveCheckService.checkEach(plan)
+                    .map(result -> new CheckEventDto(CheckEventDto.RESULT, result.getKey().getUseCase(), result.getValue(),
+                            done.incrementAndGet(), total))
+                    .concatWith(Mono.fromSupplier(() -> new CheckEventDto(CheckEventDto.COMPLETE, null, null, done.get(), total)));
+        });
+    }
+
+    /**
+     * Checks every pair of the plan, sending a result event per pair and a complete event at the end.
+     * Once the client has gone away or the stream has timed out, the remaining events are dropped
+     * and the pairs not checked yet are cancelled, so they are never sent to AI.
+     *
+     * @param plan    plan of the check
+     * @param emitter emitter to complete
+     * @param sender  sender of a single event
+     */
+    private void stream(CheckPipelineService.Plan plan, ResponseBodyEmitter emitter, EventSender sender) {
+        int total = plan.getPairs().size();
+        AtomicInteger done = new AtomicInteger();
+        AtomicBoolean closed = new AtomicBoolean();
+
+        CompletableFuture<Void> pending = checkPipelineService.checkEach(plan, (pair, response) -> send(emitter, closed, sender,
+                new CheckEventDto(CheckEventDto.RESULT, pair.getUseCase(), response, done.incrementAndGet(), total)));
+        Runnable abandon = () -> {
+            closed.set(true);
+            pending.cancel(false);
+        };
+        emitter.onTimeout(abandon);
+        emitter.onError(e -> abandon.run());
+        emitter.onCompletion(() -> pending.cancel(false)); // No-op once every pair is reported
+
+        pending.whenComplete((ignored, e) -> {
+            send(emitter, closed, sender, new CheckEventDto(CheckEventDto.COMPLETE, null, null, done.get(), total));
+            if (!closed.get()) {
+                emitter.complete();
+            }
+        });
+    }
+
+    private static void send(ResponseBodyEmitter emitter, AtomicBoolean closed, EventSender sender, CheckEventDto event) {
+        if (closed.get()) {
+            return;
+        }
+        synchronized (emitter) {
+            try {
+                sender.send(event);
+            } catch (IOException | IllegalStateException e) {
+                log.debug("Stream closed by the client: {}", e.getMessage());
+                closed.set(true);
             }
-            response.add(ucResponse);
         }
+    }
 
-        log.debug("------------------------------------------------------------");
-        log.debug(response.toString());
-        return response;
+    /**
+     * Sender of a single check event in the format of the stream.
+     */
+    @FunctionalInterface
+    private interface EventSender {
+        void send(CheckEventDto event) throws IOException;
     }
 
 }
@@ -0,0 +1,43 @@
+package ru.bonch.szfo2024.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.*;
+import ru.bonch.szfo2024.dto.response.NeuroGuardStatsDto;
+import ru.bonch.szfo2024.dto.response.NeuroPoolStatsDto;
+import ru.bonch.szfo2024.service.neuro.NeuroClient;
+import ru.bonch.szfo2024.service.neuro.NeuroGuard;
+
+/**
+ * Controller exposing the state of the neural network client and of its protection.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@CrossOrigin
+@RequiredArgsConstructor
+@RestController
+@RequestMapping("/api/neuro")
+public class NeuroClientController {
+
+    private final NeuroClient neuroClient;
+    private final NeuroGuard neuroGuard;
+
+    /**
+     * Returns the state of the connection pool.
+     *
+     * @return connection pool statistics
+     */
+    @GetMapping("pool")
+    public NeuroPoolStatsDto getPoolStats() {
+        return neuroClient.stats();
+    }
+
+    /**
+     * Returns the state of the concurrency limiter and the circuit breaker.
+     *
+     * @return current limit, rejections and circuit state
+     */
+    @GetMapping("guard")
+    public NeuroGuardStatsDto getGuardStats() {
+        return neuroGuard.stats();
+    }
+}
@@ -0,0 +1,144 @@
+package ru.bonch.szfo2024.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.TextNode;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.*;
+import ru.bonch.szfo2024.dto.BatchUseCaseDto;
+import ru.bonch.szfo2024.dto.RefAnswerDto;
+import ru.bonch.szfo2024.dto.UcAndRegulationDto;
+import ru.bonch.szfo2024.dto.UcAndRegulationRefDto;
+import ru.bonch.szfo2024.dto.UcBatchAndRegulationDto;
+import ru.bonch.szfo2024.error.exception.common.BadRequest;
+import ru.bonch.szfo2024.util.Hashes;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Local stand-in for the neural network service used for testing without the AI.
+ * Answers deterministically with the number of requirements, enabled by {@code neuro.stub.enabled}.
+ * Like the service, which checks only its {@code N_REQUIREMENTS} points most similar to the use case, the stub checks
+ * at most {@code neuro.stub.top-n} requirements of a request, and all of them if fewer are sent.
+ * Point {@code makson.connection.url} to {@code http://localhost:8000/stub/neuro/} to use it.
+ * The check by reference keeps the last {@value #MAX_BLOBS} uploaded use cases and regulations by content hash.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@RestController
+@RequestMapping("/stub/neuro")
+@ConditionalOnProperty(name = "neuro.stub.enabled", havingValue = "true")
+@RequiredArgsConstructor
+public class NeuroStubController {
+    private static final int MAX_BLOBS = 256;
+
+    private final ObjectMapper objectMapper;
+    private final Map<String, Object> blobs = new LinkedHashMap<>(16, 0.75f, true); // Content by hash, guarded by itself
+
+    @Value("${neuro.stub.top-n:5}")
+    private int topN;
+
+    /**
+     * Checks a single use case.
+     *
+     * @param dto use case and regulation
+     * @return stub answer as JSON string, the same way the neural network service answers
+     */
+    @PostMapping("check-uc")
+    public TextNode checkUseCase(@RequestBody UcAndRegulationDto dto) {
+        return TextNode.valueOf(answer(dto.getUseCase(), dto.getRegulation().size()));
+    }
+
+    /**
+     * Checks a batch of use cases against the same regulation.
+     *
+     * @param dto use cases and regulation
+     * @return stub answers by use case id
+     */
+    @PostMapping("check-uc-batch")
+    public Map<String, String> checkBatch(@RequestBody UcBatchAndRegulationDto dto) {
+        Map<String, String> answers = new LinkedHashMap<>();
+        for (BatchUseCaseDto useCase : dto.getUseCases()) {
+            answers.put(useCase.getId(), answer(useCase.getUseCase(), dto.getRegulation().size()));
+        }
+        return answers;
+    }
+
+    /**
+     * Checks a single use case by reference, the same way as {@link #checkUseCase}.
+     * Content sent with the request is verified against its hash and kept for the following requests.
+     *
+     * @param contentEncoding content encoding of the body, {@code gzip} or none
+     * @param body            JSON of {@link UcAndRegulationRefDto}
+     * @return stub answer, or the hashes of the content to send again
+     * @throws IOException if the body can't be read
+     * @throws BadRequest  if the content doesn't match its hash
+     */
+    @PostMapping("check-uc-ref")
+    public RefAnswerDto checkByReference(@RequestHeader(value = HttpHeaders.CONTENT_ENCODING, required = false) String contentEncoding,
+                                         @RequestBody byte[] body) throws IOException {
+        UcAndRegulationRefDto dto;
+        try (InputStream input = "gzip".equalsIgnoreCase(contentEncoding)
+                ? new GZIPInputStream(new ByteArrayInputStream(body)) : new ByteArrayInputStream(body)) {
+            dto = objectMapper.readValue(input, UcAndRegulationRefDto.class);
+        }
+        if (dto.getUseCase() != null && !Hashes.sha256(dto.getUseCase()).equals(dto.getUseCaseHash())) {
+            throw new BadRequest("Use case doesn't match its hash " + dto.getUseCaseHash());
+        }
+        if (dto.getRegulation() != null && !Hashes.sha256(dto.getRegulation()).equals(dto.getRegulationHash())) {
+            throw new BadRequest("Regulation doesn't match its hash " + dto.getRegulationHash());
+        }
+
+        Object useCase;
+        Object regulation;
+        synchronized (blobs) {
+            useCase = remember(dto.getUseCaseHash(), dto.getUseCase());
+            regulation = remember(dto.getRegulationHash(), dto.getRegulation());
+        }
+        List<String> missing = new ArrayList<>();
+        if (!(useCase instanceof String)) {
+            missing.add(dto.getUseCaseHash());
+        }
+        if (!(regulation instanceof List<?>)) {
+            missing.add(dto.getRegulationHash());
+        }
+        if (!missing.isEmpty()) {
+            return new RefAnswerDto(null, missing);
+        }
+        return new RefAnswerDto(TextNode.valueOf(answer((String) useCase, ((List<?>) regulation).size())), List.of());
+    }
+
+    /**
+     * Stores the content sent with the request or looks up the stored one, evicting the least recently used content.
+     *
+     * @param hash    content hash
+     * @param content content sent with the request, null if only the hash was sent
+     * @return the content, null if it is not known
+     */
+    private Object remember(String hash, Object content) {
+        if (content == null) {
+            return blobs.get(hash);
+        }
+        blobs.put(hash, content);
+        var iterator = blobs.entrySet().iterator();
+        while (blobs.size() > MAX_BLOBS && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+        return content;
+    }
+
+    private String answer(String useCase, int requirements) {
+        return "Stub: " + Math.min(topN, requirements) + " of " + requirements + " requirements checked for use case of "
+                + useCase.length() + " characters";
+    }
+}
@@ -0,0 +1,90 @@
+package ru.bonch.szfo2024.controller;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import ru.bonch.szfo2024.dto.RequirementDto;
+import ru.bonch.szfo2024.dto.response.RegulationDto;
+import ru.bonch.szfo2024.service.catalog.RegulationCatalogService;
+import ru.bonch.szfo2024.service.files.CheckInputFilesService;
+
+import java.util.List;
+
+/**
+ * Controller of the regulation catalog: regulations are uploaded once and referenced by identifier in check requests.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@CrossOrigin
+@RequiredArgsConstructor
+@RestController
+@RequestMapping("/api/regulations")
+@Slf4j
+public class RegulationCatalogController {
+
+    private final CheckInputFilesService checkInputFilesService;
+    private final RegulationCatalogService regulationCatalogService;
+
+    /**
+     * Parses, itemises and stores the uploaded regulation files.
+     *
+     * @param regulationFiles list of regulation files
+     * @return descriptions of the stored regulations, containing their identifiers
+     */
+    @PostMapping
+    @ResponseStatus(HttpStatus.CREATED)
+    public List<RegulationDto> upload(@RequestParam("regulations") List<MultipartFile> regulationFiles) {
+
+        // Check input files for extensions
+        checkInputFilesService.checkRegulations(regulationFiles);
+
+        List<RegulationDto> regulations = regulationFiles.stream().map(regulationCatalogService::ingest).toList();
+        log.debug("Regulations stored: {}", regulations);
+        return regulations;
+    }
+
+    /**
+     * Returns every regulation of the catalog.
+     *
+     * @return descriptions of the regulations ordered by name
+     */
+    @GetMapping
+    public List<RegulationDto> list() {
+        return regulationCatalogService.list();
+    }
+
+    /**
+     * Returns the description of the regulation.
+     *
+     * @param id identifier of the regulation
+     * @return description of the regulation
+     */
+    @GetMapping("{id}")
+    public RegulationDto get(@PathVariable String id) {
+        return regulationCatalogService.get(id);
+    }
+
+    /**
+     * Returns the requirements the regulation has been itemised into.
+     *
+     * @param id identifier of the regulation
+     * @return requirements of the regulation
+     */
+    @GetMapping("{id}/requirements")
+    public List<RequirementDto> getRequirements(@PathVariable String id) {
+        return regulationCatalogService.getRequirements(id);
+    }
+
+    /**
+     * Removes the regulation from the catalog.
+     *
+     * @param id identifier of the regulation
+     */
+    @DeleteMapping("{id}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void delete(@PathVariable String id) {
+        regulationCatalogService.delete(id);
+    }
+}
@@ -0,0 +1,20 @@
+package ru.bonch.szfo2024.dto;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Data Transfer Object for a use case in a batch request.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class BatchUseCaseDto {
+    String id;      // Identifier of the use case in the batch, the answer is returned under it
+    String useCase; // Description of the use case
+}
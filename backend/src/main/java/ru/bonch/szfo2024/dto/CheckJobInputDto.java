@@ -0,0 +1,28 @@
+package ru.bonch.szfo2024.dto;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Data Transfer Object for the persisted input of a check job.
+ * Contains everything needed to resume the job after a restart without the uploaded files.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class CheckJobInputDto {
+    long createdAt; // Time the job was submitted, epoch millis
+    Map<String, UseCaseDto> useCases = new LinkedHashMap<>(); // Use Cases by file name
+    Map<String, List<RequirementDto>> regulations = new LinkedHashMap<>(); // Requirements by regulation name
+    List<CheckPairDto> pairs = new ArrayList<>(); // Pairs to check in response order
+}
@@ -0,0 +1,26 @@
+package ru.bonch.szfo2024.dto;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data Transfer Object for the persisted request of a check job whose input files are not prepared yet.
+ * The uploaded files are spooled next to it, so the preparation is started again after a restart.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class CheckJobRequestDto {
+    long createdAt; // Time the job was submitted, epoch millis
+    List<String> useCases = new ArrayList<>();      // File names of the uploaded Use Cases in upload order
+    List<String> regulations = new ArrayList<>();   // File names of the uploaded regulations in upload order
+    List<String> regulationIds = new ArrayList<>(); // Identifiers of catalog regulations
+}
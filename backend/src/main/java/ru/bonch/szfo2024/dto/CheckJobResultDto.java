@@ -0,0 +1,21 @@
+package ru.bonch.szfo2024.dto;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+import ru.bonch.szfo2024.dto.response.RegulationResponseDto;
+
+/**
+ * Data Transfer Object for a checkpointed result of a check job.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class CheckJobResultDto {
+    CheckPairDto pair;              // Checked pair
+    RegulationResponseDto response; // Response of the AI for the pair
+}
@@ -0,0 +1,21 @@
+package ru.bonch.szfo2024.dto;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Data Transfer Object for a pair of a Use Case and a related regulation to be checked.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode
+@ToString
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class CheckPairDto {
+    String useCase;    // File name of the Use Case
+    String regulation; // Name of the regulation
+}
@@ -0,0 +1,25 @@
+package ru.bonch.szfo2024.dto;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data Transfer Object for the answer of the neural network service to a check by reference.
+ * Either the answer is present, or the hashes of the content the service doesn't have are listed.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class RefAnswerDto {
+    JsonNode answer;                          // Answer in the format of the check-uc endpoint, null on a miss
+    List<String> missing = new ArrayList<>(); // Hashes of the content to send again
+}
@@ -0,0 +1,26 @@
+package ru.bonch.szfo2024.dto;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.util.List;
+
+/**
+ * Data Transfer Object for checking a use case against a regulation by reference.
+ * The use case and the regulation are identified by their content hashes and sent only when the neural network
+ * service reports that it doesn't have them yet.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class UcAndRegulationRefDto {
+    String useCaseHash;               // SHA-256 of the UTF-8 use case text
+    String regulationHash;            // SHA-256 of the length-prefixed sections and texts of the requirements
+    String useCase;                   // Use case text, null if the service already has it
+    List<RequirementDto> regulation;  // Requirements, null if the service already has them
+}
@@ -0,0 +1,24 @@
+package ru.bonch.szfo2024.dto;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data Transfer Object for sending several use cases related to the same regulation in a single request.
+ * The neural network answers with a JSON object mapping every use case id to its answer.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class UcBatchAndRegulationDto {
+    List<BatchUseCaseDto> useCases = new ArrayList<>();  // Use cases to check
+    List<RequirementDto> regulation = new ArrayList<>(); // List of requirements shared by the use cases
+}
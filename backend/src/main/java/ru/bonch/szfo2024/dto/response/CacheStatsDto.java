@@ -0,0 +1,27 @@
+package ru.bonch.szfo2024.dto.response;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Data Transfer Object for cache statistics.
+ * Contains hit and miss counters and the current size of both cache tiers.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class CacheStatsDto {
+    String name;       // Name of the cache
+    long memoryHits;   // Number of hits served from memory
+    long diskHits;     // Number of hits served from disk
+    long misses;       // Number of misses
+    long evictions;    // Number of entries evicted from both tiers
+    long memoryEntries; // Number of entries in memory
+    long memoryBytes;  // Estimated size of entries in memory
+    long diskBytes;    // Size of entries on disk
+}
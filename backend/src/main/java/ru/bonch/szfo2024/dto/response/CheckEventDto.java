@@ -0,0 +1,27 @@
+package ru.bonch.szfo2024.dto.response;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Data Transfer Object for an event of a streamed check.
+ * A "result" event carries the response for a single pair, the final "complete" event carries only the counters.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class CheckEventDto {
+    public static final String RESULT = "result";
+    public static final String COMPLETE = "complete";
+
+    String type;                      // Type of the event: result or complete
+    String fileName;                  // Name of the use case file, null for the complete event
+    RegulationResponseDto regulation; // Response for the regulation, null for the complete event
+    int done;                         // Number of pairs checked so far
+    int total;                        // Total number of pairs
+}
@@ -0,0 +1,25 @@
+package ru.bonch.szfo2024.dto.response;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Data Transfer Object for the state of a check job.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class CheckJobDto {
+    String id;             // Identifier of the job
+    CheckJobStatus status; // Status of the job
+    int done;              // Number of pairs with a result
+    int failed;            // Number of pairs whose check has failed
+    int total;             // Total number of pairs
+    long createdAt;        // Time the job was submitted, epoch millis
+    String error;          // Reason the job has failed, null unless the status is FAILED
+}
@@ -0,0 +1,13 @@
+package ru.bonch.szfo2024.dto.response;
+
+/**
+ * Status of a check job.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+public enum CheckJobStatus {
+    PREPARING, // The input files are being read and itemised
+    RUNNING,   // Some pairs are not checked yet
+    DONE,      // Every pair has a result
+    FAILED     // The input files can't be prepared
+}
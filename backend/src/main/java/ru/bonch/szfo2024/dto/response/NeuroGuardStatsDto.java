@@ -0,0 +1,27 @@
+package ru.bonch.szfo2024.dto.response;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Data Transfer Object for the state of the concurrency limiter and the circuit breaker of the neural network calls.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class NeuroGuardStatsDto {
+    int limit;               // Current limit of concurrent calls
+    int inFlight;            // Number of calls being executed
+    long baselineLatencyMs;  // Long-term average latency of successful calls
+    long limiterRejected;    // Number of calls rejected after waiting for a permit
+    long dropped;            // Number of calls failed because of overload or a timeout
+    String circuitState;     // CLOSED, OPEN or HALF_OPEN
+    double failureRate;      // Failure rate in percent over the window, -1 if there are not enough calls
+    long circuitRejected;    // Number of calls rejected while the circuit was open
+    long retries;            // Number of retried calls
+}
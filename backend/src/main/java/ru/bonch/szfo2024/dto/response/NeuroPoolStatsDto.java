@@ -0,0 +1,27 @@
+package ru.bonch.szfo2024.dto.response;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Data Transfer Object for the state of the neural network connection pool.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class NeuroPoolStatsDto {
+    String mode;       // Client mode: blocking or reactive
+    int inFlight;      // Number of requests being executed
+    int leased;        // Number of connections in use, -1 if unknown
+    int pending;       // Number of requests waiting for a connection, -1 if unknown
+    int available;     // Number of idle persistent connections, -1 if unknown
+    int max;           // Maximum number of connections
+    int maxPerRoute;   // Maximum number of connections per route
+    long requests;     // Number of requests sent
+    long errors;       // Number of failed requests
+}
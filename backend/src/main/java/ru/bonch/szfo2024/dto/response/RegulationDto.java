@@ -0,0 +1,26 @@
+package ru.bonch.szfo2024.dto.response;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Data Transfer Object for a regulation of the catalog.
+ * The regulation is parsed and itemised once, when it is uploaded, and referenced by its identifier in check requests.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class RegulationDto {
+    String id;           // Identifier of the regulation, SHA-256 of the PDF file
+    String name;         // Regulation name used to match Use Case system names
+    String fileName;     // Original name of the PDF file
+    int requirements;    // Number of requirements
+    long textLength;     // Number of characters of the extracted text
+    long storedBytes;    // Size of the stored requirements
+    long createdAt;      // Time the regulation was uploaded, epoch millis
+}
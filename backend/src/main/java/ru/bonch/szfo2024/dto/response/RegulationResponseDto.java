@@ -1,11 +1,15 @@
 package ru.bonch.szfo2024.dto.response;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.*;
 import lombok.experimental.FieldDefaults;
 
+import java.util.List;
+
 /**
  * Data Transfer Object for a single regulation response.
- * Contains the name of the regulation and any associated comments.
+ * Contains the name of the regulation and any associated comments, and the keys of the cached AI responses
+ * the comment is made of, to be removed with {@code DELETE /api/cache/neuro/{key}}.
  *
  * @author Andrey Kurnosov (GutChoice)
  */
@@ -18,4 +22,10 @@ import lombok.experimental.FieldDefaults;
 public class RegulationResponseDto {
     String name;    // Name of the regulation
     String comment; // Comment for uc from regulation
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    List<String> cacheKeys; // Keys of the cached AI responses, one per request sent; null if responses are not cached
+
+    public RegulationResponseDto(String name, String comment) {
+        this(name, comment, null);
+    }
 }
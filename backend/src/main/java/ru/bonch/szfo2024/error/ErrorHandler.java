@@ -10,6 +10,7 @@ import org.springframework.web.bind.annotation.RestControllerAdvice;
 import ru.bonch.szfo2024.error.exception.common.BadRequest;
 import ru.bonch.szfo2024.error.exception.common.InternalServerError;
 import ru.bonch.szfo2024.error.exception.common.NotFound;
+import ru.bonch.szfo2024.error.exception.common.ServiceUnavailable;
 
 import java.util.List;
 import java.util.stream.Collectors;
@@ -80,6 +81,19 @@ public class ErrorHandler {
         return new ErrorResponse(HttpStatus.NOT_FOUND.getReasonPhrase(), e.getMessage());
     }
 
+    /**
+     * Handles custom ServiceUnavailable exceptions, responding with HTTP 503 Service Unavailable.
+     *
+     * @param e the ServiceUnavailable exception caught by this handler
+     * @return an ErrorResponse containing the error type and message
+     */
+    @ExceptionHandler
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public ErrorResponse serviceUnavailableHandler(final ServiceUnavailable e) {
+        log.warn("Error: {} / Description: {}", HttpStatus.SERVICE_UNAVAILABLE.getReasonPhrase(), e.getMessage());
+        return new ErrorResponse(HttpStatus.SERVICE_UNAVAILABLE.getReasonPhrase(), e.getMessage());
+    }
+
     /**
      * Handles custom InternalServerError exceptions, responding with HTTP 500 Internal Server Error.
      *
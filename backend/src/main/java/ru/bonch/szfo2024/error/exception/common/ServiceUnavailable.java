@@ -0,0 +1,10 @@
+package ru.bonch.szfo2024.error.exception.common;
+
+/**
+ * @author Andrey Kurnosov (GutChoice)
+ */
+public class ServiceUnavailable extends RuntimeException {
+    public ServiceUnavailable(String message) {
+        super(message);
+    }
+}
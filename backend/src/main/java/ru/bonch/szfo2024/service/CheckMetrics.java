@@ -0,0 +1,211 @@
+package ru.bonch.szfo2024.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import ru.bonch.szfo2024.trace.ServerTiming;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Metrics of the check pipeline, exported by the actuator Prometheus endpoint.
+ * Every stage of a check is timed by {@code check.stage} with a {@code stage} tag and has an in-flight gauge
+ * {@code check.stage.in.flight}; every call to the neural network service is timed by {@code neuro.call}
+ * with {@code endpoint} and {@code outcome} tags. Timers publish histogram buckets, so percentiles and SLOs
+ * can be computed by Prometheus across instances. Durations are also added to the {@link ServerTiming} of the request.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Component
+public class CheckMetrics {
+
+    public static final String VALIDATION = "validation";   // Validation of the input files
+    public static final String PDF = "pdf";                 // Extraction of the text of a regulation
+    public static final String DOCX = "docx";               // Extraction of the text of a Use Case
+    public static final String ITEMISATION = "itemisation"; // Itemisation of a regulation
+    public static final String MATCHING = "matching";       // Matching of Use Cases to regulations by name
+
+    private final MeterRegistry registry;
+    private final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+    private final Counter pages;
+    private final Counter requirements;
+    private final Counter pairs;
+    private final Counter storedVerdicts;
+    private final Counter sentRequirements;
+
+    public CheckMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.pages = Counter.builder("check.pdf.pages")
+                .description("Pages of the regulations extracted from PDF")
+                .register(registry);
+        this.requirements = Counter.builder("check.requirements")
+                .description("Requirements itemised from the regulations")
+                .register(registry);
+        this.pairs = Counter.builder("check.pairs")
+                .description("Use Case and regulation pairs to check")
+                .register(registry);
+        this.storedVerdicts = Counter.builder("neuro.incremental.requirements")
+                .description("Requirements of the incremental checks, by source of their verdict")
+                .tag("source", "stored")
+                .register(registry);
+        this.sentRequirements = Counter.builder("neuro.incremental.requirements")
+                .description("Requirements of the incremental checks, by source of their verdict")
+                .tag("source", "sent")
+                .register(registry);
+        for (String stage : new String[]{VALIDATION, PDF, DOCX, ITEMISATION, MATCHING, "neuro"}) {
+            inFlight(stage);
+        }
+    }
+
+    /**
+     * Starts the measurement of a stage, to be closed when the stage is finished.
+     *
+     * @param stage name of the stage, one of the constants of this class
+     * @return running measurement
+     */
+    public Stage stage(String stage) {
+        return new Stage(stage);
+    }
+
+    /**
+     * Executes a single call to the neural network service, timing it and counting its failure.
+     *
+     * @param endpoint endpoint of the neural network service
+     * @param call     call to execute
+     * @param <T>      type of the result
+     * @return result of the call
+     */
+    public <T> T neuroCall(String endpoint, Supplier<T> call) {
+        AtomicInteger calls = inFlight("neuro");
+        calls.incrementAndGet();
+        Timer.Sample sample = Timer.start(registry);
+        String outcome = "success";
+        try {
+            return call.get();
+        } catch (RuntimeException e) {
+            outcome = "error";
+            neuroError(endpoint, e);
+            throw e;
+        } finally {
+            calls.decrementAndGet();
+            ServerTiming.record("neuro", sample.stop(neuroTimer(endpoint, outcome)));
+        }
+    }
+
+    /**
+     * Times a single asynchronous call to the neural network service and counts its failure.
+     * A cancelled call is timed with the {@code cancelled} outcome.
+     *
+     * @param endpoint endpoint of the neural network service
+     * @param call     call to execute on subscription
+     * @param <T>      type of the result
+     * @return publisher of the result of the call
+     */
+    public <T> Mono<T> neuroCallAsync(String endpoint, Supplier<Mono<T>> call) {
+        return Mono.defer(() -> {
+            AtomicInteger calls = inFlight("neuro");
+            calls.incrementAndGet();
+            Timer.Sample sample = Timer.start(registry);
+            return call.get()
+                    .doOnError(e -> neuroError(endpoint, e))
+                    .doFinally(signal -> {
+                        calls.decrementAndGet();
+                        sample.stop(neuroTimer(endpoint, signal == SignalType.ON_ERROR ? "error"
+                                : signal == SignalType.CANCEL ? "cancelled" : "success"));
+                    });
+        });
+    }
+
+    /**
+     * @param count number of pages extracted from a PDF
+     */
+    public void pages(int count) {
+        pages.increment(count);
+    }
+
+    /**
+     * @param count number of requirements itemised from a regulation
+     */
+    public void requirements(int count) {
+        requirements.increment(count);
+    }
+
+    /**
+     * @param count number of pairs found for a check
+     */
+    public void pairs(int count) {
+        pairs.increment(count);
+    }
+
+    /**
+     * @param stored number of requirements of an incremental check answered by a stored verdict
+     * @param sent   number of requirements of an incremental check sent to AI
+     */
+    public void incremental(int stored, int sent) {
+        storedVerdicts.increment(stored);
+        sentRequirements.increment(sent);
+    }
+
+    private void neuroError(String endpoint, Throwable e) {
+        Counter.builder("neuro.errors")
+                .description("Failed calls to the neural network service")
+                .tag("endpoint", endpoint)
+                .tag("exception", e.getClass().getSimpleName())
+                .register(registry)
+                .increment();
+    }
+
+    private Timer neuroTimer(String endpoint, String outcome) {
+        return Timer.builder("neuro.call")
+                .description("Calls to the neural network service, every attempt is timed")
+                .tag("endpoint", endpoint)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private AtomicInteger inFlight(String stage) {
+        return inFlight.computeIfAbsent(stage, name -> {
+            AtomicInteger value = new AtomicInteger();
+            Gauge.builder("check.stage.in.flight", value, AtomicInteger::get)
+                    .description("Stages of the checks being executed")
+                    .tag("stage", name)
+                    .register(registry);
+            return value;
+        });
+    }
+
+    /**
+     * Running measurement of a stage, stopped on close.
+     */
+    public final class Stage implements AutoCloseable {
+        private final String stage;
+        private final AtomicInteger running;
+        private final Timer.Sample sample;
+
+        private Stage(String stage) {
+            this.stage = stage;
+            this.running = inFlight(stage);
+            this.running.incrementAndGet();
+            this.sample = Timer.start(registry);
+        }
+
+        @Override
+        public void close() {
+            running.decrementAndGet();
+            long nanos = sample.stop(Timer.builder("check.stage")
+                    .description("Duration of the stages of the checks")
+                    .tag("stage", stage)
+                    .publishPercentileHistogram()
+                    .register(registry));
+            ServerTiming.record(stage, nanos);
+        }
+    }
+}
@@ -0,0 +1,486 @@
+package ru.bonch.szfo2024.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+import ru.bonch.szfo2024.dto.BatchUseCaseDto;
+import ru.bonch.szfo2024.dto.CheckPairDto;
+import ru.bonch.szfo2024.dto.RequirementDto;
+import ru.bonch.szfo2024.dto.UcAndRegulationDto;
+import ru.bonch.szfo2024.dto.UcBatchAndRegulationDto;
+import ru.bonch.szfo2024.dto.UseCaseDto;
+import ru.bonch.szfo2024.dto.response.RegulationDto;
+import ru.bonch.szfo2024.dto.response.RegulationResponseDto;
+import ru.bonch.szfo2024.dto.response.UcResponseDto;
+import ru.bonch.szfo2024.error.exception.common.BadRequest;
+import ru.bonch.szfo2024.service.catalog.RegulationCatalogService;
+import ru.bonch.szfo2024.service.files.DocxReadService;
+import ru.bonch.szfo2024.service.files.PdfReadService;
+import ru.bonch.szfo2024.trace.ItemisationEvent;
+import ru.bonch.szfo2024.trace.NeuroCallEvent;
+import ru.bonch.szfo2024.trace.PayloadLog;
+import ru.bonch.szfo2024.trace.ServerTiming;
+import ru.bonch.szfo2024.util.Payloads;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Service that runs the check of Use Cases against regulations.
+ * Every regulation is itemised once per request, then every related (Use Case, regulation) pair
+ * is checked concurrently on the check executor, the response keeps the order in which the files were uploaded.
+ * In batch mode all Use Cases related to the same regulation are sent to AI in batch requests.
+ * Itemisations and calls to AI are recorded as Flight Recorder events; tasks on the check executor report their
+ * stages to the {@link ServerTiming} of the request that has submitted them.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CheckPipelineService {
+
+    private final CheckUCService checkUCService;
+    private final NameRelationService nameRelationService;
+    private final PdfReadService pdfReadService;
+    private final DocxReadService docxReadService;
+    private final RegulationItemisationService regulationItemisationService;
+    private final RegulationCatalogService regulationCatalogService;
+    private final RequirementFilterService requirementFilterService;
+    private final CheckMetrics checkMetrics;
+    private final PayloadLog payloadLog;
+    private final ExecutorService checkExecutor;
+
+    @Value("${neuro.batch.enabled:false}")
+    private boolean batchEnabled;
+
+    @Value("${neuro.batch.max-size:8}")
+    private int batchMaxSize;
+
+    @Value("${neuro.batch.max-payload:2MB}")
+    private DataSize batchMaxPayload;
+
+    /**
+     * Checks every Use Case against every related regulation, uploaded or taken from the catalog.
+     * A failure of a single pair is reported in its comment and does not affect the other pairs.
+     *
+     * @param useCaseFiles    list of Use Case files (DOCX)
+     * @param regulationFiles list of regulation files (PDF), may be null
+     * @param regulationIds   list of identifiers of catalog regulations, may be null
+     * @return list of responses for each Use Case in upload order
+     */
+    public List<UcResponseDto> check(List<MultipartFile> useCaseFiles, List<MultipartFile> regulationFiles, List<String> regulationIds) {
+        Plan plan = prepare(useCaseFiles, regulationFiles, regulationIds);
+
+        // Submit every related pair
+        Map<CheckPairDto, CompletableFuture<RegulationResponseDto>> pending = submitAll(plan, plan.getPairs());
+
+        // Collect results in submission order
+        Map<CheckPairDto, RegulationResponseDto> results = new LinkedHashMap<>();
+        pending.forEach((pair, future) -> results.put(pair, future.exceptionally(e -> failedPair(pair, e)).join()));
+        return toResponse(plan, results);
+    }
+
+    /**
+     * Checks every pair of the plan and reports each response as soon as it is ready.
+     * A failed pair is reported with the failure description as comment.
+     * Cancelling the returned future cancels the pairs whose check has not started, they are neither sent to AI nor reported.
+     *
+     * @param plan     plan of the check
+     * @param onResult callback invoked for every pair on the thread that has finished it
+     * @return future completed when every pair has been reported
+     */
+    public CompletableFuture<Void> checkEach(Plan plan, BiConsumer<CheckPairDto, RegulationResponseDto> onResult) {
+        Map<CheckPairDto, CompletableFuture<RegulationResponseDto>> futures = submitAll(plan, plan.getPairs());
+        CompletableFuture<?>[] pending = futures.entrySet().stream()
+                .map(entry -> entry.getValue().handle((response, e) -> {
+                    if (!entry.getValue().isCancelled()) {
+                        onResult.accept(entry.getKey(), e == null ? response : failedPair(entry.getKey(), e));
+                    }
+                    return null;
+                }))
+                .toArray(CompletableFuture[]::new);
+        CompletableFuture<Void> all = CompletableFuture.allOf(pending);
+        all.whenComplete((ignored, e) -> {
+            if (all.isCancelled()) {
+                futures.values().forEach(future -> future.cancel(false));
+            }
+        });
+        return all;
+    }
+
+    /**
+     * Reads the input files and finds the pairs to check.
+     * Itemisation of the regulations is started on the check executor and may still be running when the plan is returned.
+     * Regulations of the catalog are not parsed again, their stored requirements are loaded on the check executor.
+     *
+     * @param useCaseFiles    list of Use Case files (DOCX)
+     * @param regulationFiles list of regulation files (PDF), may be null
+     * @param regulationIds   list of identifiers of catalog regulations, may be null
+     * @return plan of the check
+     * @throws ru.bonch.szfo2024.error.exception.common.NotFound if a regulation identifier is unknown
+     * @throws BadRequest if a catalog regulation has the same name as another regulation of the check
+     */
+    public Plan prepare(List<MultipartFile> useCaseFiles, List<MultipartFile> regulationFiles, List<String> regulationIds) {
+        // Resolve catalog regulations before reading any file, so an unknown identifier fails fast
+        List<RegulationDto> catalogRegulations = catalogRegulations(regulationFiles, regulationIds);
+        // Read regulation files
+        Map<String, String> regulationsText = regulationFiles == null ? Map.of() : pdfReadService.uploadFiles(regulationFiles);
+        // Break down every regulation into requirements once, in parallel with reading use case files
+        Map<String, CompletableFuture<List<RequirementDto>>> regulations = itemise(regulationsText);
+        for (RegulationDto regulation : catalogRegulations) {
+            regulations.put(regulation.getName(), CompletableFuture.supplyAsync(
+                    () -> regulationCatalogService.getRequirements(regulation.getId()), checkExecutor));
+        }
+        // Read use case files
+        Map<String, UseCaseDto> useCasesText = docxReadService.getUseCases(useCaseFiles);
+
+        List<CheckPairDto> pairs = new ArrayList<>();
+        try (CheckMetrics.Stage ignored = checkMetrics.stage(CheckMetrics.MATCHING)) {
+            // Index regulation names once for all Use Cases
+            NameRelationIndex regulationIndex = nameRelationService.index(List.copyOf(regulations.keySet()));
+
+            for (var useCase : useCasesText.entrySet()) {
+                // Find regulations related to any system name of the Use Case
+                BitSet related = new BitSet();
+                for (String systemName : useCase.getValue().getSystemNames()) {
+                    regulationIndex.addRelated(systemName, related);
+                }
+                for (int i = related.nextSetBit(0); i >= 0; i = related.nextSetBit(i + 1)) {
+                    String regulationName = regulationIndex.getNames().get(i);
+                    log.debug("{} → {}", useCase.getKey(), regulationName);
+                    pairs.add(new CheckPairDto(useCase.getKey(), regulationName));
+                }
+            }
+        }
+        checkMetrics.pairs(pairs.size());
+        return new Plan(useCasesText, regulations, pairs);
+    }
+
+    /**
+     * Resolves the catalog regulations referenced by identifier.
+     * A regulation is identified by its name within a check, so a catalog regulation may not share its name with another
+     * catalog regulation, e.g. an older upload of the same file name, or with an uploaded regulation.
+     *
+     * @param regulationFiles list of regulation files (PDF), may be null
+     * @param regulationIds   list of identifiers of catalog regulations, may be null
+     * @return catalog regulations in the order of the identifiers, without repeated identifiers
+     * @throws ru.bonch.szfo2024.error.exception.common.NotFound if a regulation identifier is unknown
+     * @throws BadRequest if two regulations of the check have the same name
+     */
+    public List<RegulationDto> catalogRegulations(List<MultipartFile> regulationFiles, List<String> regulationIds) {
+        if (regulationIds == null || regulationIds.isEmpty()) {
+            return List.of();
+        }
+        List<RegulationDto> catalogRegulations = regulationIds.stream().distinct().map(regulationCatalogService::get).toList();
+        Map<String, String> sources = new HashMap<>(); // Identifier or file name by regulation name
+        if (regulationFiles != null) {
+            regulationFiles.forEach(file -> sources.put(PdfReadService.regulationName(file.getOriginalFilename()), file.getOriginalFilename()));
+        }
+        for (RegulationDto regulation : catalogRegulations) {
+            String other = sources.putIfAbsent(regulation.getName(), regulation.getId());
+            if (other != null) {
+                throw new BadRequest("Regulation " + regulation.getId() + " has the same name \"" + regulation.getName()
+                        + "\" as " + other + ", only one of them can be checked at once!");
+            }
+        }
+        return catalogRegulations;
+    }
+
+    /**
+     * Submits the check of the pairs of the plan to the check executor.
+     * In batch mode the pairs of the same regulation are sent in batch requests, otherwise every pair is sent on its own.
+     *
+     * @param plan  plan of the check
+     * @param pairs pairs to check
+     * @return futures of the responses by pair, in the order of the given pairs
+     */
+    public Map<CheckPairDto, CompletableFuture<RegulationResponseDto>> submitAll(Plan plan, Collection<CheckPairDto> pairs) {
+        Map<CheckPairDto, CompletableFuture<RegulationResponseDto>> futures = new LinkedHashMap<>();
+        if (!batchEnabled) {
+            pairs.forEach(pair -> futures.put(pair, submit(plan, pair)));
+            return futures;
+        }
+
+        // Group pairs by regulation
+        Map<String, List<CheckPairDto>> byRegulation = new LinkedHashMap<>();
+        for (CheckPairDto pair : pairs) {
+            futures.put(pair, new CompletableFuture<>());
+            byRegulation.computeIfAbsent(pair.getRegulation(), name -> new ArrayList<>()).add(pair);
+        }
+        byRegulation.forEach((regulationName, regulationPairs) -> plan.getRegulations().get(regulationName)
+                .whenComplete((requirements, e) -> {
+                    if (e != null) {
+                        regulationPairs.forEach(pair -> futures.get(pair).completeExceptionally(e));
+                        return;
+                    }
+                    for (List<CheckPairDto> batch : splitIntoBatches(plan, regulationPairs, requirements)) {
+                        CompletableFuture
+                                .runAsync(ServerTiming.propagate(() -> checkBatch(plan, regulationName, requirements, batch, futures)), checkExecutor)
+                                .exceptionally(ex -> {
+                                    batch.forEach(pair -> futures.get(pair).completeExceptionally(ex));
+                                    return null;
+                                });
+                    }
+                }));
+        return futures;
+    }
+
+    /**
+     * Submits the check of a single pair of the plan to the check executor.
+     *
+     * @param plan plan of the check
+     * @param pair pair to check
+     * @return future completed with the response of the AI or exceptionally if the check has failed
+     */
+    public CompletableFuture<RegulationResponseDto> submit(Plan plan, CheckPairDto pair) {
+        UseCaseDto useCase = plan.getUseCases().get(pair.getUseCase());
+        return plan.getRegulations().get(pair.getRegulation())
+                .thenApplyAsync(ServerTiming.propagate(requirements -> checkPair(pair, useCase,
+                        relevant(plan, pair.getRegulation(), requirements, List.of(useCase.getText())))), checkExecutor);
+    }
+
+    /**
+     * Builds the response from the results available so far.
+     * Every Use Case of the plan is present; its regulations follow the order of the plan pairs.
+     *
+     * @param plan    plan of the check
+     * @param results responses of the checked pairs
+     * @return list of responses for each Use Case in upload order
+     */
+    public static List<UcResponseDto> toResponse(Plan plan, Map<CheckPairDto, RegulationResponseDto> results) {
+        Map<String, UcResponseDto> response = new LinkedHashMap<>();
+        for (String useCase : plan.getUseCases().keySet()) {
+            UcResponseDto ucResponse = new UcResponseDto();
+            ucResponse.setFileName(useCase);
+            response.put(useCase, ucResponse);
+        }
+        for (CheckPairDto pair : plan.getPairs()) {
+            RegulationResponseDto result = results.get(pair);
+            if (result != null) {
+                response.get(pair.getUseCase()).getRegulations().add(result);
+            }
+        }
+        return new ArrayList<>(response.values());
+    }
+
+    /**
+     * Starts the itemisation of every regulation on the check executor.
+     * Each regulation is itemised exactly once per request, the resulting list is shared by all related Use Cases.
+     *
+     * @param regulationsText map of regulation names to their extracted text
+     * @return map of regulation names to their unmodifiable requirements, in the order of the input map
+     */
+    private Map<String, CompletableFuture<List<RequirementDto>>> itemise(Map<String, String> regulationsText) {
+        Map<String, CompletableFuture<List<RequirementDto>>> regulations = new LinkedHashMap<>();
+        for (var regulationText : regulationsText.entrySet()) {
+            regulations.put(regulationText.getKey(), CompletableFuture.supplyAsync(ServerTiming.propagate(() -> {
+                ItemisationEvent event = new ItemisationEvent();
+                event.begin();
+                List<RequirementDto> regulation;
+                try (CheckMetrics.Stage ignored = checkMetrics.stage(CheckMetrics.ITEMISATION)) {
+                    regulation = regulationItemisationService.stream(regulationText.getValue()).toList();
+                }
+                checkMetrics.requirements(regulation.size());
+                if (event.shouldCommit()) {
+                    event.regulation = regulationText.getKey();
+                    event.textLength = regulationText.getValue().length();
+                    event.requirements = regulation.size();
+                    event.commit();
+                }
+                payloadLog.debug(log, "Regulation {} itemised into {} requirements: {}",
+                        regulationText.getKey(), regulation.size(), regulation);
+                return regulation;
+            }), checkExecutor));
+        }
+        return regulations;
+    }
+
+    /**
+     * Checks a single Use Case against a single regulation.
+     *
+     * @param pair       pair to check
+     * @param useCase    Use Case to check
+     * @param regulation requirements of the regulation
+     * @return response of the AI for the pair
+     */
+    private RegulationResponseDto checkPair(CheckPairDto pair, UseCaseDto useCase, List<RequirementDto> regulation) {
+        // Prepare data for sending to AI
+        UcAndRegulationDto ucAndRegulationDto = new UcAndRegulationDto(useCase.getText(), regulation);
+        // Send data to AI
+        NeuroCallEvent event = new NeuroCallEvent();
+        event.begin();
+        String answer;
+        try {
+            answer = checkUCService.sendRegulationToNeuro(ucAndRegulationDto);
+        } catch (RuntimeException e) {
+            event.failed = true;
+            throw e;
+        } finally {
+            commit(event, pair.getUseCase(), 1, pair.getRegulation(), regulation, () -> Payloads.utf8Length(useCase.getText()));
+        }
+        RegulationResponseDto regulationResponse = new RegulationResponseDto(pair.getRegulation(), answer,
+                checkUCService.cacheKeys(ucAndRegulationDto));
+        payloadLog.debug(log, "Response for {} against {}: {}", pair.getUseCase(), pair.getRegulation(), answer);
+        return regulationResponse;
+    }
+
+    /**
+     * Splits the pairs of a regulation into batches limited by the number of Use Cases and the payload size.
+     * A batch always holds at least one pair, even if it exceeds the payload limit on its own.
+     *
+     * @param plan         plan of the check
+     * @param pairs        pairs of the same regulation
+     * @param requirements requirements of the regulation
+     * @return batches of pairs
+     */
+    private List<List<CheckPairDto>> splitIntoBatches(Plan plan, List<CheckPairDto> pairs, List<RequirementDto> requirements) {
+        long regulationBytes = Payloads.utf8Length(requirements);
+        List<List<CheckPairDto>> batches = new ArrayList<>();
+        List<CheckPairDto> batch = new ArrayList<>();
+        long batchBytes = regulationBytes;
+        for (CheckPairDto pair : pairs) {
+            long useCaseBytes = Payloads.utf8Length(plan.getUseCases().get(pair.getUseCase()).getText());
+            if (!batch.isEmpty() && (batch.size() >= batchMaxSize || batchBytes + useCaseBytes > batchMaxPayload.toBytes())) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                batchBytes = regulationBytes;
+            }
+            batch.add(pair);
+            batchBytes += useCaseBytes;
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    /**
+     * Checks a batch of Use Cases against a single regulation and completes the futures of its pairs.
+     * A regulation above the token budget is sent in chunks, each with the whole batch, see {@link CheckUCService#sendBatchRegulationToNeuro}.
+     * Cancelled pairs are not sent; nothing is sent if the whole batch is cancelled.
+     *
+     * @param plan           plan of the check
+     * @param regulationName name of the regulation
+     * @param requirements   requirements of the regulation
+     * @param pairs          pairs of the batch
+     * @param futures        futures of the responses by pair
+     */
+    private void checkBatch(Plan plan, String regulationName, List<RequirementDto> requirements, List<CheckPairDto> pairs,
+                            Map<CheckPairDto, CompletableFuture<RegulationResponseDto>> futures) {
+        // Leave out the pairs cancelled while the batch was queued
+        List<CheckPairDto> batch = pairs.stream().filter(pair -> !futures.get(pair).isDone()).toList();
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<BatchUseCaseDto> useCases = batch.stream()
+                .map(pair -> new BatchUseCaseDto(pair.getUseCase(), plan.getUseCases().get(pair.getUseCase()).getText()))
+                .toList();
+        log.debug("Batch of {} use cases → {}", batch.size(), regulationName);
+        List<RequirementDto> relevant = relevant(plan, regulationName, requirements,
+                useCases.stream().map(BatchUseCaseDto::getUseCase).toList());
+        NeuroCallEvent event = new NeuroCallEvent();
+        event.begin();
+        UcBatchAndRegulationDto dto = new UcBatchAndRegulationDto(useCases, relevant);
+        Map<String, String> answers;
+        try {
+            answers = checkUCService.sendBatchRegulationToNeuro(dto);
+        } catch (RuntimeException e) {
+            event.failed = true;
+            throw e;
+        } finally {
+            commit(event, batch.get(0).getUseCase(), batch.size(), regulationName, relevant,
+                    () -> useCases.stream().mapToLong(useCase -> Payloads.utf8Length(useCase.getUseCase())).sum());
+        }
+        Map<String, List<String>> cacheKeys = checkUCService.batchCacheKeys(dto);
+        for (CheckPairDto pair : batch) {
+            String answer = answers.get(pair.getUseCase());
+            if (answer == null) {
+                futures.get(pair).completeExceptionally(new IllegalStateException("No answer for " + pair.getUseCase() + " in batch response"));
+            } else {
+                futures.get(pair).complete(new RegulationResponseDto(regulationName, answer, cacheKeys.get(pair.getUseCase())));
+            }
+        }
+    }
+
+    /**
+     * Commits the event of a call to AI if it is recorded, the payload size is computed only then.
+     *
+     * @param event        event started before the call
+     * @param useCase      file name of the (first) Use Case
+     * @param useCases     number of Use Cases sent
+     * @param regulation   name of the regulation
+     * @param requirements requirements sent
+     * @param useCaseBytes supplier of the UTF-8 size of the Use Case texts sent
+     */
+    static void commit(NeuroCallEvent event, String useCase, int useCases, String regulation,
+                               List<RequirementDto> requirements, LongSupplier useCaseBytes) {
+        if (event.shouldCommit()) {
+            event.useCase = useCase;
+            event.useCases = useCases;
+            event.regulation = regulation;
+            event.requirements = requirements.size();
+            event.payloadSize = useCaseBytes.getAsLong() + Payloads.utf8Length(requirements);
+            event.commit();
+        }
+    }
+
+    /**
+     * Keeps the requirements relevant to the Use Cases when the pre-filter is enabled.
+     * The index of a regulation is built once per plan and shared by all its pairs.
+     *
+     * @param plan           plan of the check
+     * @param regulationName name of the regulation
+     * @param requirements   requirements of the regulation
+     * @param useCases       texts of the Use Cases sent together with the requirements
+     * @return requirements to send to AI
+     */
+    List<RequirementDto> relevant(Plan plan, String regulationName, List<RequirementDto> requirements, List<String> useCases) {
+        if (!requirementFilterService.isEnabled()) {
+            return requirements;
+        }
+        RequirementIndex index = plan.getIndexes().computeIfAbsent(regulationName, name -> requirementFilterService.index(requirements));
+        return requirementFilterService.filter(index, useCases);
+    }
+
+    /**
+     * Builds the response for a pair whose check has failed.
+     *
+     * @param pair pair that has failed
+     * @param e    cause of the failure
+     * @return response with the failure description as comment
+     */
+    public static RegulationResponseDto failedPair(CheckPairDto pair, Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        log.warn("Check of {} against {} failed: {}", pair.getUseCase(), pair.getRegulation(), cause.getMessage(), cause);
+        return new RegulationResponseDto(pair.getRegulation(), "Check failed: " + cause.getMessage());
+    }
+
+    /**
+     * Plan of a check: the Use Cases, the regulations and the pairs to check in response order.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Plan {
+        private final Map<String, UseCaseDto> useCases; // Use Cases by file name, in upload order
+        private final Map<String, CompletableFuture<List<RequirementDto>>> regulations; // Requirements by regulation name
+        private final List<CheckPairDto> pairs; // Related pairs in response order
+        private final Map<String, RequirementIndex> indexes = new ConcurrentHashMap<>(); // Pre-filter indexes by regulation name
+    }
+}
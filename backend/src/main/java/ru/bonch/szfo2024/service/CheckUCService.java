@@ -1,47 +1,400 @@
 package ru.bonch.szfo2024.service;
 
-import lombok.RequiredArgsConstructor;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.*;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import ru.bonch.szfo2024.dto.BatchUseCaseDto;
+import ru.bonch.szfo2024.dto.RefAnswerDto;
+import ru.bonch.szfo2024.dto.RequirementDto;
 import ru.bonch.szfo2024.dto.UcAndRegulationDto;
+import ru.bonch.szfo2024.dto.UcAndRegulationRefDto;
+import ru.bonch.szfo2024.dto.UcBatchAndRegulationDto;
+import ru.bonch.szfo2024.error.exception.common.InternalServerError;
+import ru.bonch.szfo2024.service.neuro.NeuroClient;
+import ru.bonch.szfo2024.service.neuro.NeuroGuard;
+import ru.bonch.szfo2024.util.Hashes;
+import ru.bonch.szfo2024.util.Payloads;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 /**
  * Service for sending Use Case and Regulation data to a neural network for analysis.
  * @author Andrey Kurnosov (GutChoice)
  */
+@Slf4j
 @Service
-@RequiredArgsConstructor
 public class CheckUCService {
-    private final RestTemplate restTemplate;
+    private final NeuroClient neuroClient;
+    private final NeuroGuard neuroGuard;
+    private final NeuroResultCache neuroResultCache;
+    private final NeuroVerdictStore neuroVerdictStore;
+    private final RequirementChunker requirementChunker;
+    private final ObjectMapper objectMapper;
+    private final CheckMetrics checkMetrics;
+    private final boolean dedupEnabled;
+
+    public CheckUCService(NeuroClient neuroClient, NeuroGuard neuroGuard, NeuroResultCache neuroResultCache,
+                          NeuroVerdictStore neuroVerdictStore, RequirementChunker requirementChunker, ObjectMapper objectMapper,
+                          CheckMetrics checkMetrics, @Value("${neuro.dedup.enabled:false}") boolean dedupEnabled) {
+        this.neuroClient = neuroClient;
+        this.neuroGuard = neuroGuard;
+        this.neuroResultCache = neuroResultCache;
+        this.neuroVerdictStore = neuroVerdictStore;
+        this.requirementChunker = requirementChunker;
+        this.objectMapper = objectMapper;
+        this.checkMetrics = checkMetrics;
+        this.dedupEnabled = dedupEnabled;
+    }
+
+    /**
+     * Checks the Use Case against a regulation, splitting a regulation above the token budget into chunks
+     * sent concurrently by {@link #sendDataToNeuroAsync}, see {@link RequirementChunker}.
+     * The answers to the chunks are merged into a single answer. Each chunk is checked against its own top points,
+     * so a chunked regulation costs more LLM checks and covers other requirements than a single request.
+     * @param dto UcAndRegulationDto containing the Use Case and Regulation data
+     * @return String response from the AI, in the format of the check-uc endpoint
+     */
+    public String sendRegulationToNeuro(UcAndRegulationDto dto) {
+        List<List<RequirementDto>> chunks = requirementChunker.split(dto.getUseCase(), dto.getRegulation());
+        return chunks.size() == 1 ? sendDataToNeuro(dto) : sendChunks(dto.getUseCase(), chunks).block();
+    }
 
-    @Value("${makson.connection.url}")
-    private String maskonUrl;
+    /**
+     * Non-blocking variant of {@link #sendRegulationToNeuro}.
+     * @param dto UcAndRegulationDto containing the Use Case and Regulation data
+     * @return publisher of the response from the AI
+     */
+    public Mono<String> sendRegulationToNeuroAsync(UcAndRegulationDto dto) {
+        List<List<RequirementDto>> chunks = requirementChunker.split(dto.getUseCase(), dto.getRegulation());
+        return chunks.size() == 1 ? sendDataToNeuroAsync(dto) : sendChunks(dto.getUseCase(), chunks);
+    }
 
+    /**
+     * Returns the keys under which {@link #sendRegulationToNeuro} caches the responses for the data, one per chunk sent.
+     * Removing them with {@code DELETE /api/cache/neuro/{key}} makes the next check of the pair call AI again.
+     * @param dto UcAndRegulationDto containing the Use Case and Regulation data
+     * @return keys of the cached responses, null if responses are not cached
+     */
+    public List<String> cacheKeys(UcAndRegulationDto dto) {
+        if (!neuroResultCache.isEnabled()) {
+            return null;
+        }
+        return requirementChunker.split(dto.getUseCase(), dto.getRegulation()).stream()
+                .map(chunk -> NeuroResultCache.key(new UcAndRegulationDto(dto.getUseCase(), chunk)))
+                .toList();
+    }
+
+    /**
+     * Returns the keys under which {@link #sendBatchRegulationToNeuro} caches the responses for the Use Cases of a batch,
+     * one per chunk sent.
+     * @param dto UcBatchAndRegulationDto containing the Use Cases and the shared Regulation data
+     * @return keys of the cached responses by Use Case id, empty if responses are not cached
+     */
+    public Map<String, List<String>> batchCacheKeys(UcBatchAndRegulationDto dto) {
+        if (!neuroResultCache.isEnabled()) {
+            return Map.of();
+        }
+        List<List<RequirementDto>> chunks = splitBatch(dto);
+        Map<String, List<String>> keys = new HashMap<>();
+        for (BatchUseCaseDto useCase : dto.getUseCases()) {
+            keys.put(useCase.getId(), chunks.stream()
+                    .map(chunk -> NeuroResultCache.key(new UcAndRegulationDto(useCase.getUseCase(), chunk)))
+                    .toList());
+        }
+        return keys;
+    }
+
+    /**
+     * Sends the chunks of a regulation with at most {@code neuro.chunking.concurrency} requests in flight.
+     * A failed chunk fails the whole regulation, so no requirement is silently left unchecked.
+     * @param useCase Use Case text
+     * @param chunks  chunks of the requirements
+     * @return publisher of the merged response
+     */
+    private Mono<String> sendChunks(String useCase, List<List<RequirementDto>> chunks) {
+        log.debug("Regulation of {} requirements sent in {} chunks", chunks.stream().mapToInt(List::size).sum(), chunks.size());
+        return Flux.fromIterable(chunks)
+                .flatMapSequential(chunk -> sendDataToNeuroAsync(new UcAndRegulationDto(useCase, chunk)), requirementChunker.getConcurrency())
+                .map(response -> Objects.requireNonNullElse(text(response), response))
+                .collectList()
+                .map(answers -> json(RequirementChunker.merge(answers)));
+    }
 
     /**
      * Sends Use Case and Regulation data to AI for analysis.
+     * A response for identical data is taken from the cache without a remote call.
+     * Remote calls go through the {@link NeuroGuard}, transient failures are retried; every attempt is timed by {@link CheckMetrics}.
+     * With {@code neuro.dedup.enabled} the data is sent by reference, see {@link #sendByReference};
+     * with {@code neuro.incremental.enabled} only the requirements without a stored verdict are sent, see {@link #sendIncrementally}.
      * @param dto UcAndRegulationDto containing the Use Case and Regulation data
      * @return String response from the AI
      */
     public String sendDataToNeuro(UcAndRegulationDto dto) {
-        // Set up HTTP headers
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
+        String cacheKey = neuroResultCache.isEnabled() ? NeuroResultCache.key(dto) : null;
+        if (cacheKey != null) {
+            String cached = neuroResultCache.get(cacheKey);
+            if (cached != null) {
+                return cached;
+            }
+        }
 
-        // Create HTTP entity with the DTO and headers
-        HttpEntity<UcAndRegulationDto> request = new HttpEntity<>(dto, headers);
+        String response = neuroVerdictStore.isEnabled() ? sendIncrementally(dto) : send(dto);
+        if (cacheKey != null && response != null) {
+            neuroResultCache.put(cacheKey, response);
+        }
+        return response;
+    }
+
+    private String send(UcAndRegulationDto dto) {
         // Send POST request to the neural network endpoint
+        return neuroGuard.call(() -> dedupEnabled ? sendByReference(dto)
+                : checkMetrics.neuroCall("check-uc", () -> neuroClient.post("check-uc", dto)));
+    }
+
+    /**
+     * Sends only the requirements without a stored verdict for the Use Case and merges the answer with the stored verdicts.
+     * The answer is split into verdicts per requirement by {@link NeuroVerdictStore#attribute}; if a line can't be
+     * attributed nothing is stored and the answer is appended to the stored verdicts as is.
+     * A regulation larger than the service checks, see {@link NeuroVerdictStore#covers}, is sent in full and nothing is stored.
+     * @param dto UcAndRegulationDto containing the Use Case and Regulation data
+     * @return String response from the AI, in the format of the check-uc endpoint
+     * @throws InternalServerError if the merged response can't be written
+     */
+    private String sendIncrementally(UcAndRegulationDto dto) {
+        String useCaseHash = Hashes.sha256(dto.getUseCase() == null ? "" : dto.getUseCase());
+        List<RequirementDto> requirements = dto.getRegulation();
+        if (!neuroVerdictStore.covers(requirements.size())) {
+            log.debug("{} requirements are more than the service checks, the check is not incremental", requirements.size());
+            return send(dto);
+        }
+        List<String> keys = new ArrayList<>(requirements.size());
+        List<List<String>> verdicts = new ArrayList<>(requirements.size());
+        List<RequirementDto> changed = new ArrayList<>();
+        for (RequirementDto requirement : requirements) {
+            String key = NeuroVerdictStore.key(useCaseHash, requirement);
+            List<String> verdict = neuroVerdictStore.get(key);
+            keys.add(key);
+            verdicts.add(verdict);
+            if (verdict == null) {
+                changed.add(requirement);
+            }
+        }
+        checkMetrics.incremental(requirements.size() - changed.size(), changed.size());
+        log.debug("{} of {} requirements have a stored verdict", requirements.size() - changed.size(), requirements.size());
 
-        ResponseEntity<String> response = restTemplate.exchange(
-                maskonUrl + "check-uc", // URL for the neural network endpoint
-                HttpMethod.POST,        // HTTP method
-                request,                // Request entity containing the data
-                String.class            // Expected response type
-        );
-        return response.getBody();
+        if (changed.isEmpty() && !requirements.isEmpty()) {
+            return json(NeuroVerdictStore.merge(verdicts));
+        }
+        boolean full = changed.size() == requirements.size();
+        String response = send(full ? dto : new UcAndRegulationDto(dto.getUseCase(), changed));
+        String answer = text(response);
+        List<List<String>> received = answer == null ? null : NeuroVerdictStore.attribute(changed, answer);
+        if (received == null) {
+            log.debug("Answer can't be attributed to the requirements sent, verdicts are not stored: {}", response);
+            if (full) {
+                return response;
+            }
+            String stored = NeuroVerdictStore.merge(verdicts.stream().filter(Objects::nonNull).toList());
+            return json((stored.equals(NeuroVerdictStore.REQUIREMENTS_MET) ? "" : stored) + (answer != null ? answer : response));
+        }
+        for (int i = 0, next = 0; i < requirements.size(); i++) {
+            if (verdicts.get(i) == null) {
+                verdicts.set(i, received.get(next++));
+                neuroVerdictStore.put(keys.get(i), verdicts.get(i));
+            }
+        }
+        // A full check is answered exactly as the service has answered
+        return full ? response : json(NeuroVerdictStore.merge(verdicts));
     }
 
+    private String json(String answer) {
+        try {
+            return objectMapper.writeValueAsString(answer);
+        } catch (JsonProcessingException e) {
+            throw new InternalServerError("Can't write the merged response", e);
+        }
+    }
+
+    /**
+     * @param response response of the check-uc endpoint
+     * @return text of the answer, null if the response is not a JSON string
+     */
+    private String text(String response) {
+        if (response == null) {
+            return null;
+        }
+        try {
+            JsonNode node = objectMapper.readTree(response);
+            return node != null && node.isTextual() ? node.asText() : null;
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sends Use Case and Regulation data to AI for analysis without blocking the calling thread.
+     * Behaves like {@link #sendDataToNeuro}: the cache is looked up first, the call goes through the {@link NeuroGuard}
+     * and is timed by {@link CheckMetrics}. The check by reference and the incremental check are made of dependent
+     * blocking calls, with {@code neuro.dedup.enabled} or {@code neuro.incremental.enabled} they run on a bounded elastic thread.
+     * @param dto UcAndRegulationDto containing the Use Case and Regulation data
+     * @return publisher of the response from the AI
+     */
+    public Mono<String> sendDataToNeuroAsync(UcAndRegulationDto dto) {
+        if (dedupEnabled || neuroVerdictStore.isEnabled()) {
+            return Mono.fromCallable(() -> sendDataToNeuro(dto)).subscribeOn(Schedulers.boundedElastic());
+        }
+        String cacheKey = neuroResultCache.isEnabled() ? NeuroResultCache.key(dto) : null;
+        if (cacheKey != null) {
+            String cached = neuroResultCache.get(cacheKey);
+            if (cached != null) {
+                return Mono.just(cached);
+            }
+        }
+
+        return neuroGuard.callAsync(() -> checkMetrics.neuroCallAsync("check-uc", () -> neuroClient.postAsync("check-uc", dto)))
+                .doOnNext(response -> {
+                    if (cacheKey != null) {
+                        neuroResultCache.put(cacheKey, response);
+                    }
+                });
+    }
+
+    /**
+     * Sends Use Case and Regulation data by content hash.
+     * Only the hashes are sent first; the Use Case text and the requirements are uploaded only if the service
+     * reports them missing, so a regulation shared by many Use Cases crosses the wire once. Requests are gzip-compressed.
+     * @param dto UcAndRegulationDto containing the Use Case and Regulation data
+     * @return String response from the AI, in the format of the check-uc endpoint
+     * @throws InternalServerError if the response can't be parsed or has no answer
+     */
+    private String sendByReference(UcAndRegulationDto dto) {
+        String useCaseHash = Hashes.sha256(dto.getUseCase() == null ? "" : dto.getUseCase());
+        String regulationHash = Hashes.sha256(dto.getRegulation());
+        RefAnswerDto answer = postReference(new UcAndRegulationRefDto(useCaseHash, regulationHash, null, null));
+        if (!hasAnswer(answer) && answer.getMissing() != null && !answer.getMissing().isEmpty()) {
+            answer = postReference(new UcAndRegulationRefDto(useCaseHash, regulationHash,
+                    answer.getMissing().contains(useCaseHash) ? dto.getUseCase() : null,
+                    answer.getMissing().contains(regulationHash) ? dto.getRegulation() : null));
+        }
+        if (!hasAnswer(answer)) {
+            throw new InternalServerError("No answer from AI for the check by reference, missing " + answer.getMissing(), null);
+        }
+        // Keep the answer as JSON, exactly as the check-uc endpoint returns it
+        return answer.getAnswer().toString();
+    }
+
+    private static boolean hasAnswer(RefAnswerDto answer) {
+        return answer.getAnswer() != null && !answer.getAnswer().isNull();
+    }
+
+    private RefAnswerDto postReference(UcAndRegulationRefDto request) {
+        try {
+            byte[] body = Payloads.gzipJson(objectMapper, request);
+            String response = checkMetrics.neuroCall("check-uc-ref", () -> neuroClient.post("check-uc-ref", body, "gzip"));
+            return objectMapper.readValue(response, RefAnswerDto.class);
+        } catch (IOException e) {
+            throw new InternalServerError("Invalid response from AI for the check by reference", e);
+        }
+    }
 
+    /**
+     * Checks several Use Cases against the same regulation, splitting a regulation above the token budget into chunks,
+     * see {@link RequirementChunker}. Every chunk is sent with all the Use Cases by {@link #sendBatchToNeuro}, at most
+     * {@code neuro.chunking.concurrency} chunks at once, and the answers to the chunks are merged per Use Case.
+     * A failed chunk fails the whole batch; a Use Case missing from the answer to a chunk has no merged answer.
+     * @param dto UcBatchAndRegulationDto containing the Use Cases and the shared Regulation data
+     * @return map of Use Case ids to the responses from the AI, each in the format of {@link #sendDataToNeuro}
+     */
+    public Map<String, String> sendBatchRegulationToNeuro(UcBatchAndRegulationDto dto) {
+        List<List<RequirementDto>> chunks = splitBatch(dto);
+        if (chunks.size() == 1) {
+            return sendBatchToNeuro(dto);
+        }
+        log.debug("Regulation of {} requirements sent to a batch of {} use cases in {} chunks",
+                dto.getRegulation().size(), dto.getUseCases().size(), chunks.size());
+        List<Map<String, String>> received = Flux.fromIterable(chunks)
+                .flatMapSequential(chunk -> Mono.fromCallable(() -> sendBatchToNeuro(new UcBatchAndRegulationDto(dto.getUseCases(), chunk)))
+                        .subscribeOn(Schedulers.boundedElastic()), requirementChunker.getConcurrency())
+                .collectList()
+                .block();
+        Map<String, String> answers = new HashMap<>();
+        for (BatchUseCaseDto useCase : dto.getUseCases()) {
+            List<String> texts = new ArrayList<>(chunks.size());
+            for (Map<String, String> chunkAnswers : received) {
+                String response = chunkAnswers.get(useCase.getId());
+                if (response == null) {
+                    break;
+                }
+                texts.add(Objects.requireNonNullElse(text(response), response));
+            }
+            if (texts.size() == chunks.size()) {
+                answers.put(useCase.getId(), json(RequirementChunker.merge(texts)));
+            }
+        }
+        return answers;
+    }
+
+    private List<List<RequirementDto>> splitBatch(UcBatchAndRegulationDto dto) {
+        return requirementChunker.split(dto.getUseCases().stream().map(BatchUseCaseDto::getUseCase).toList(), dto.getRegulation());
+    }
+
+    /**
+     * Sends several Use Cases related to the same regulation to AI in a single request.
+     * Use Cases with a cached response are not sent.
+     * @param dto UcBatchAndRegulationDto containing the Use Cases and the shared Regulation data
+     * @return map of Use Case ids to the responses from the AI, each in the format of {@link #sendDataToNeuro}
+     * @throws InternalServerError if the response can't be parsed
+     */
+    public Map<String, String> sendBatchToNeuro(UcBatchAndRegulationDto dto) {
+        Map<String, String> answers = new HashMap<>();
+        Map<String, String> cacheKeys = new HashMap<>();
+        List<BatchUseCaseDto> notCached = new ArrayList<>();
+        for (BatchUseCaseDto useCase : dto.getUseCases()) {
+            String cacheKey = neuroResultCache.isEnabled()
+                    ? NeuroResultCache.key(new UcAndRegulationDto(useCase.getUseCase(), dto.getRegulation()))
+                    : null;
+            String cached = cacheKey != null ? neuroResultCache.get(cacheKey) : null;
+            if (cached != null) {
+                answers.put(useCase.getId(), cached);
+            } else {
+                cacheKeys.put(useCase.getId(), cacheKey);
+                notCached.add(useCase);
+            }
+        }
+        if (notCached.isEmpty()) {
+            return answers;
+        }
+
+        // Send POST request to the neural network batch endpoint
+        UcBatchAndRegulationDto batch = new UcBatchAndRegulationDto(notCached, dto.getRegulation());
+        String response = neuroGuard.call(() -> checkMetrics.neuroCall("check-uc-batch", () -> neuroClient.post("check-uc-batch", batch)));
+        Map<String, JsonNode> received;
+        try {
+            received = objectMapper.readValue(response, new TypeReference<Map<String, JsonNode>>() {});
+        } catch (JsonProcessingException e) {
+            throw new InternalServerError("Invalid batch response from AI", e);
+        }
+        received.forEach((id, node) -> {
+            // Keep every answer as JSON, exactly as the single Use Case endpoint returns it
+            String answer = node.toString();
+            String cacheKey = cacheKeys.get(id);
+            if (cacheKey != null) {
+                neuroResultCache.put(cacheKey, answer);
+            }
+            answers.put(id, answer);
+        });
+        return answers;
+    }
 }
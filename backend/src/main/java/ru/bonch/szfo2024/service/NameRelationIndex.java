@@ -0,0 +1,135 @@
+package ru.bonch.szfo2024.service;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Precomputed index of regulation names answering {@link NameRelationService#areRelated} for all of them at once.
+ * Word sets, stripped forms and initials of every regulation name are calculated once and stored in inverted indexes,
+ * so a system name is resolved with a few lookups per word instead of a comparison with every regulation.
+ * The results are exactly the same as calling {@code areRelated(systemName, regulationName)} for every regulation.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+public class NameRelationIndex {
+
+    private static final int MAX_LENGTH_DIFFERENCE = 3;
+
+    private final List<String> names;
+    private final Map<String, BitSet> byWord = new HashMap<>();             // Lowercase word → names containing it
+    private final Map<String, BitSet> byFirstLetter = new HashMap<>();      // Uppercase first letter of the stripped name → names
+    private final Map<Character, BitSet> byAbbreviationLetter = new HashMap<>(); // Letter → abbreviation names containing it
+    private final Map<String, BitSet> byStripped = new HashMap<>();         // Lowercase stripped name → names
+    private final Map<String, BitSet> byStrippedPrefix = new HashMap<>();   // Prefix shorter by 1 to 3 letters → names
+
+    /**
+     * Builds the index.
+     *
+     * @param names regulation names, indexes of the matches refer to positions in this list
+     */
+    NameRelationIndex(List<String> names) {
+        this.names = List.copyOf(names);
+        for (int i = 0; i < this.names.size(); i++) {
+            Name name = new Name(this.names.get(i));
+            for (String word : name.words) {
+                add(byWord, word, i);
+            }
+            if (!name.stripped.isEmpty()) {
+                add(byFirstLetter, name.firstLetter, i);
+            }
+            if (name.isAbbreviation) {
+                for (int c = 0; c < name.stripped.length(); c++) {
+                    add(byAbbreviationLetter, name.stripped.charAt(c), i);
+                }
+            }
+            add(byStripped, name.lowerStripped, i);
+            int length = name.lowerStripped.length();
+            for (int difference = 1; difference <= MAX_LENGTH_DIFFERENCE && difference <= length; difference++) {
+                add(byStrippedPrefix, name.lowerStripped.substring(0, length - difference), i);
+            }
+        }
+    }
+
+    /**
+     * @return indexed regulation names
+     */
+    public List<String> getNames() {
+        return names;
+    }
+
+    /**
+     * Finds the regulation names related to the system name.
+     *
+     * @param systemName system name of a Use Case
+     * @return positions of the related names in {@link #getNames()}
+     */
+    public BitSet related(String systemName) {
+        BitSet related = new BitSet(names.size());
+        addRelated(systemName, related);
+        return related;
+    }
+
+    /**
+     * Adds the positions of the regulation names related to the system name.
+     *
+     * @param systemName system name of a Use Case
+     * @param related    positions of the related names in {@link #getNames()}
+     */
+    public void addRelated(String systemName, BitSet related) {
+        Name name = new Name(systemName);
+
+        // Common words
+        for (String word : name.words) {
+            or(related, byWord.get(word));
+        }
+
+        // Abbreviations: the system name is checked as an abbreviation first, the regulation name only if it isn't one
+        if (name.isAbbreviation) {
+            for (int c = 0; c < name.stripped.length(); c++) {
+                or(related, byFirstLetter.get(String.valueOf(name.stripped.charAt(c))));
+            }
+        } else if (!name.stripped.isEmpty() && name.firstLetter.length() == 1) {
+            or(related, byAbbreviationLetter.get(name.firstLetter.charAt(0)));
+        }
+
+        // Similarity: one stripped name is a prefix of the other, longer by at most 3 letters
+        int length = name.lowerStripped.length();
+        for (int prefix = Math.max(0, length - MAX_LENGTH_DIFFERENCE); prefix <= length; prefix++) {
+            or(related, byStripped.get(name.lowerStripped.substring(0, prefix)));
+        }
+        or(related, byStrippedPrefix.get(name.lowerStripped));
+    }
+
+    private static <K> void add(Map<K, BitSet> index, K key, int position) {
+        index.computeIfAbsent(key, k -> new BitSet()).set(position);
+    }
+
+    private static void or(BitSet related, BitSet positions) {
+        if (positions != null) {
+            related.or(positions);
+        }
+    }
+
+    /**
+     * Forms of a name compared by {@link NameRelationService#areRelated}.
+     */
+    private static class Name {
+        final String[] words;         // Lowercase words
+        final String stripped;        // Latin letters of the name
+        final boolean isAbbreviation; // At least two letters, all uppercase
+        final String firstLetter;     // Uppercase first letter of the stripped name, empty if there is none
+        final String lowerStripped;   // Latin letters of the lowercase name
+
+        Name(String name) {
+            String lowerCase = name.toLowerCase();
+            words = lowerCase.split("\\s+");
+            stripped = name.replaceAll("[^a-zA-Z]", "");
+            isAbbreviation = stripped.equals(stripped.toUpperCase()) && stripped.length() > 1;
+            firstLetter = stripped.isEmpty() ? "" : stripped.substring(0, 1).toUpperCase();
+            lowerStripped = lowerCase.replaceAll("[^a-zA-Z]", "");
+        }
+    }
+}
@@ -4,6 +4,7 @@ import org.springframework.stereotype.Service;
 
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -16,6 +17,15 @@ import java.util.Set;
 @Service
 public class NameRelationService {
 
+    /**
+     * Builds an index of the names for matching many system names against all of them.
+     * @param names the names to be indexed, usually the regulation names
+     * @return index giving the same results as {@link #areRelated} with the indexed name as the second argument
+     */
+    public NameRelationIndex index(List<String> names) {
+        return new NameRelationIndex(names);
+    }
+
     /**
      * Checks if two names are related.
      * @param name1 the first name to be compared
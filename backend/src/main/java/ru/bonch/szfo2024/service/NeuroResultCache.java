@@ -0,0 +1,105 @@
+package ru.bonch.szfo2024.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
+import ru.bonch.szfo2024.cache.TwoTierCache;
+import ru.bonch.szfo2024.dto.RequirementDto;
+import ru.bonch.szfo2024.dto.UcAndRegulationDto;
+import ru.bonch.szfo2024.dto.response.CacheStatsDto;
+import ru.bonch.szfo2024.util.Hashes;
+
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.HexFormat;
+
+/**
+ * Cache of the neural network responses, keyed by a stable hash of the Use Case text and the requirements sent.
+ * Identical pairs are answered without a remote call. Disabled by default: the answers of the AI are not deterministic,
+ * a cached answer is kept for {@code neuro.cache.ttl} unless its key, returned with every check response, is removed.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Component
+public class NeuroResultCache {
+
+    private final boolean enabled;
+    private final TwoTierCache cache;
+
+    public NeuroResultCache(@Value("${neuro.cache.enabled:false}") boolean enabled,
+                            @Value("${neuro.cache.memory-max-size:32MB}") DataSize memoryMaxSize,
+                            @Value("${neuro.cache.disk-dir:}") String diskDir,
+                            @Value("${neuro.cache.disk-max-size:256MB}") DataSize diskMaxSize,
+                            @Value("${neuro.cache.ttl:7d}") Duration ttl) {
+        this.enabled = enabled;
+        this.cache = new TwoTierCache("neuro-result", memoryMaxSize.toBytes(),
+                enabled && StringUtils.hasText(diskDir) ? Path.of(diskDir) : null, diskMaxSize.toBytes(), ttl);
+    }
+
+    /**
+     * Calculates the cache key of the request.
+     * Every field is prefixed with its length, so different splits of the same text give different keys.
+     * @param dto request to the neural network
+     * @return lowercase hex SHA-256 of the request content
+     */
+    public static String key(UcAndRegulationDto dto) {
+        MessageDigest digest = Hashes.newSha256();
+        Hashes.update(digest, dto.getUseCase());
+        for (RequirementDto requirement : dto.getRegulation()) {
+            Hashes.update(digest, requirement.getSection());
+            Hashes.update(digest, requirement.getRequirement());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * @return true if responses are cached
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the cached response.
+     * @param key key calculated by {@link #key(UcAndRegulationDto)}
+     * @return response or null if the request has not been sent yet or the entry has expired
+     */
+    public String get(String key) {
+        return enabled ? cache.get(key) : null;
+    }
+
+    /**
+     * Stores the response.
+     * @param key      key calculated by {@link #key(UcAndRegulationDto)}
+     * @param response response of the neural network
+     */
+    public void put(String key, String response) {
+        if (enabled) {
+            cache.put(key, response);
+        }
+    }
+
+    /**
+     * Removes a single response.
+     * @param key key of the response
+     */
+    public void invalidate(String key) {
+        cache.invalidate(key);
+    }
+
+    /**
+     * Removes every response.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * @return statistics of the cache
+     */
+    public CacheStatsDto stats() {
+        return cache.stats();
+    }
+}
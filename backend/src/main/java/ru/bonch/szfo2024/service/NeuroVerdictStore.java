@@ -0,0 +1,217 @@
+package ru.bonch.szfo2024.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
+import ru.bonch.szfo2024.cache.TwoTierCache;
+import ru.bonch.szfo2024.dto.RequirementDto;
+import ru.bonch.szfo2024.dto.response.CacheStatsDto;
+import ru.bonch.szfo2024.util.Hashes;
+
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Verdicts of the neural network per requirement, keyed by a hash of the Use Case text and of the requirement.
+ * In incremental mode only the requirements without a stored verdict are sent to AI, the stored verdicts of the others
+ * are merged with the answer, so re-checking a revised regulation costs as much as its changed sections.
+ * A verdict is the list of "According to X: ..." lines of the answer attributed to the requirement whose section
+ * is the longest prefix of X; it is empty if the service has found nothing.
+ * <p>
+ * The service checks only its {@code N_REQUIREMENTS} points most similar to the Use Case and does not tell which ones,
+ * so an empty verdict of a requirement outside them would be stored as met. Incremental checks are therefore made only
+ * for regulations of at most {@code neuro.incremental.service-top-n} requirements, the {@code N_REQUIREMENTS}
+ * of the service, and the store can't be enabled without it; a larger regulation is checked in full and nothing is stored.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Component
+public class NeuroVerdictStore {
+
+    /**
+     * Answer of the neural network service when no requirement is violated.
+     */
+    public static final String REQUIREMENTS_MET = "The regulations objects were found. Requirements are met";
+
+    private static final String LINE_PREFIX = "According to ";
+
+    private final boolean enabled;
+    private final int serviceTopN;
+    private final TwoTierCache cache;
+
+    public NeuroVerdictStore(@Value("${neuro.incremental.enabled:false}") boolean enabled,
+                             @Value("${neuro.incremental.service-top-n:0}") int serviceTopN,
+                             @Value("${neuro.incremental.memory-max-size:32MB}") DataSize memoryMaxSize,
+                             @Value("${neuro.incremental.disk-dir:}") String diskDir,
+                             @Value("${neuro.incremental.disk-max-size:256MB}") DataSize diskMaxSize,
+                             @Value("${neuro.incremental.ttl:30d}") Duration ttl) {
+        if (enabled && serviceTopN <= 0) {
+            throw new IllegalStateException("neuro.incremental.enabled requires neuro.incremental.service-top-n, "
+                    + "the N_REQUIREMENTS of the neural network service");
+        }
+        this.enabled = enabled;
+        this.serviceTopN = serviceTopN;
+        this.cache = new TwoTierCache("neuro-verdict", memoryMaxSize.toBytes(),
+                enabled && StringUtils.hasText(diskDir) ? Path.of(diskDir) : null, diskMaxSize.toBytes(), ttl);
+    }
+
+    /**
+     * Calculates the key of the verdict of a requirement for a Use Case.
+     * @param useCaseHash hash of the Use Case text, see {@link Hashes#sha256(String)}
+     * @param requirement requirement of the regulation
+     * @return lowercase hex SHA-256 of the Use Case hash, the section and the text of the requirement
+     */
+    public static String key(String useCaseHash, RequirementDto requirement) {
+        MessageDigest digest = Hashes.newSha256();
+        Hashes.update(digest, useCaseHash);
+        Hashes.update(digest, requirement.getSection());
+        Hashes.update(digest, requirement.getRequirement());
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * @return true if checks are incremental
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param requirements number of requirements of the regulation
+     * @return true if the service checks every requirement of such a regulation, so its verdicts can be stored
+     */
+    public boolean covers(int requirements) {
+        return requirements <= serviceTopN;
+    }
+
+    /**
+     * Returns the stored verdict.
+     * @param key key calculated by {@link #key}
+     * @return lines of the verdict, empty if nothing has been found, null if there is no verdict
+     */
+    public List<String> get(String key) {
+        String verdict = enabled ? cache.get(key) : null;
+        if (verdict == null) {
+            return null;
+        }
+        return verdict.isEmpty() ? List.of() : List.of(verdict.split("\n"));
+    }
+
+    /**
+     * Stores the verdict.
+     * @param key     key calculated by {@link #key}
+     * @param verdict lines of the verdict, empty if nothing has been found
+     */
+    public void put(String key, List<String> verdict) {
+        if (enabled) {
+            cache.put(key, String.join("\n", verdict));
+        }
+    }
+
+    /**
+     * Removes every verdict.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * @return statistics of the store
+     */
+    public CacheStatsDto stats() {
+        return cache.stats();
+    }
+
+    /**
+     * Splits the answer of the neural network into the verdicts of the requirements sent.
+     * A line not starting with "According to" continues the previous one.
+     * All lines belong to the only requirement sent; otherwise a line is attributed to the requirement whose section
+     * equals its point or is its longest dotted prefix.
+     * @param requirements requirements sent
+     * @param answer       text of the answer
+     * @return verdicts in the order of the requirements, null if a line can't be attributed to a single requirement
+     */
+    public static List<List<String>> attribute(List<RequirementDto> requirements, String answer) {
+        List<List<String>> verdicts = new ArrayList<>();
+        requirements.forEach(requirement -> verdicts.add(new ArrayList<>()));
+        List<String> lines = new ArrayList<>();
+        for (String line : answer.split("\n")) {
+            if (line.isBlank()) {
+                continue;
+            }
+            if (line.startsWith(LINE_PREFIX) || lines.isEmpty()) {
+                lines.add(line.strip());
+            } else {
+                lines.set(lines.size() - 1, lines.get(lines.size() - 1) + " " + line.strip());
+            }
+        }
+        if (lines.isEmpty() || lines.size() == 1 && !lines.get(0).startsWith(LINE_PREFIX) && lines.get(0).endsWith("Requirements are met")) {
+            return verdicts;
+        }
+
+        for (String line : lines) {
+            int colon = line.indexOf(": ");
+            if (!line.startsWith(LINE_PREFIX) || colon < 0) {
+                return null;
+            }
+            int index = requirements.size() == 1 ? 0 : owner(requirements, line.substring(LINE_PREFIX.length(), colon).strip());
+            if (index < 0) {
+                return null;
+            }
+            verdicts.get(index).add(line);
+        }
+        return verdicts;
+    }
+
+    /**
+     * Joins the verdicts into an answer in the format of the neural network service.
+     * @param verdicts verdicts of the requirements in the order of the regulation
+     * @return one line per finding, or {@link #REQUIREMENTS_MET} if there is none
+     */
+    public static String merge(List<List<String>> verdicts) {
+        StringBuilder answer = new StringBuilder();
+        for (List<String> verdict : verdicts) {
+            for (String line : verdict) {
+                answer.append(line).append('\n');
+            }
+        }
+        return answer.isEmpty() ? REQUIREMENTS_MET : answer.toString();
+    }
+
+    /**
+     * @param requirements requirements sent
+     * @param point        point of the regulation named by the answer
+     * @return index of the only requirement with the longest section matching the point, -1 if there is none
+     */
+    private static int owner(List<RequirementDto> requirements, String point) {
+        int owner = -1;
+        int ownerLength = -1;
+        boolean ambiguous = false;
+        for (int i = 0; i < requirements.size(); i++) {
+            String section = requirements.get(i).getSection();
+            if (section == null) {
+                continue;
+            }
+            section = section.strip();
+            if (section.endsWith(".")) {
+                section = section.substring(0, section.length() - 1);
+            }
+            if (section.isEmpty() || !(point.equals(section) || point.startsWith(section + "."))) {
+                continue;
+            }
+            if (section.length() > ownerLength) {
+                owner = i;
+                ownerLength = section.length();
+                ambiguous = false;
+            } else if (section.length() == ownerLength) {
+                ambiguous = true;
+            }
+        }
+        return ambiguous ? -1 : owner;
+    }
+}
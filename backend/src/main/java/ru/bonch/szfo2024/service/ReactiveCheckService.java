@@ -0,0 +1,119 @@
+package ru.bonch.szfo2024.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import ru.bonch.szfo2024.dto.CheckPairDto;
+import ru.bonch.szfo2024.dto.RequirementDto;
+import ru.bonch.szfo2024.dto.UcAndRegulationDto;
+import ru.bonch.szfo2024.dto.UseCaseDto;
+import ru.bonch.szfo2024.dto.response.RegulationResponseDto;
+import ru.bonch.szfo2024.dto.response.UcResponseDto;
+import ru.bonch.szfo2024.trace.NeuroCallEvent;
+import ru.bonch.szfo2024.trace.PayloadLog;
+import ru.bonch.szfo2024.util.Payloads;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Non-blocking variant of the check run by {@link CheckPipelineService}.
+ * The input files are parsed on the bounded elastic parse scheduler; then the pairs are checked through
+ * {@link CheckUCService#sendRegulationToNeuroAsync} with at most {@code check.reactive.neuro-concurrency} calls to AI
+ * in flight per check, the next pair is taken from the plan only when a call completes.
+ * No thread waits for the AI: with {@code neuro.client.mode=reactive} the calls run on the event loop of the WebClient.
+ * Batch mode doesn't apply, every pair is sent on its own.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ReactiveCheckService {
+
+    private final CheckPipelineService checkPipelineService;
+    private final CheckUCService checkUCService;
+    private final PayloadLog payloadLog;
+    private final Scheduler parseScheduler;
+
+    @Value("${check.reactive.neuro-concurrency:8}")
+    private int neuroConcurrency;
+
+    /**
+     * Checks every Use Case against every related regulation, uploaded or taken from the catalog.
+     * A failure of a single pair is reported in its comment and does not affect the other pairs.
+     *
+     * @param useCaseFiles    list of Use Case files (DOCX)
+     * @param regulationFiles list of regulation files (PDF), may be null
+     * @param regulationIds   list of identifiers of catalog regulations, may be null
+     * @return publisher of the list of responses for each Use Case in upload order
+     */
+    public Mono<List<UcResponseDto>> check(List<MultipartFile> useCaseFiles, List<MultipartFile> regulationFiles, List<String> regulationIds) {
+        return prepare(useCaseFiles, regulationFiles, regulationIds)
+                .flatMap(plan -> checkEach(plan)
+                        .collect(LinkedHashMap<CheckPairDto, RegulationResponseDto>::new,
+                                (results, result) -> results.put(result.getKey(), result.getValue()))
+                        .map(results -> CheckPipelineService.toResponse(plan, results)));
+    }
+
+    /**
+     * Reads the input files and finds the pairs to check on the parse scheduler, see {@link CheckPipelineService#prepare}.
+     *
+     * @param useCaseFiles    list of Use Case files (DOCX)
+     * @param regulationFiles list of regulation files (PDF), may be null
+     * @param regulationIds   list of identifiers of catalog regulations, may be null
+     * @return publisher of the plan of the check
+     */
+    public Mono<CheckPipelineService.Plan> prepare(List<MultipartFile> useCaseFiles, List<MultipartFile> regulationFiles,
+                                                   List<String> regulationIds) {
+        return Mono.fromCallable(() -> checkPipelineService.prepare(useCaseFiles, regulationFiles, regulationIds))
+                .subscribeOn(parseScheduler);
+    }
+
+    /**
+     * Checks every pair of the plan and emits each response as soon as it is ready.
+     * A failed pair is emitted with the failure description as comment; cancelling the subscription cancels the calls in flight.
+     *
+     * @param plan plan of the check
+     * @return publisher of the responses by pair, in completion order
+     */
+    public Flux<Map.Entry<CheckPairDto, RegulationResponseDto>> checkEach(CheckPipelineService.Plan plan) {
+        return Flux.fromIterable(plan.getPairs())
+                .flatMap(pair -> checkPair(plan, pair).map(response -> Map.entry(pair, response)), neuroConcurrency);
+    }
+
+    /**
+     * Checks a single pair of the plan once the requirements of its regulation are itemised.
+     *
+     * @param plan plan of the check
+     * @param pair pair to check
+     * @return publisher of the response of the AI, or of the failure description
+     */
+    private Mono<RegulationResponseDto> checkPair(CheckPipelineService.Plan plan, CheckPairDto pair) {
+        UseCaseDto useCase = plan.getUseCases().get(pair.getUseCase());
+        // The itemisation is shared by every pair of the regulation, it must survive the cancellation of a single pair
+        return Mono.fromFuture(plan.getRegulations().get(pair.getRegulation()), true)
+                .flatMap(requirements -> {
+                    List<RequirementDto> regulation = checkPipelineService.relevant(plan, pair.getRegulation(), requirements,
+                            List.of(useCase.getText()));
+                    UcAndRegulationDto dto = new UcAndRegulationDto(useCase.getText(), regulation);
+                    NeuroCallEvent event = new NeuroCallEvent();
+                    event.begin();
+                    return checkUCService.sendRegulationToNeuroAsync(dto)
+                            .doOnError(e -> event.failed = true)
+                            .doFinally(signal -> CheckPipelineService.commit(event, pair.getUseCase(), 1, pair.getRegulation(),
+                                    regulation, () -> Payloads.utf8Length(useCase.getText())))
+                            .map(answer -> {
+                                payloadLog.debug(log, "Response for {} against {}: {}", pair.getUseCase(), pair.getRegulation(), answer);
+                                return new RegulationResponseDto(pair.getRegulation(), answer, checkUCService.cacheKeys(dto));
+                            });
+                })
+                .onErrorResume(e -> Mono.just(CheckPipelineService.failedPair(pair, e)));
+    }
+}
@@ -1,22 +1,42 @@
 package ru.bonch.szfo2024.service;
 
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import ru.bonch.szfo2024.dto.RequirementDto;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Service for split regulation by sections
  * @author Daniil Petrov (GutChoice)
  */
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class RegulationItemisationService {
 
+    // Regular expressions for different point formats
+    private static final Pattern DEFAULT_POINT = Pattern.compile("^(\\d+(\\.\\d+)*)(?!\\S)"); // Default regex for points without trailing dots for GOST standard
+    private static final Pattern UN_POINT = Pattern.compile("(^\\d+\\.(\\d+\\.)*\\s*)");      // Regex for points with dots (UNITED NATIONS style) for UNITED NATIONS standard
+    private static final Pattern TRAILING_DOT = Pattern.compile("\\.$");
+    private static final Pattern ANNEX_1 = Pattern.compile("^Annex[\\t ]+1[\\t ]*$");
+    private static final Pattern DEFAULT_SCOPE = Pattern.compile("^\\d+\\s+Scope\\s*$");
+    private static final Pattern UN_SCOPE = Pattern.compile("^\\d+\\.\\s+Scope\\s*$");
+
+    private static final int[] NO_POINT = {0}; // Point before the first section
+    private static final int OVERFLOW = -1;     // Number of a point that doesn't fit an int
+
     /**
      * Parses the content of a file to extract points and corresponding requirements.
      * It identifies sections based on specific patterns and stores them as RequirementDto objects.
@@ -25,81 +45,127 @@ public class RegulationItemisationService {
      * @return A list of RequirementDto objects extracted from the file
      */
     public List<RequirementDto> itemise(String content) {
-        List<RequirementDto> RDs = new ArrayList<>(); // List to store RequirementDto objects
+        return stream(content).collect(Collectors.toCollection(ArrayList::new));
+    }
 
-        // Regular expressions for different point formats
-        String defaultRegex = "^(\\d+(\\.\\d+)*)(?!\\S)"; // Default regex for points without trailing dots for GOST standard
-        String unRegex = "(^\\d+\\.(\\d+\\.)*\\s*)"; // Regex for points with dots (UNITED NATIONS style) for UNITED NATIONS standard
-        String regex = defaultRegex; // Start with default regex (We think we have GOST standard while we are not react UNITED NATIONS in text)
-        Pattern pattern = Pattern.compile(regex); // Compile the regex pattern
+    /**
+     * Lazily breaks the content down into requirements: a requirement is emitted as soon as the next point is found.
+     * The check pipeline still collects the whole list, since every pair is checked against all the requirements;
+     * the stream lets a consumer stop early, e.g. after the first requirement.
+     *
+     * @param content The entire content of the file
+     * @return Sequential stream of RequirementDto objects in the order of the sections
+     */
+    public Stream<RequirementDto> stream(CharSequence content) {
+        return stream(new Itemiser(new CharSequenceLines(content)));
+    }
 
-        String previousPoint = "0"; // Initialize previous point
-        boolean unitedNationsDone = false; // Flag indicating if "UNITED NATIONS" was found
-        boolean pastScope = false; // Flag indicating if we have passed the "Scope" section
-        boolean inSection = false; // Flag indicating if we are inside a section
+    private static Stream<RequirementDto> stream(Itemiser itemiser) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(itemiser, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
 
-        StringBuilder textSection = new StringBuilder(); // To store the content of the current section
+    /**
+     * Walks through the lines and emits the text of every section when the next valid point is found.
+     * The text of the last section is not emitted, as there is no point after it.
+     */
+    private static final class Itemiser implements Iterator<RequirementDto> {
 
-        String[] lines = content.split("\n"); // Split the file content into lines
-        for (String line : lines) {
-            line = line.trim(); // Remove leading and trailing spaces
+        private final Lines lines;
 
+        private final Matcher matcher = DEFAULT_POINT.matcher(""); // Start with default regex (We think we have GOST standard while we are not react UNITED NATIONS in text)
+        private String previousPoint = "0";   // Initialize previous point
+        private int[] previousParts = NO_POINT;
+        private boolean unitedNationsDone;    // Flag indicating if "UNITED NATIONS" was found
+        private boolean pastScope;            // Flag indicating if we have passed the "Scope" section
+        private boolean inSection;            // Flag indicating if we are inside a section
+        private boolean done;                 // Flag indicating if "Annex 1" or the end of the content was reached
+        private StringBuilder textSection = new StringBuilder(); // To store the content of the current section
+        private RequirementDto next;
+
+        Itemiser(Lines lines) {
+            this.lines = lines;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !done) {
+                String line = lines.next();
+                if (line == null) {
+                    done = true;
+                } else {
+                    next = accept(line.trim()); // Remove leading and trailing spaces
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public RequirementDto next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            RequirementDto requirement = next;
+            next = null;
+            return requirement;
+        }
+
+        /**
+         * Processes a single line.
+         * @param line trimmed line of the content
+         * @return the previous section if the line starts the next one, otherwise null
+         */
+        private RequirementDto accept(String line) {
             // Check if the line contains "UNITED NATIONS" what means that we have UNITED NATIONS standard
             if (line.contains("UNITED NATIONS")) {
-                regex = unRegex; // Switch to regex for points with dots
-                pattern = Pattern.compile(regex);
-                System.out.println("Found UNITED NATIONS. Switching to point parsing with dots.");
+                matcher.usePattern(UN_POINT); // Switch to regex for points with dots
+                log.trace("Found UNITED NATIONS. Switching to point parsing with dots.");
                 unitedNationsDone = true;
             }
 
             // Check for "Annex 1" to stop processing
-            if (line.matches("^Annex[\\t ]+1[\\t ]*$")) {
-                System.out.println("Found Annex 1. Stopping file processing.");
-                break; // Stop processing and exit the loop
+            if (ANNEX_1.matcher(line).matches()) {
+                log.trace("Found Annex 1. Stopping file processing.");
+                done = true;
+                return null;
             }
 
             // Search for the "Scope" section
             if (!pastScope) {
-                // If we have UNITED NATIONS standard
-                if (unitedNationsDone) {
-                    if (line.matches("^\\d+\\.\\s+Scope\\s*$")) {
-                        System.out.println("Found Scope.");
-                        pastScope = true; // Found Scope
-                    }
-                    // If we have GOST standard
-                } else {
-                    if (line.matches("^\\d+\\s+Scope\\s*$")) {
-                        System.out.println("Found Scope.");
-                        pastScope = true; // Found Scope
-                    }
+                // If we have UNITED NATIONS standard or GOST standard
+                if ((unitedNationsDone ? UN_SCOPE : DEFAULT_SCOPE).matcher(line).matches()) {
+                    log.trace("Found Scope.");
+                    pastScope = true; // Found Scope
                 }
             }
 
             if (!pastScope) {
-                continue; // Skip lines until we pass "Scope"
+                return null; // Skip lines until we pass "Scope"
             }
 
             // Search for points in the line using the regex pattern
-            Matcher matcher = pattern.matcher(line);
+            matcher.reset(line);
             if (matcher.find()) {
-                String currentPoint = matcher.group().replaceAll("\\.$", ""); // Remove trailing dot if present
+                String currentPoint = TRAILING_DOT.matcher(matcher.group()).replaceAll(""); // Remove trailing dot if present
+                int[] currentParts = parts(currentPoint);
                 // If point is valid
-                if (isValidNextPoint(previousPoint, currentPoint)) {
+                if (isValidNextPoint(previousParts, currentParts)) {
                     // Remove the point from the line and proceed
-                    line = line.replaceFirst(currentPoint, "").trim();
-                    System.out.println("Valid point: " + currentPoint);
+                    line = removePoint(line, currentPoint).trim();
+                    log.trace("Valid point: {}", currentPoint);
+                    RequirementDto previous = null;
                     if (!previousPoint.equals("0")) {
-                        // Add the previous point and its text section to the list
-                        RDs.add(new RequirementDto(previousPoint, textSection.toString()));
+                        // Emit the previous point and its text section
+                        previous = new RequirementDto(previousPoint, textSection.toString());
                         textSection = new StringBuilder(); // Reset the section text
                     }
                     inSection = true; // We are now inside a valid section
                     textSection.append(line); // Append the current line to the section
                     previousPoint = currentPoint; // Update previousPoint for the next iteration
-                    continue;
+                    previousParts = currentParts;
+                    return previous;
                     // If point is invalid
                 } else {
-                    System.out.println("Invalid point: " + currentPoint + " after " + previousPoint);
+                    log.trace("Invalid point: {} after {}", currentPoint, previousPoint);
                 }
             }
 
@@ -107,19 +173,60 @@ public class RegulationItemisationService {
             if (inSection) {
                 textSection.append(line);
             }
+            return null;
         }
+    }
 
-        return RDs; // Return the list of RequirementDto objects
+    /**
+     * Removes the point from the beginning of the line.
+     * The point is treated as a regular expression, as it always was: when the trailing dot was removed before a line
+     * terminator, the point is not a prefix of the line and its first match elsewhere is removed.
+     *
+     * @param line  The line starting with the point
+     * @param point The point found in the line
+     * @return The line without the point
+     */
+    private static String removePoint(String line, String point) {
+        if (line.startsWith(point)) {
+            return line.substring(point.length()); // The same as the first match of the point, without compiling it
+        }
+        return line.replaceFirst(point, "");
     }
 
     /**
-     * Removes a trailing dot from a string, if present.
+     * Parses the numbers of a point, ignoring trailing spaces and a trailing dot.
      *
-     * @param input The string to process
-     * @return The string without a trailing dot
+     * @param point The point, e.g. "3.1.2" or "3.1.2. "
+     * @return Numbers of the point; a number that doesn't fit an int is {@link #OVERFLOW}
      */
-    private static String removeTrailingDot(String input) {
-        return input.trim().replaceAll("\\.$", ""); // Remove the dot if it exists
+    private static int[] parts(String point) {
+        int end = point.length();
+        while (end > 0 && point.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (end > 0 && point.charAt(end - 1) == '.') {
+            end--;
+        }
+        int count = 1;
+        for (int i = 0; i < end; i++) {
+            if (point.charAt(i) == '.') {
+                count++;
+            }
+        }
+        int[] parts = new int[count];
+        int part = 0;
+        long value = 0;
+        for (int i = 0; i < end; i++) {
+            char c = point.charAt(i);
+            if (c == '.') {
+                parts[part++] = value > Integer.MAX_VALUE ? OVERFLOW : (int) value;
+                value = 0;
+            } else {
+                value = Math.min(value * 10 + (c - '0'), Integer.MAX_VALUE + 1L);
+            }
+        }
+        parts[part] = value > Integer.MAX_VALUE ? OVERFLOW : (int) value;
+        return parts;
     }
 
     /**
@@ -128,35 +235,33 @@ public class RegulationItemisationService {
      * This method compares the current point to the previous point, ensuring that the sequence is correct
      * based on specific rules, including nested points and top-level point transitions.
      *
-     * @param previousPoint The previous valid point in the sequence
-     * @param currentPoint The current point being evaluated
+     * @param prevParts Numbers of the previous valid point in the sequence
+     * @param currParts Numbers of the current point being evaluated
      * @return true if the current point is valid, otherwise false
      */
-    private static boolean isValidNextPoint(String previousPoint, String currentPoint) {
-        previousPoint = removeTrailingDot(previousPoint); // Clean up previous point
-        currentPoint = removeTrailingDot(currentPoint); // Clean up current point
-
-        String[] prevParts = previousPoint.split("\\.");
-        String[] currParts = currentPoint.split("\\.");
-
+    private static boolean isValidNextPoint(int[] prevParts, int[] currParts) {
         // Check for top-level point transition (e.g., going from 3.x to 4)
         if (currParts.length == 1 && prevParts.length > 1) {
-            return Integer.parseInt(currParts[0]) == Integer.parseInt(prevParts[0]) + 1;
+            return isNumber(currParts[0], prevParts[0]) && currParts[0] == prevParts[0] + 1;
         }
 
         // Check if the current point is more nested than the previous
         if (currParts.length > prevParts.length) {
-            int lastPrevNum = Integer.parseInt(prevParts[prevParts.length - 1]);
-            int lastCurrNum = Integer.parseInt(currParts[currParts.length - 1]);
+            int lastPrevNum = prevParts[prevParts.length - 1];
+            int lastCurrNum = currParts[currParts.length - 1];
+            int parentCurrNum = currParts[currParts.length - 2];
 
             // Allow deeper nesting (e.g., going from 3.1 to 3.1.1)
-            return lastCurrNum == 1 && Integer.parseInt(currParts[currParts.length - 2]) == lastPrevNum;
+            return isNumber(lastPrevNum, lastCurrNum) && lastCurrNum == 1 && isNumber(parentCurrNum, parentCurrNum) && parentCurrNum == lastPrevNum;
         }
 
         // If both points have the same depth, check for valid sequence
         for (int i = 0; i < Math.min(prevParts.length, currParts.length); i++) {
-            int prevNum = Integer.parseInt(prevParts[i]);
-            int currNum = Integer.parseInt(currParts[i]);
+            int prevNum = prevParts[i];
+            int currNum = currParts[i];
+            if (!isNumber(prevNum, currNum)) {
+                return false;
+            }
 
             // Ensure the sequence is incrementing correctly
             if (currNum > prevNum) {
@@ -166,22 +271,52 @@ public class RegulationItemisationService {
                 if (i < prevParts.length - 1) {
                     return true; // Correct sequence, incrementing within hierarchy
                 }
-            } else if (currNum == prevNum) {
-                // Check if the current point is more nested than the previous
-                if (i == prevParts.length - 1 && currParts.length > prevParts.length) {
-                    return true; // Valid deeper nesting
-                }
-            } else {
+            } else if (currNum < prevNum) {
                 return false; // Current number is less than the previous, invalid
             }
         }
 
-        // Check for illegal transition between top-level points (e.g., skipping numbers like 4, 5, etc.)
-        if (prevParts.length == 1 && currParts.length == 1 && Integer.parseInt(currentPoint) > Integer.parseInt(previousPoint) + 1) {
-            return false;
+        return false; // Invalid sequence by default
+    }
+
+    /**
+     * Numbers are compared only when both fit an int, otherwise the point is invalid.
+     * Numbers of a point that are not compared may overflow, so they are checked lazily.
+     */
+    private static boolean isNumber(int first, int second) {
+        return first != OVERFLOW && second != OVERFLOW;
+    }
+
+    /**
+     * Source of lines separated by '\n'.
+     */
+    private interface Lines {
+        /**
+         * @return the next line without the separator, or null at the end of the content
+         */
+        String next();
+    }
+
+    private static final class CharSequenceLines implements Lines {
+        private final CharSequence content;
+        private int position;
+
+        CharSequenceLines(CharSequence content) {
+            this.content = content;
         }
 
-        return false; // Invalid sequence by default
+        @Override
+        public String next() {
+            if (position > content.length()) {
+                return null;
+            }
+            int end = position;
+            while (end < content.length() && content.charAt(end) != '\n') {
+                end++;
+            }
+            String line = content.subSequence(position, end).toString();
+            position = end + 1;
+            return line;
+        }
     }
 }
-
@@ -0,0 +1,145 @@
+package ru.bonch.szfo2024.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.bonch.szfo2024.dto.RequirementDto;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Splits the requirements of a regulation into chunks sent to AI in separate, concurrent requests.
+ * Every chunk together with the Use Case text fits the estimated token budget {@code neuro.chunking.max-tokens},
+ * tokens are estimated as {@code neuro.chunking.chars-per-token} characters each. Consecutive requirements of the same
+ * section always stay in the same chunk, a section larger than the budget is sent in a chunk of its own.
+ * The neural network service checks only the {@code N_REQUIREMENTS} points of a request most similar to the Use Case,
+ * all of them if it receives fewer; every chunk gets its own top points. A chunked regulation therefore costs up to
+ * {@code N_REQUIREMENTS} LLM checks per chunk instead of per regulation, and the checked requirements are the best
+ * of every chunk rather than the best of the whole regulation.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Component
+public class RequirementChunker {
+
+    private static final int REQUIREMENT_OVERHEAD = 8; // Tokens of the JSON syntax around every requirement
+
+    private final boolean enabled;
+    private final int maxTokens;
+    private final double charsPerToken;
+    private final int concurrency;
+
+    public RequirementChunker(@Value("${neuro.chunking.enabled:false}") boolean enabled,
+                              @Value("${neuro.chunking.max-tokens:4000}") int maxTokens,
+                              @Value("${neuro.chunking.chars-per-token:4}") double charsPerToken,
+                              @Value("${neuro.chunking.concurrency:4}") int concurrency) {
+        if (maxTokens < 1 || charsPerToken <= 0 || concurrency < 1) {
+            throw new IllegalStateException("Invalid neuro.chunking settings");
+        }
+        this.enabled = enabled;
+        this.maxTokens = maxTokens;
+        this.charsPerToken = charsPerToken;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * @return true if large regulations are split into chunks
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return maximum number of chunks of a regulation sent at once
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Splits the requirements into chunks, keeping their order.
+     *
+     * @param useCase      Use Case text sent with every chunk
+     * @param requirements requirements of the regulation
+     * @return chunks of requirements, a single chunk with all requirements if chunking is disabled or they fit the budget
+     */
+    public List<List<RequirementDto>> split(String useCase, List<RequirementDto> requirements) {
+        return split(estimate(useCase), requirements);
+    }
+
+    /**
+     * Splits the requirements shared by a batch into chunks, keeping their order.
+     * Every chunk is sent with all the Use Cases of the batch, so their texts count against the budget together.
+     *
+     * @param useCases     Use Case texts sent with every chunk
+     * @param requirements requirements of the regulation
+     * @return chunks of requirements, a single chunk with all requirements if chunking is disabled or they fit the budget
+     */
+    public List<List<RequirementDto>> split(Collection<String> useCases, List<RequirementDto> requirements) {
+        return split(useCases.stream().mapToLong(this::estimate).sum(), requirements);
+    }
+
+    private List<List<RequirementDto>> split(long useCaseTokens, List<RequirementDto> requirements) {
+        if (!enabled || requirements.isEmpty()) {
+            return List.of(requirements);
+        }
+        long budget = maxTokens - useCaseTokens;
+        List<List<RequirementDto>> chunks = new ArrayList<>();
+        List<RequirementDto> chunk = new ArrayList<>();
+        long chunkTokens = 0;
+        int start = 0;
+        while (start < requirements.size()) {
+            // A section is the run of consecutive requirements with the same section name
+            int end = start + 1;
+            long sectionTokens = tokens(requirements.get(start));
+            while (end < requirements.size()
+                    && Objects.equals(requirements.get(end).getSection(), requirements.get(start).getSection())) {
+                sectionTokens += tokens(requirements.get(end++));
+            }
+            if (!chunk.isEmpty() && chunkTokens + sectionTokens > budget) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+                chunkTokens = 0;
+            }
+            chunk.addAll(requirements.subList(start, end));
+            chunkTokens += sectionTokens;
+            start = end;
+        }
+        chunks.add(chunk);
+        return chunks;
+    }
+
+    /**
+     * Estimates the number of tokens of a text.
+     *
+     * @param text text, may be null
+     * @return estimated number of tokens
+     */
+    public long estimate(String text) {
+        return text == null ? 0 : (long) Math.ceil(text.length() / charsPerToken);
+    }
+
+    /**
+     * Merges the answers to the chunks of a regulation into a single answer.
+     * Answers without findings are dropped unless every chunk has answered so.
+     *
+     * @param answers texts of the answers in the order of the chunks
+     * @return one answer in the format of the neural network service
+     */
+    public static String merge(List<String> answers) {
+        StringBuilder merged = new StringBuilder();
+        for (String answer : answers) {
+            if (answer == null || answer.isBlank() || !answer.contains("According to ") && answer.strip().endsWith("Requirements are met")) {
+                continue;
+            }
+            merged.append(answer.strip()).append('\n');
+        }
+        return merged.isEmpty() ? NeuroVerdictStore.REQUIREMENTS_MET : merged.toString();
+    }
+
+    private long tokens(RequirementDto requirement) {
+        return estimate(requirement.getSection()) + estimate(requirement.getRequirement()) + REQUIREMENT_OVERHEAD;
+    }
+}
@@ -0,0 +1,89 @@
+package ru.bonch.szfo2024.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.bonch.szfo2024.dto.RequirementDto;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Service for the lexical pre-filter of requirements, enabled by {@code neuro.prefilter.enabled}.
+ * Requirements of a regulation are ranked against the Use Case text with BM25 and only the best ones
+ * are sent to the neural network, which shrinks the payload and the work of the neural network service.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Slf4j
+@Service
+public class RequirementFilterService {
+
+    private final boolean enabled;
+    private final int topK;
+    private final double minScore;
+    private final double k1;
+    private final double b;
+
+    public RequirementFilterService(@Value("${neuro.prefilter.enabled:false}") boolean enabled,
+                                    @Value("${neuro.prefilter.top-k:40}") int topK,
+                                    @Value("${neuro.prefilter.min-score:0}") double minScore,
+                                    @Value("${neuro.prefilter.k1:1.2}") double k1,
+                                    @Value("${neuro.prefilter.b:0.75}") double b) {
+        this.enabled = enabled;
+        this.topK = topK;
+        this.minScore = minScore;
+        this.k1 = k1;
+        this.b = b;
+    }
+
+    /**
+     * @return true if requirements are filtered before they are sent to the neural network
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Builds the index of the requirements of a regulation.
+     *
+     * @param requirements requirements of the regulation
+     * @return index to pass to {@link #filter}
+     */
+    public RequirementIndex index(List<RequirementDto> requirements) {
+        return new RequirementIndex(requirements, k1, b);
+    }
+
+    /**
+     * Keeps the best {@code neuro.prefilter.top-k} requirements scoring at least {@code neuro.prefilter.min-score}
+     * for any of the Use Cases, in the order of the regulation.
+     * If no requirement shares a term with any Use Case, the ranking says nothing and all of them are kept,
+     * so the neural network still decides. If terms are shared but no requirement reaches the minimum score,
+     * the threshold is respected and nothing is kept.
+     *
+     * @param index    index of the regulation
+     * @param useCases texts of the Use Cases sent together with the requirements
+     * @return requirements to send
+     */
+    public List<RequirementDto> filter(RequirementIndex index, List<String> useCases) {
+        List<RequirementDto> requirements = index.getRequirements();
+        BitSet kept = index.top(useCases, topK, minScore);
+        if (kept.isEmpty()) {
+            if (minScore > 0 && !index.top(useCases, 1, 0).isEmpty()) {
+                log.debug("Pre-filter kept none of {} requirements, none scores at least {}", requirements.size(), minScore);
+                return List.of();
+            }
+            return requirements;
+        }
+        if (kept.cardinality() == requirements.size()) {
+            return requirements;
+        }
+        List<RequirementDto> relevant = new ArrayList<>(kept.cardinality());
+        for (int i = kept.nextSetBit(0); i >= 0; i = kept.nextSetBit(i + 1)) {
+            relevant.add(requirements.get(i));
+        }
+        log.debug("Pre-filter kept {} of {} requirements", relevant.size(), requirements.size());
+        return relevant;
+    }
+}
@@ -0,0 +1,169 @@
+package ru.bonch.szfo2024.service;
+
+import ru.bonch.szfo2024.dto.RequirementDto;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index of the requirements of a regulation ranking them against a Use Case text with Okapi BM25.
+ * Terms are lowercase runs of letters and digits of at least two characters, except common English stop words.
+ * The index is built once per regulation and is safe for concurrent use.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+public class RequirementIndex {
+
+    private static final Set<String> STOP_WORDS = Set.of(
+            "a", "an", "and", "are", "as", "at", "be", "been", "being", "by", "can", "for", "from", "has", "have",
+            "if", "in", "into", "is", "it", "its", "may", "must", "not", "of", "on", "or", "shall", "should", "such",
+            "that", "the", "their", "then", "there", "these", "this", "those", "to", "was", "were", "which", "will",
+            "with", "within", "without");
+
+    private final List<RequirementDto> requirements;
+    private final Map<String, Postings> postings = new HashMap<>(); // Term → requirements containing it
+    private final int[] lengths;                                      // Number of terms of every requirement
+    private final double averageLength;
+    private final double k1;
+    private final double b;
+
+    /**
+     * Builds the index.
+     *
+     * @param requirements requirements of the regulation, indexes of the results refer to positions in this list
+     * @param k1           term frequency saturation
+     * @param b            document length normalization
+     */
+    RequirementIndex(List<RequirementDto> requirements, double k1, double b) {
+        this.requirements = requirements;
+        this.k1 = k1;
+        this.b = b;
+        this.lengths = new int[requirements.size()];
+        long totalLength = 0;
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (int i = 0; i < requirements.size(); i++) {
+            frequencies.clear();
+            List<String> terms = terms(requirements.get(i).getRequirement());
+            for (String term : terms) {
+                frequencies.merge(term, 1, Integer::sum);
+            }
+            for (var frequency : frequencies.entrySet()) {
+                postings.computeIfAbsent(frequency.getKey(), term -> new Postings()).add(i, frequency.getValue());
+            }
+            lengths[i] = terms.size();
+            totalLength += terms.size();
+        }
+        this.averageLength = requirements.isEmpty() ? 0 : Math.max(1.0, (double) totalLength / requirements.size());
+    }
+
+    /**
+     * Scores every requirement against the query with BM25; every distinct query term counts once.
+     *
+     * @param query Use Case text
+     * @return scores by requirement position, zero for requirements without any query term
+     */
+    public double[] score(String query) {
+        double[] scores = new double[requirements.size()];
+        int count = requirements.size();
+        for (String term : new HashSet<>(terms(query))) {
+            Postings termPostings = postings.get(term);
+            if (termPostings == null) {
+                continue;
+            }
+            double idf = Math.log(1 + (count - termPostings.size + 0.5) / (termPostings.size + 0.5));
+            for (int p = 0; p < termPostings.size; p++) {
+                int i = termPostings.requirements[p];
+                int tf = termPostings.frequencies[p];
+                double norm = k1 * (1 - b + b * lengths[i] / averageLength);
+                scores[i] += idf * tf * (k1 + 1) / (tf + norm);
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Selects the best requirements for every query.
+     *
+     * @param queries  Use Case texts
+     * @param topK     maximum number of requirements kept per query
+     * @param minScore minimum score of a kept requirement, requirements without any query term are never kept
+     * @return positions of the requirements kept for any query
+     */
+    public BitSet top(List<String> queries, int topK, double minScore) {
+        BitSet kept = new BitSet(requirements.size());
+        for (String query : queries) {
+            double[] scores = score(query);
+            List<Integer> candidates = new ArrayList<>();
+            for (int i = 0; i < scores.length; i++) {
+                if (scores[i] > 0 && scores[i] >= minScore) {
+                    candidates.add(i);
+                }
+            }
+            candidates.sort((left, right) -> Double.compare(scores[right], scores[left]));
+            candidates.subList(0, Math.min(topK, candidates.size())).forEach(kept::set);
+        }
+        return kept;
+    }
+
+    /**
+     * @return indexed requirements
+     */
+    public List<RequirementDto> getRequirements() {
+        return requirements;
+    }
+
+    /**
+     * Splits the text into lowercase terms.
+     *
+     * @param text text to split, may be null
+     * @return terms in the order of the text
+     */
+    static List<String> terms(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (i - start > 1) {
+                    String term = text.substring(start, i).toLowerCase(Locale.ROOT);
+                    if (!STOP_WORDS.contains(term)) {
+                        terms.add(term);
+                    }
+                }
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Requirements containing a term with the term frequency in each of them, in ascending order of position.
+     */
+    private static final class Postings {
+        private int[] requirements = new int[4];
+        private int[] frequencies = new int[4];
+        private int size;
+
+        void add(int requirement, int frequency) {
+            if (size == requirements.length) {
+                requirements = Arrays.copyOf(requirements, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            requirements[size] = requirement;
+            frequencies[size] = frequency;
+            size++;
+        }
+    }
+}
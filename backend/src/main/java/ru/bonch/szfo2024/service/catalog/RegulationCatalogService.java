@@ -0,0 +1,286 @@
+package ru.bonch.szfo2024.service.catalog;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+import ru.bonch.szfo2024.dto.RequirementDto;
+import ru.bonch.szfo2024.dto.response.RegulationDto;
+import ru.bonch.szfo2024.error.exception.common.BadRequest;
+import ru.bonch.szfo2024.error.exception.common.InternalServerError;
+import ru.bonch.szfo2024.error.exception.common.NotFound;
+import ru.bonch.szfo2024.service.RegulationItemisationService;
+import ru.bonch.szfo2024.service.files.PdfReadService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Catalog of regulations that are uploaded once and referenced by identifier in check requests.
+ * A regulation is parsed and itemised when it is uploaded; its requirements are stored in {@code regulations.catalog.dir}
+ * in a compact binary form and loaded on first use, the most recently used ones are kept in memory.
+ * Only the small descriptions of the regulations are read at startup.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Slf4j
+@Service
+public class RegulationCatalogService {
+    private static final String DESCRIPTION_SUFFIX = ".json";
+    private static final String REQUIREMENTS_SUFFIX = ".requirements.gz";
+
+    private final PdfReadService pdfReadService;
+    private final RegulationItemisationService regulationItemisationService;
+    private final ObjectMapper objectMapper;
+    private final Path dir;
+    private final long maxMemoryBytes;
+
+    private final Map<String, RegulationDto> regulations = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, List<RequirementDto>> loaded = new LinkedHashMap<>(16, 0.75f, true);
+    private long loadedBytes; // guarded by loaded
+
+    public RegulationCatalogService(PdfReadService pdfReadService,
+                                    RegulationItemisationService regulationItemisationService,
+                                    ObjectMapper objectMapper,
+                                    @Value("${regulations.catalog.dir:${java.io.tmpdir}/szfo2024/regulations}") Path dir,
+                                    @Value("${regulations.catalog.memory-max-size:64MB}") DataSize memoryMaxSize) {
+        this.pdfReadService = pdfReadService;
+        this.regulationItemisationService = regulationItemisationService;
+        this.objectMapper = objectMapper;
+        this.dir = dir;
+        this.maxMemoryBytes = memoryMaxSize.toBytes();
+        open();
+    }
+
+    /**
+     * Parses and itemises the uploaded regulation and stores it in the catalog.
+     * Uploading the same PDF again keeps its identifier and only updates its name.
+     *
+     * @param file regulation file (PDF)
+     * @return description of the stored regulation
+     * @throws BadRequest if the file can't be parsed
+     */
+    public RegulationDto ingest(MultipartFile file) {
+        String fileName = file.getOriginalFilename();
+        PdfReadService.PdfText pdf;
+        try {
+            pdf = pdfReadService.read(file);
+        } catch (IOException e) {
+            log.warn("Regulation {} can't be parsed: {}", fileName, e.getMessage());
+            throw new BadRequest("File " + fileName + " can't be parsed as PDF!");
+        }
+        RegulationDto existing = regulations.get(pdf.sha256());
+        List<RequirementDto> requirements = existing != null ? null : regulationItemisationService.itemise(pdf.text());
+        return store(pdf.sha256(), PdfReadService.regulationName(fileName), fileName, pdf.text().length(), requirements);
+    }
+
+    /**
+     * @return descriptions of every regulation of the catalog, ordered by name
+     */
+    public List<RegulationDto> list() {
+        return regulations.values().stream()
+                .sorted(Comparator.comparing(RegulationDto::getName).thenComparing(RegulationDto::getId))
+                .toList();
+    }
+
+    /**
+     * Returns the description of the regulation.
+     *
+     * @param id identifier of the regulation
+     * @return description of the regulation
+     * @throws NotFound if there is no such regulation
+     */
+    public RegulationDto get(String id) {
+        RegulationDto regulation = id == null ? null : regulations.get(id);
+        if (regulation == null) {
+            throw new NotFound("Regulation " + id + " is not found!");
+        }
+        return regulation;
+    }
+
+    /**
+     * Returns the requirements of the regulation, reading them from disk if they are not in memory.
+     *
+     * @param id identifier of the regulation
+     * @return unmodifiable list of the requirements
+     * @throws NotFound if there is no such regulation
+     */
+    public List<RequirementDto> getRequirements(String id) {
+        get(id);
+        synchronized (loaded) {
+            List<RequirementDto> requirements = loaded.get(id);
+            if (requirements != null) {
+                return requirements;
+            }
+        }
+        List<RequirementDto> requirements;
+        try {
+            requirements = List.copyOf(RequirementsFile.read(requirementsFile(id)));
+        } catch (IOException e) {
+            throw new InternalServerError("Requirements of regulation " + id + " can't be read", e);
+        }
+        log.debug("Requirements of regulation {} loaded: {}", id, requirements.size());
+        keepInMemory(id, requirements);
+        return requirements;
+    }
+
+    /**
+     * Removes the regulation from the catalog.
+     *
+     * @param id identifier of the regulation
+     * @throws NotFound if there is no such regulation
+     */
+    public void delete(String id) {
+        RegulationDto regulation = get(id);
+        synchronized (this) {
+            regulations.remove(id);
+            try {
+                Files.deleteIfExists(descriptionFile(id));
+                Files.deleteIfExists(requirementsFile(id));
+            } catch (IOException e) {
+                log.warn("Regulation {} can't be removed from disk: {}", id, e.getMessage());
+            }
+        }
+        synchronized (loaded) {
+            List<RequirementDto> requirements = loaded.remove(id);
+            if (requirements != null) {
+                loadedBytes -= estimatedSize(requirements);
+            }
+        }
+        log.info("Regulation {} ({}) removed from the catalog", regulation.getName(), id);
+    }
+
+    /**
+     * Stores the regulation: the requirements first, then its description, so a listed regulation always has requirements.
+     *
+     * @param id           identifier of the regulation
+     * @param name         regulation name
+     * @param fileName     original name of the PDF file
+     * @param textLength   number of characters of the extracted text
+     * @param requirements requirements of the regulation, null to keep the stored ones
+     * @return description of the stored regulation
+     */
+    synchronized RegulationDto store(String id, String name, String fileName, long textLength, List<RequirementDto> requirements) {
+        RegulationDto existing = regulations.get(id);
+        try {
+            Files.createDirectories(dir);
+            RegulationDto regulation;
+            if (existing == null || requirements != null) {
+                Path tmp = dir.resolve(id + "." + UUID.randomUUID() + ".tmp");
+                RequirementsFile.write(tmp, requirements);
+                long storedBytes = Files.size(tmp);
+                Files.move(tmp, requirementsFile(id), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                regulation = new RegulationDto(id, name, fileName, requirements.size(), textLength, storedBytes, System.currentTimeMillis());
+            } else {
+                regulation = new RegulationDto(id, name, fileName, existing.getRequirements(), existing.getTextLength(),
+                        existing.getStoredBytes(), existing.getCreatedAt());
+            }
+            Path tmp = dir.resolve(id + "." + UUID.randomUUID() + ".tmp");
+            objectMapper.writeValue(tmp.toFile(), regulation);
+            Files.move(tmp, descriptionFile(id), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            regulations.put(id, regulation);
+            if (requirements != null) {
+                synchronized (loaded) {
+                    List<RequirementDto> previous = loaded.remove(id);
+                    if (previous != null) {
+                        loadedBytes -= estimatedSize(previous);
+                    }
+                }
+            }
+            log.info("Regulation {} ({}) stored in the catalog: {} requirements, {} bytes",
+                    name, id, regulation.getRequirements(), regulation.getStoredBytes());
+            return regulation;
+        } catch (IOException e) {
+            throw new InternalServerError("Regulation " + name + " can't be stored", e);
+        }
+    }
+
+    /**
+     * Keeps the requirements in memory and evicts the least recently used ones above the size limit.
+     *
+     * @param id           identifier of the regulation
+     * @param requirements requirements of the regulation
+     */
+    private void keepInMemory(String id, List<RequirementDto> requirements) {
+        long size = estimatedSize(requirements);
+        if (size > maxMemoryBytes) {
+            return; // Never fits, read it from disk every time
+        }
+        synchronized (loaded) {
+            List<RequirementDto> previous = loaded.put(id, requirements);
+            loadedBytes += size;
+            if (previous != null) {
+                loadedBytes -= estimatedSize(previous);
+            }
+            var iterator = loaded.entrySet().iterator();
+            while (loadedBytes > maxMemoryBytes && iterator.hasNext()) {
+                Map.Entry<String, List<RequirementDto>> eldest = iterator.next();
+                loadedBytes -= estimatedSize(eldest.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Reads the descriptions of the stored regulations and removes leftovers of interrupted writes.
+     * The requirements are not read until they are used.
+     */
+    private void open() {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                String fileName = file.getFileName().toString();
+                if (fileName.endsWith(".tmp")) {
+                    Files.deleteIfExists(file);
+                } else if (fileName.endsWith(DESCRIPTION_SUFFIX)) {
+                    try {
+                        RegulationDto regulation = objectMapper.readValue(file.toFile(), RegulationDto.class);
+                        if (Files.exists(requirementsFile(regulation.getId()))) {
+                            regulations.put(regulation.getId(), regulation);
+                        } else {
+                            log.warn("Regulation {} has no stored requirements, skipping it", regulation.getId());
+                        }
+                    } catch (IOException e) {
+                        log.warn("Regulation description {} can't be read: {}", file, e.getMessage());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Regulation catalog {} can't be listed: {}", dir, e.getMessage());
+        }
+        log.info("Regulation catalog {} holds {} regulations", dir, regulations.size());
+    }
+
+    private Path descriptionFile(String id) {
+        return dir.resolve(id + DESCRIPTION_SUFFIX);
+    }
+
+    private Path requirementsFile(String id) {
+        return dir.resolve(id + REQUIREMENTS_SUFFIX);
+    }
+
+    private static long estimatedSize(List<RequirementDto> requirements) {
+        long size = 64;
+        for (RequirementDto requirement : requirements) {
+            size += 2L * (length(requirement.getSection()) + length(requirement.getRequirement())) + 96;
+        }
+        return size;
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+}
@@ -0,0 +1,101 @@
+package ru.bonch.szfo2024.service.catalog;
+
+import ru.bonch.szfo2024.dto.RequirementDto;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compact binary form of itemised requirements: a gzip stream of a header, the number of requirements and
+ * every section and requirement as length-prefixed UTF-8.
+ * Reading it is a sequential decompression without any text parsing.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+final class RequirementsFile {
+
+    private static final int MAGIC = 0x535A5251; // "SZRQ"
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private RequirementsFile() {
+    }
+
+    /**
+     * Writes the requirements to the file, replacing it.
+     *
+     * @param file         file to write
+     * @param requirements requirements to store
+     * @throws IOException if the file can't be written
+     */
+    static void write(Path file, List<RequirementDto> requirements) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(file), BUFFER_SIZE), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(requirements.size());
+            for (RequirementDto requirement : requirements) {
+                writeString(out, requirement.getSection());
+                writeString(out, requirement.getRequirement());
+            }
+        }
+    }
+
+    /**
+     * Reads the requirements from the file.
+     *
+     * @param file file written by {@link #write(Path, List)}
+     * @return requirements in their original order
+     * @throws IOException if the file can't be read or is not a requirements file
+     */
+    static List<RequirementDto> read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(file), BUFFER_SIZE), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw new IOException("Not a requirements file: " + file);
+            }
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Corrupted requirements file: " + file);
+            }
+            List<RequirementDto> requirements = new ArrayList<>(Math.min(count, 4096));
+            for (int i = 0; i < count; i++) {
+                requirements.add(new RequirementDto(readString(in), readString(in)));
+            }
+            return requirements;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length != length) {
+            throw new EOFException("Truncated requirements file");
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
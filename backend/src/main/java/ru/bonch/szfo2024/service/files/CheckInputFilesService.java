@@ -1,9 +1,11 @@
 package ru.bonch.szfo2024.service.files;
 
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 import ru.bonch.szfo2024.error.exception.common.BadRequest;
+import ru.bonch.szfo2024.service.CheckMetrics;
 
 import java.util.List;
 
@@ -13,34 +15,58 @@ import java.util.List;
  */
 @Service
 @Slf4j
+@RequiredArgsConstructor
 public class CheckInputFilesService {
 
+    private final CheckMetrics checkMetrics;
+
     /**
      * Checks the validity of input files for Use Cases and Regulations.
+     * Regulation files may be omitted when regulations of the catalog are referenced by identifier.
      * @param useCaseFiles List of Use Case files (expected to be DOCX)
      * @param regulationFiles List of Regulation files (expected to be PDF)
+     * @param regulationIds List of identifiers of catalog regulations
      * @throws BadRequest if files are missing or have incorrect format
      */
-    public void check(List<MultipartFile> useCaseFiles, List<MultipartFile> regulationFiles) {
+    public void check(List<MultipartFile> useCaseFiles, List<MultipartFile> regulationFiles, List<String> regulationIds) {
+        try (CheckMetrics.Stage ignored = checkMetrics.stage(CheckMetrics.VALIDATION)) {
+            // Check if Use Case files are present
+            if (useCaseFiles == null || useCaseFiles.isEmpty()) {
+                throw new BadRequest("Files DOCX (useCases) are required!");
+            }
 
-        // Check if Use Case files are present
-        if (useCaseFiles == null || useCaseFiles.isEmpty()) {
-            throw new BadRequest("Files DOCX (useCases) are required!");
+            // Check if Regulation files or identifiers are present
+            boolean hasRegulationIds = regulationIds != null && !regulationIds.isEmpty();
+            if (!hasRegulationIds && (regulationFiles == null || regulationFiles.isEmpty())) {
+                throw new BadRequest("Files PDF (regulations) or regulation identifiers (regulationIds) are required!");
+            }
+
+            // Process and validate content type of Use Case files
+            for (MultipartFile file : useCaseFiles) {
+                if (file == null || file.getContentType() == null ||
+                        !file.getContentType().equals("application/vnd.openxmlformats-officedocument.wordprocessingml.document")) {
+                    throw new BadRequest("File " + file.getOriginalFilename() + " is not in DOCX format!");
+                }
+            }
+
+            if (regulationFiles != null) {
+                checkRegulations(regulationFiles);
+            }
         }
+    }
+
+    /**
+     * Checks the validity of Regulation files.
+     * @param regulationFiles List of Regulation files (expected to be PDF)
+     * @throws BadRequest if files are missing or have incorrect format
+     */
+    public void checkRegulations(List<MultipartFile> regulationFiles) {
 
         // Check if Regulation files are present
         if (regulationFiles == null || regulationFiles.isEmpty()) {
             throw new BadRequest("Files PDF (regulations) are required!");
         }
 
-        // Process and validate content type of Use Case files
-        for (MultipartFile file : useCaseFiles) {
-            if (file == null || file.getContentType() == null ||
-                    !file.getContentType().equals("application/vnd.openxmlformats-officedocument.wordprocessingml.document")) {
-                throw new BadRequest("File " + file.getOriginalFilename() + " is not in DOCX format!");
-            }
-        }
-
         // Process and validate content type of Regulation files
         for (MultipartFile file : regulationFiles) {
             if (file == null || file.getContentType() == null ||
@@ -49,4 +75,4 @@ public class CheckInputFilesService {
             }
         }
     }
-}
\ No newline at end of file
+}
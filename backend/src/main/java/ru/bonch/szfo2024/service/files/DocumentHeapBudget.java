@@ -0,0 +1,104 @@
+package ru.bonch.szfo2024.service.files;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import ru.bonch.szfo2024.error.exception.common.ServiceUnavailable;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Global heap budget of the documents being parsed.
+ * Every document reserves its estimated heap usage before parsing and waits in arrival order while the budget is exhausted,
+ * so concurrent uploads of large files are parsed one after another instead of running out of memory.
+ * A reservation larger than the whole budget is reduced to the budget and runs alone.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Slf4j
+@Component
+public class DocumentHeapBudget {
+
+    private static final long UNIT = 1024; // Budget is counted in kilobytes to fit semaphore permits
+
+    private final int totalUnits;
+    private final Semaphore units;
+    private final Duration acquireTimeout;
+
+    public DocumentHeapBudget(@Value("${pdf.ingestion.heap-budget:512MB}") DataSize budget,
+                              @Value("${pdf.ingestion.acquire-timeout:2m}") Duration acquireTimeout) {
+        this.totalUnits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budget.toBytes() / UNIT));
+        this.units = new Semaphore(totalUnits, true);
+        this.acquireTimeout = acquireTimeout;
+    }
+
+    /**
+     * Reserves heap for a document, waiting while the budget is exhausted.
+     * @param bytes estimated heap usage of the document
+     * @return reservation to close when the document is released
+     * @throws ServiceUnavailable if the budget is not available within {@code pdf.ingestion.acquire-timeout}
+     */
+    public Reservation reserve(long bytes) {
+        int requested = toUnits(bytes);
+        try {
+            if (!units.tryAcquire(requested, acquireTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new ServiceUnavailable("Too many documents are being parsed, try again later");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailable("Interrupted while waiting for the document heap budget");
+        }
+        return new Reservation(requested);
+    }
+
+    /**
+     * Reserves heap for a document if the budget is available right now.
+     * @param bytes estimated heap usage of the document
+     * @return reservation to close when the document is released, null if the budget is exhausted
+     */
+    public Reservation tryReserve(long bytes) {
+        int requested = toUnits(bytes);
+        return units.tryAcquire(requested) ? new Reservation(requested) : null;
+    }
+
+    /**
+     * @return total budget in bytes
+     */
+    public long getBudgetBytes() {
+        return totalUnits * UNIT;
+    }
+
+    /**
+     * @return part of the budget not reserved at the moment, in bytes
+     */
+    public long getAvailableBytes() {
+        return units.availablePermits() * UNIT;
+    }
+
+    private int toUnits(long bytes) {
+        return (int) Math.max(1, Math.min(totalUnits, (bytes + UNIT - 1) / UNIT));
+    }
+
+    /**
+     * Reserved part of the budget, returned on close.
+     */
+    public class Reservation implements AutoCloseable {
+        private final int reserved;
+        private boolean closed;
+
+        private Reservation(int reserved) {
+            this.reserved = reserved;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                units.release(reserved);
+            }
+        }
+    }
+}
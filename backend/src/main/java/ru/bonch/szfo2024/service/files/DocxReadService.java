@@ -2,16 +2,31 @@ package ru.bonch.szfo2024.service.files;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.poi.xwpf.usermodel.XWPFDocument;
-import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackageRelationshipCollection;
+import org.apache.poi.openxml4j.opc.PackageRelationshipTypes;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xwpf.usermodel.XWPFRelation;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 import ru.bonch.szfo2024.dto.UseCaseDto;
+import ru.bonch.szfo2024.service.CheckMetrics;
 
+import javax.xml.parsers.ParserConfigurationException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -24,13 +39,16 @@ import java.util.Map;
 @Service
 public class DocxReadService {
 
+    private final UploadSpool uploadSpool;
+    private final CheckMetrics checkMetrics;
+
     /**
      * Extracts Use Cases from a list of DOCX files.
      * @param files List of MultipartFile objects representing DOCX files
      * @return Map of filenames and use case texts with their system name in UseCaseDto object
      */
     public Map<String, UseCaseDto> getUseCases(List<MultipartFile> files) {
-        Map<String, UseCaseDto> filesText = new HashMap<>();
+        Map<String, UseCaseDto> filesText = new LinkedHashMap<>();
 
         for (MultipartFile file : files) {
             // Extract regulations and full text from the DOCX file
@@ -45,60 +63,146 @@ public class DocxReadService {
 
     /**
      * Extracts regulations and full text from a single Use Case DOCX file.
+     * The upload is spooled to a temporary file and {@code word/document.xml} is read as a stream of SAX events,
+     * collecting the text of paragraphs and the system names before "Description" in the same pass.
      * @param file MultipartFile object representing a DOCX file
      * @return List containing the list of regulations and the full text of the Use Case
      */
     private UseCaseDto extractTextAndRegulationsFromUC(MultipartFile file) {
-        StringBuilder ucText = new StringBuilder();
         UseCaseDto response = new UseCaseDto();
-
-        try (InputStream inputStream = file.getInputStream();
-             XWPFDocument doc = new XWPFDocument(inputStream)) {
-
-            // Read paragraphs from .docx
-            for (XWPFParagraph paragraph : doc.getParagraphs()) {
-                ucText.append(paragraph.getText()).append("\n");
+        UseCaseCollector collector;
+
+        Path spooled = null;
+        try (CheckMetrics.Stage ignored = checkMetrics.stage(CheckMetrics.DOCX)) {
+            spooled = uploadSpool.spool(file, ".docx");
+            collector = read(spooled);
+        } catch (IOException | SAXException | OpenXML4JException e) {
+            log.error("Error while reading file: {}", file.getOriginalFilename(), e);
+            collector = new UseCaseCollector(); // Nothing is taken from a file that can't be read completely
+        } finally {
+            if (spooled != null) {
+                uploadSpool.delete(spooled);
             }
-        } catch (IOException e) {
-            System.out.println("Error while reading file: " + file.getOriginalFilename());
-            e.printStackTrace();
         }
 
-        // Extract regulations from the text
-        List<String> regulations = extractRegulationsUntilDescription(ucText.toString());
-
         // Add both the list of regulations and the full text to the response
-        response.setSystemNames(regulations);      // First item: list of regulations
-        response.setText(ucText.toString()); // Second item: full text
+        response.setSystemNames(collector.systemNames); // First item: list of regulations
+        response.setText(collector.text.toString());    // Second item: full text
 
         return response; // Return the list containing both regulations and full text
     }
 
     /**
-     * Extracts a list of texts after each slash ('/') in the input string, up until "Description" is encountered.
-     * The function returns a list of regulations (strings) found after each slash.
-     * @param input The input string to process
-     * @return A list of regulations (strings) found after slashes
+     * Reads the text and the system names of a Use Case from a DOCX file.
+     * @param docx path of the DOCX file
+     * @return collected text and system names
+     */
+    private static UseCaseCollector read(Path docx) throws IOException, SAXException, OpenXML4JException {
+        UseCaseCollector collector = new UseCaseCollector();
+        OPCPackage pkg = OPCPackage.open(docx.toFile(), PackageAccess.READ);
+        try {
+            PackagePart document = mainDocument(pkg);
+            Map<Integer, String> footnotes = readNotes(document, XWPFRelation.FOOTNOTE.getRelation());
+            Map<Integer, String> endnotes = readNotes(document, XWPFRelation.ENDNOTE.getRelation());
+            parse(document, new DocxTextHandler(footnotes, endnotes, (story, paragraph) -> collector.accept(paragraph)));
+        } finally {
+            pkg.revert(); // Closes a package opened for reading without saving it
+        }
+        return collector;
+    }
+
+    /**
+     * Finds the main document part of a DOCX package.
+     * @param pkg opened package
+     * @return part with the document body, usually {@code word/document.xml}
+     * @throws InvalidFormatException if the package has no main document
      */
-    private List<String> extractRegulationsUntilDescription(String input) {
-        List<String> regulations = new ArrayList<>();
-        String[] lines = input.split("\\n");
+    private static PackagePart mainDocument(OPCPackage pkg) throws InvalidFormatException {
+        PackageRelationshipCollection relationships = pkg.getRelationshipsByType(PackageRelationshipTypes.CORE_DOCUMENT);
+        if (relationships.isEmpty()) {
+            throw new InvalidFormatException("No main document part in the package");
+        }
+        PackagePart document = pkg.getPart(relationships.getRelationship(0));
+        if (document == null) {
+            throw new InvalidFormatException("Main document part is missing: " + relationships.getRelationship(0).getTargetURI());
+        }
+        return document;
+    }
 
-        for (String line : lines) {
+    /**
+     * Reads footnotes or endnotes of the document, to expand references to them in the text.
+     * @param document     main document part
+     * @param relationType relationship type of the notes part
+     * @return text of every note by its identifier, paragraphs separated by line breaks
+     */
+    private static Map<Integer, String> readNotes(PackagePart document, String relationType)
+            throws InvalidFormatException, IOException, SAXException {
+        Map<Integer, String> notes = new HashMap<>();
+        PackageRelationshipCollection relationships = document.getRelationshipsByType(relationType);
+        if (relationships.isEmpty()) {
+            return notes;
+        }
+        PackagePart part = document.getRelatedPart(relationships.getRelationship(0));
+        Map<Integer, StringBuilder> texts = new LinkedHashMap<>();
+        parse(part, new DocxTextHandler(Map.of(), Map.of(), (story, paragraph) -> {
+            StringBuilder note = texts.computeIfAbsent(new BigInteger(story).intValue(), id -> new StringBuilder());
+            if (!note.isEmpty()) {
+                note.append('\n');
+            }
+            note.append(paragraph);
+        }));
+        texts.forEach((id, text) -> notes.put(id, text.toString()));
+        return notes;
+    }
+
+    private static void parse(PackagePart part, DocxTextHandler handler) throws IOException, SAXException {
+        try (InputStream inputStream = part.getInputStream()) {
+            XMLReader reader = XMLHelper.newXMLReader();
+            reader.setContentHandler(handler);
+            reader.parse(new InputSource(inputStream));
+        } catch (ParserConfigurationException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    /**
+     * Collects the full text of the Use Case paragraph by paragraph and the system names found before "Description".
+     */
+    private static final class UseCaseCollector {
+        final StringBuilder text = new StringBuilder();
+        final List<String> systemNames = new ArrayList<>();
+        boolean descriptionFound;
+
+        void accept(String paragraph) {
+            text.append(paragraph).append("\n");
+            // Paragraph may hold several lines
+            for (int start = 0; start <= paragraph.length() && !descriptionFound; ) {
+                int end = paragraph.indexOf('\n', start);
+                if (end == -1) {
+                    end = paragraph.length();
+                }
+                acceptLine(paragraph.substring(start, end));
+                start = end + 1;
+            }
+        }
+
+        /**
+         * Takes the text after the first slash ('/') of a line as a system name, until "Description" is encountered.
+         * @param line line of the Use Case text
+         */
+        private void acceptLine(String line) {
             // Check if the line contains "Description"
             if (line.contains("Description")) {
-                break; // Stop processing if "Description" is found
+                descriptionFound = true; // Stop processing if "Description" is found
+                return;
             }
 
             int slashIndex = line.indexOf('/');
             if (slashIndex != -1) {
                 // Extract text after the slash and add it to the list of regulations
-                String textAfterSlash = line.substring(slashIndex + 1).trim();
-                regulations.add(textAfterSlash);
+                systemNames.add(line.substring(slashIndex + 1).trim());
             }
         }
-
-        return regulations; // Return the list of regulations
     }
 
 }
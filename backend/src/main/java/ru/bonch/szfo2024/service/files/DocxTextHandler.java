@@ -0,0 +1,422 @@
+package ru.bonch.szfo2024.service.files;
+
+import org.apache.poi.util.LocaleUtil;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * SAX handler collecting the text of top-level paragraphs of a WordprocessingML part
+ * ({@code word/document.xml}, footnotes or endnotes) without building the document model.
+ * The text of a paragraph is the same as {@code XWPFParagraph.getText()} of POI gives:
+ * runs of hyperlinks, simple fields, smart tags, content controls and tracked changes, tabs and breaks,
+ * check boxes, ruby, text boxes of pictures and references to footnotes and endnotes.
+ * Paragraphs of tables and block-level content controls are skipped, as {@code XWPFDocument.getParagraphs()} does.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+final class DocxTextHandler extends DefaultHandler {
+
+    static final String W = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+
+    private enum Kind {
+        SKIP,           // Element ignored with all its content
+        ROOT,           // document, footnotes or endnotes
+        STORY,          // body, footnote or endnote
+        PARAGRAPH,      // Top-level paragraph
+        CONTAINER,      // Paragraph content: paragraph itself, smart tag or insertion inside a tracked change
+        LINK,           // Hyperlink or simple field, only its runs are read
+        TRACK_CHANGE,   // Insertion, deletion or move: its runs and then its nested insertions
+        SDT,            // Inline content control
+        SDT_CONTENT,    // Content of an inline content control: runs and nested controls
+        RUN,
+        RUN_PROPERTIES,
+        TEXT,           // Text of a run, read as is
+        FIELD_CHAR,     // Beginning of a form field, read for its check boxes
+        FORM_FIELD,
+        CHECK_BOX,
+        RUBY,
+        PICTURE,        // Picture or drawing, read for the text of its text boxes
+        PICTURE_CONTENT,
+        PICTURE_TEXT,
+        OTHER           // Element without text of its own
+    }
+
+    private final Map<Integer, String> footnotes;
+    private final Map<Integer, String> endnotes;
+    private final BiConsumer<String, String> paragraphs;
+
+    private final Deque<Kind> kinds = new ArrayDeque<>();
+    private final Deque<Sink> sinks = new ArrayDeque<>();
+    private final Deque<Sink> deferred = new ArrayDeque<>();
+    private final Deque<SdtContent> controls = new ArrayDeque<>();
+
+    private String story;       // Identifier of the footnote or endnote being read, null in the body
+    private Run run;            // Run being read, null outside runs
+    private Ruby ruby;          // Ruby being read, null outside ruby
+    private StringBuilder text; // Characters of the text element being read
+    private List<Boolean> checkBoxes;
+    private boolean checked;
+    private boolean checkBoxDefaultSeen;
+
+    /**
+     * @param footnotes  text of footnotes by identifier, to expand footnote references
+     * @param endnotes   text of endnotes by identifier, to expand endnote references
+     * @param paragraphs receives the identifier of the footnote or endnote (null in the body) and the text of every paragraph
+     */
+    DocxTextHandler(Map<Integer, String> footnotes, Map<Integer, String> endnotes, BiConsumer<String, String> paragraphs) {
+        this.footnotes = footnotes;
+        this.endnotes = endnotes;
+        this.paragraphs = paragraphs;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+        Kind parent = kinds.peek();
+        String name = W.equals(uri) ? localName : null;
+        Kind kind = parent == Kind.SKIP ? Kind.SKIP : kind(parent, name, attributes);
+        kinds.push(kind);
+        if (kind == Kind.SKIP) {
+            return;
+        }
+        if (run != null && name != null) {
+            startRunContent(parent, kind, name, attributes);
+        }
+
+        switch (kind) {
+            case STORY -> story = attributes.getValue(W, "id");
+            case PARAGRAPH -> sinks.push(new Sink());
+            case TRACK_CHANGE -> deferred.push(new Sink());
+            case CONTAINER -> {
+                if (parent == Kind.TRACK_CHANGE) {
+                    sinks.push(deferred.peek()); // Nested insertions follow the runs of the change
+                }
+            }
+            case SDT -> controls.push(new SdtContent());
+            case RUN -> run = new Run(parent == Kind.SDT_CONTENT);
+            case TEXT, PICTURE_TEXT -> text = new StringBuilder();
+            case FIELD_CHAR -> checkBoxes = new ArrayList<>();
+            case CHECK_BOX -> {
+                checked = false;
+                checkBoxDefaultSeen = false;
+            }
+            case RUBY -> ruby = new Ruby();
+            default -> {
+            }
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        if (text != null) {
+            text.append(ch, start, length);
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+        Kind kind = kinds.pop();
+        switch (kind) {
+            case PARAGRAPH -> {
+                Sink sink = sinks.pop();
+                paragraphs.accept(story, sink.text.append(sink.notes).toString());
+            }
+            case CONTAINER -> {
+                if (kinds.peek() == Kind.TRACK_CHANGE) {
+                    sinks.pop();
+                }
+            }
+            case TRACK_CHANGE -> sinks.peek().append(deferred.pop());
+            case SDT -> {
+                String content = controls.pop().text.toString();
+                if (controls.isEmpty()) {
+                    sinks.peek().text.append(content);
+                } else {
+                    controls.peek().add(content, true);
+                }
+            }
+            case RUN -> endRun();
+            case TEXT -> {
+                String value = text.toString();
+                text = null;
+                appendText(run.capitalized ? value.toUpperCase(LocaleUtil.getUserLocale()) : value);
+            }
+            case PICTURE_TEXT -> {
+                if (!text.isEmpty()) {
+                    if (!run.picture.isEmpty()) {
+                        run.picture.append('\n');
+                    }
+                    run.picture.append(text);
+                }
+                text = null;
+            }
+            case CHECK_BOX -> checkBoxes.add(checked);
+            case FIELD_CHAR -> {
+                for (Boolean box : checkBoxes) {
+                    appendText(box ? "|X|" : "|_|");
+                }
+                checkBoxes = null;
+            }
+            case RUBY -> ruby = null;
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Decides how an element is read from its parent and name.
+     * @param parent     kind of the parent element, null for the root
+     * @param name       local name of the element, null if it is not a WordprocessingML element
+     * @param attributes attributes of the element
+     * @return kind of the element
+     */
+    private Kind kind(Kind parent, String name, Attributes attributes) {
+        if (parent == null) {
+            return "document".equals(name) || "footnotes".equals(name) || "endnotes".equals(name) ? Kind.ROOT : Kind.SKIP;
+        }
+        switch (parent) {
+            case PICTURE, PICTURE_CONTENT, PICTURE_TEXT -> {
+                return "t".equals(name) ? Kind.PICTURE_TEXT : Kind.PICTURE_CONTENT;
+            }
+            case RUN_PROPERTIES, CHECK_BOX -> {
+                return Kind.OTHER;
+            }
+            case FIELD_CHAR -> {
+                return "ffData".equals(name) ? Kind.FORM_FIELD : Kind.OTHER;
+            }
+            case FORM_FIELD -> {
+                return "checkBox".equals(name) ? Kind.CHECK_BOX : Kind.OTHER;
+            }
+            default -> {
+            }
+        }
+        if (ruby != null) {
+            return name == null ? Kind.OTHER : runChild(name, attributes); // Every descendant of ruby is read as a child of the run
+        }
+        if (name == null) {
+            return Kind.SKIP;
+        }
+        return switch (parent) {
+            case ROOT -> name.equals("body") || name.equals("footnote") || name.equals("endnote") ? Kind.STORY : Kind.SKIP;
+            case STORY -> name.equals("p") ? Kind.PARAGRAPH : Kind.SKIP;
+            case PARAGRAPH, CONTAINER -> switch (name) {
+                case "r" -> Kind.RUN;
+                case "hyperlink", "fldSimple" -> Kind.LINK;
+                case "sdt" -> Kind.SDT;
+                case "ins", "del", "moveFrom", "moveTo" -> Kind.TRACK_CHANGE;
+                case "smartTag" -> Kind.CONTAINER;
+                default -> Kind.SKIP;
+            };
+            case LINK -> name.equals("r") ? Kind.RUN : Kind.SKIP;
+            case TRACK_CHANGE -> switch (name) {
+                case "r" -> Kind.RUN;
+                case "ins" -> Kind.CONTAINER;
+                default -> Kind.SKIP;
+            };
+            case SDT -> name.equals("sdtContent") ? Kind.SDT_CONTENT : Kind.SKIP;
+            case SDT_CONTENT -> switch (name) {
+                case "r" -> Kind.RUN;
+                case "sdt" -> Kind.SDT;
+                default -> Kind.SKIP;
+            };
+            case RUN -> runChild(name, attributes);
+            default -> Kind.SKIP;
+        };
+    }
+
+    /**
+     * Decides how a child of a run is read; inside ruby the same rules apply to every descendant.
+     */
+    private Kind runChild(String name, Attributes attributes) {
+        return switch (name) {
+            case "rPr" -> ruby != null ? Kind.OTHER : Kind.RUN_PROPERTIES;
+            case "t", "delText", "delInstrText" -> Kind.TEXT;
+            case "fldChar" -> "begin".equals(attributes.getValue(W, "fldCharType")) ? Kind.FIELD_CHAR : Kind.OTHER;
+            case "ruby" -> ruby != null ? Kind.OTHER : Kind.RUBY;
+            case "pict", "drawing" -> ruby != null ? Kind.OTHER : Kind.PICTURE;
+            default -> Kind.OTHER;
+        };
+    }
+
+    /**
+     * Reads elements of a run without content of their own: properties, tabs, breaks and note references.
+     * @param parent kind of the parent element
+     * @param kind   kind of the element
+     * @param name   local name of the element
+     * @param attributes attributes of the element
+     */
+    private void startRunContent(Kind parent, Kind kind, String name, Attributes attributes) {
+        switch (parent) {
+            case RUN -> {
+                if (name.equals("delText")) {
+                    run.deleted = true;
+                }
+            }
+            case RUN_PROPERTIES -> {
+                if (name.equals("caps") && !run.capsSeen) {
+                    run.capsSeen = true;
+                    run.capitalized |= isOn(attributes, true);
+                } else if (name.equals("smallCaps") && !run.smallCapsSeen) {
+                    run.smallCapsSeen = true;
+                    run.capitalized |= isOn(attributes, true);
+                }
+                return;
+            }
+            case CHECK_BOX -> {
+                if (name.equals("default") && !checkBoxDefaultSeen) {
+                    checkBoxDefaultSeen = true;
+                    checked = isOn(attributes, false);
+                }
+                return;
+            }
+            case FIELD_CHAR, FORM_FIELD, PICTURE, PICTURE_CONTENT, PICTURE_TEXT -> {
+                return;
+            }
+            default -> {
+                if (ruby == null) {
+                    return;
+                }
+                if (name.equals("rt")) {
+                    ruby.inText = true;
+                    return;
+                }
+                if (name.equals("rubyBase")) {
+                    ruby.inText = false;
+                    ruby.inBase = true;
+                    return;
+                }
+            }
+        }
+        if (kind != Kind.OTHER) {
+            return;
+        }
+        switch (name) {
+            case "tab", "ptab" -> appendText("\t");
+            case "br", "cr" -> appendText("\n");
+            case "footnoteReference", "endnoteReference" -> {
+                boolean footnote = name.equals("footnoteReference");
+                BigInteger id = new BigInteger(attributes.getValue(W, "id"));
+                appendText((footnote ? "[footnoteRef:" : "[endnoteRef:") + id.intValue() + "]");
+                if (parent == Kind.RUN && !run.inControl) {
+                    run.notes.add(new NoteReference(footnote, id));
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Appends text read from a run element to the run, or to its ruby base and phonetic guide.
+     */
+    private void appendText(String value) {
+        if (ruby == null) {
+            run.text.append(value);
+            return;
+        }
+        if (ruby.inText) {
+            run.phonetic.append(value);
+        }
+        if (ruby.inBase) {
+            run.text.append(value);
+        }
+    }
+
+    /**
+     * Adds the text of a finished run to its paragraph or content control, the same way {@code XWPFRun.toString()} gives it.
+     */
+    private void endRun() {
+        Run finished = run;
+        run = null;
+        StringBuilder phonetic = finished.phonetic;
+        if (!finished.picture.isEmpty()) {
+            phonetic.append('\n').append(finished.picture).append('\n');
+        }
+        String value = phonetic.isEmpty() ? finished.text.toString() : finished.text + " (" + phonetic + ")";
+        if (finished.inControl) {
+            controls.peek().add(value, false);
+            return;
+        }
+        Sink sink = sinks.peek();
+        if (!finished.deleted) {
+            sink.text.append(value);
+        }
+        for (NoteReference reference : finished.notes) {
+            String note = (reference.footnote ? footnotes : endnotes).get(reference.id.intValue());
+            sink.notes.append(" [").append(reference.id).append(": ")
+                    .append(note != null ? note : "!!! End note with ID \"" + reference.id + "\" not found in document.")
+                    .append("] ");
+        }
+    }
+
+    /**
+     * Reads an on/off property the way POI does: missing value means "on" only for run properties.
+     */
+    private static boolean isOn(Attributes attributes, boolean missingIsOn) {
+        String value = attributes.getValue(W, "val");
+        if (value == null) {
+            return missingIsOn;
+        }
+        return value.equalsIgnoreCase("true") || value.equalsIgnoreCase("on") || value.equalsIgnoreCase("x") || value.equals("1");
+    }
+
+    /**
+     * Text of a paragraph, or of the nested insertions of a tracked change appended after its runs.
+     */
+    private static final class Sink {
+        final StringBuilder text = new StringBuilder();
+        final StringBuilder notes = new StringBuilder(); // Expanded footnotes and endnotes, appended at the end of the paragraph
+
+        void append(Sink other) {
+            text.append(other.text);
+            notes.append(other.notes);
+        }
+    }
+
+    /**
+     * Text of an inline content control: runs are joined as is, nested controls are followed by a line break.
+     */
+    private static final class SdtContent {
+        final StringBuilder text = new StringBuilder();
+        boolean afterControl;
+
+        void add(String value, boolean control) {
+            if (afterControl) {
+                text.append('\n');
+            }
+            text.append(value);
+            afterControl = control;
+        }
+    }
+
+    private static final class Run {
+        final boolean inControl; // Runs of content controls are never skipped as deleted and don't expand notes
+        final StringBuilder text = new StringBuilder();
+        final StringBuilder phonetic = new StringBuilder();
+        final StringBuilder picture = new StringBuilder();
+        final List<NoteReference> notes = new ArrayList<>();
+        boolean deleted;
+        boolean capitalized;
+        boolean capsSeen;
+        boolean smallCapsSeen;
+
+        Run(boolean inControl) {
+            this.inControl = inControl;
+        }
+    }
+
+    private static final class Ruby {
+        boolean inText; // Inside the phonetic guide
+        boolean inBase; // Inside or after the base text
+    }
+
+    private record NoteReference(boolean footnote, BigInteger id) {
+    }
+}
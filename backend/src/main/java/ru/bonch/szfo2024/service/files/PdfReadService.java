@@ -2,16 +2,34 @@ package ru.bonch.szfo2024.service.files;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.text.PDFTextStripper;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.multipart.MultipartFile;
+import ru.bonch.szfo2024.service.CheckMetrics;
+import ru.bonch.szfo2024.trace.PdfPageEvent;
+import ru.bonch.szfo2024.util.Hashes;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
 /**
  * Service for reading and processing PDF files containing regulations.
@@ -21,7 +39,38 @@ import java.util.Map;
 @Slf4j
 @RequiredArgsConstructor
 public class PdfReadService {
+    /// Regular expressions for removing specific lines
+    private static final Pattern[] PATTERNS_TO_REMOVE = {
+            Pattern.compile(".*This document has been prepared.*"),  // Remove line containing "This document has been prepared"
+            Pattern.compile(".*Internal Use Only.*"),                // Remove line containing "Internal Use Only"
+            Pattern.compile(".*UNECE.*"),                            // Remove line containing "UNECE"
+            Pattern.compile(".*ГОСТ.*")                              // Remove line containing "ГОСТ"
+    };
+
+    // Regular expression to find the first Roman numeral
+    private static final Pattern ROMAN_NUMERALS = Pattern.compile("\\b[IVXLCDM]+\\b");  // Roman numerals I, V, X, L, C, D, M
+
+    // Regular expression to find the first Arabic number
+    private static final Pattern ARABIC_NUMBERS = Pattern.compile("\\b\\d+\\b");      // Sequence of one or more digits
+
     private final RestTemplate restTemplate;
+    private final PdfTextCache pdfTextCache;
+    private final ExecutorService pdfExecutor;
+    private final DocumentHeapBudget documentHeapBudget;
+    private final UploadSpool uploadSpool;
+    private final CheckMetrics checkMetrics;
+
+    @Value("${pdf.extraction.parallelism:0}")
+    private int parallelism;
+
+    @Value("${pdf.extraction.parallel-min-pages:64}")
+    private int parallelMinPages;
+
+    @Value("${pdf.ingestion.buffer:mixed}")
+    private String buffer;
+
+    @Value("${pdf.ingestion.max-document-heap:64MB}")
+    private DataSize maxDocumentHeap;
 
 
     /**
@@ -30,72 +79,258 @@ public class PdfReadService {
      * @return Map of regulation names to their extracted content
      */
     public Map<String, String> uploadFiles(List<MultipartFile> files) {
-        Map<String, String> filesText = new HashMap<String, String>();
+        Map<String, String> filesText = new LinkedHashMap<>();
         for (MultipartFile file : files) {
-            String fileName = file.getOriginalFilename();
-            // Remove suffix "_ENG.pdf" or "_EN.pdf" using regex
-            String baseName = fileName.replaceAll("_[A-Z]{2,3}\\.pdf$", "");
-            String regulationName = baseName.replace("_", " ");
-
-            filesText.put(regulationName, uploadFile(file));
+            filesText.put(regulationName(file.getOriginalFilename()), uploadFile(file));
         }
         return filesText;
     }
 
+    /**
+     * Builds the regulation name from the name of its file.
+     * @param fileName Original name of the PDF file, e.g. "Cyber_Security_ENG.pdf"
+     * @return Regulation name, e.g. "Cyber Security"
+     */
+    public static String regulationName(String fileName) {
+        // Remove suffix "_ENG.pdf" or "_EN.pdf" using regex
+        String baseName = fileName.replaceAll("_[A-Z]{2,3}\\.pdf$", "");
+        return baseName.replace("_", " ");
+    }
+
     /**
      * Processes a single PDF file and extracts its content with specific formatting rules.
+     * A file that can't be read or parsed results in an empty text.
      * @param file MultipartFile object representing a PDF file
      * @return Extracted and formatted content of the PDF file
      */
     private String uploadFile(MultipartFile file) {
+        try {
+            return read(file).text();
+        } catch (IOException e) {
+            log.error("Error while reading file: {}", file.getOriginalFilename(), e);
+            return "";
+        }
+    }
 
-        StringBuilder text = new StringBuilder(); // Для хранения итогового текста
+    /**
+     * Reads a single PDF file and extracts its content with specific formatting rules.
+     * The upload is spooled to a temporary file first and parsed from it, so the whole file is never held in heap.
+     * The text of a PDF already parsed before is taken from the cache by SHA-256 of the file.
+     * The whole read is timed as the {@link CheckMetrics#PDF} stage.
+     * @param file MultipartFile object representing a PDF file
+     * @return SHA-256 of the file and its extracted content
+     * @throws IOException if the file can't be read or parsed
+     */
+    public PdfText read(MultipartFile file) throws IOException {
+        try (CheckMetrics.Stage ignored = checkMetrics.stage(CheckMetrics.PDF)) {
+            Path spooled = uploadSpool.spool(file, ".pdf");
+            try {
+                String sha256;
+                try (InputStream inputStream = Files.newInputStream(spooled)) {
+                    sha256 = Hashes.sha256(inputStream);
+                }
+
+                String text = pdfTextCache.get(sha256);
+                if (text != null) {
+                    log.debug("Text of {} is taken from cache ({})", file.getOriginalFilename(), sha256);
+                    return new PdfText(sha256, text);
+                }
+                text = extractText(spooled, file.getOriginalFilename());
+                pdfTextCache.put(sha256, text);
+                return new PdfText(sha256, text);
+            } finally {
+                uploadSpool.delete(spooled);
+            }
+        }
+    }
+
+    /**
+     * Extracts content of a single PDF file with specific formatting rules.
+     * The document is walked once, every page is cleaned as soon as the text engine finishes it.
+     * Documents of at least {@code pdf.extraction.parallel-min-pages} pages are split into page ranges
+     * extracted in parallel, each from its own copy of the document.
+     * Every opened copy holds a reservation of the document heap budget; additional copies are opened only
+     * while the budget allows it, otherwise fewer ranges are used.
+     * @param pdf      path of the PDF file
+     * @param fileName original name of the file, used in logs
+     * @return Extracted and formatted content of the PDF file
+     * @throws IOException if the file can't be read or parsed
+     */
+    private String extractText(Path pdf, String fileName) throws IOException {
+        long fileSize = Files.size(pdf);
+        long heapEstimate = heapEstimate(fileSize);
+        try (DocumentHeapBudget.Reservation reservation = documentHeapBudget.reserve(heapEstimate);
+             PDDocument document = PDDocument.load(pdf.toFile(), memoryUsageSetting())) {
+            int numberOfPages = document.getNumberOfPages();
+            checkMetrics.pages(numberOfPages);
+            int maxRanges = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+            int ranges = Math.min(maxRanges, numberOfPages / Math.max(1, parallelMinPages));
+            List<DocumentHeapBudget.Reservation> copies = new ArrayList<>();
+            while (copies.size() < ranges - 1) {
+                DocumentHeapBudget.Reservation copy = documentHeapBudget.tryReserve(heapEstimate);
+                if (copy == null) {
+                    break;
+                }
+                copies.add(copy);
+            }
+            ranges = copies.size() + 1;
+            if (ranges < 2) {
+                return extractPages(document, 1, numberOfPages, fileName, fileSize);
+            }
 
-        /// Regular expressions for removing specific lines
-        String[] patternsToRemove = {
-                ".*This document has been prepared.*",  // Remove line containing "This document has been prepared"
-                ".*Internal Use Only.*",                // Remove line containing "Internal Use Only"
-                ".*UNECE.*",                            // Remove line containing "UNECE"
-                ".*ГОСТ.*"                              // Remove line containing "ГОСТ"
+            // Split pages into ranges, the first range is extracted on the calling thread from the opened document
+            int rangeSize = (numberOfPages + ranges - 1) / ranges;
+            List<CompletableFuture<String>> rest = new ArrayList<>();
+            try {
+                for (int startPage = 1 + rangeSize; startPage <= numberOfPages; startPage += rangeSize) {
+                    int first = startPage;
+                    int last = Math.min(numberOfPages, startPage + rangeSize - 1);
+                    rest.add(CompletableFuture.supplyAsync(() -> {
+                        try (PDDocument copy = PDDocument.load(pdf.toFile(), memoryUsageSetting())) {
+                            return extractPages(copy, first, last, fileName, fileSize);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }, pdfExecutor));
+                }
+                log.debug("Extracting {} pages of {} in {} ranges", numberOfPages, fileName, rest.size() + 1);
+
+                StringBuilder text = new StringBuilder(extractPages(document, 1, rangeSize, fileName, fileSize));
+                for (CompletableFuture<String> range : rest) {
+                    text.append(range.join());
+                }
+                return text.toString();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof UncheckedIOException io) {
+                    throw io.getCause();
+                }
+                throw e;
+            } finally {
+                // Copies are released only when every range has finished with its document
+                CompletableFuture.allOf(rest.toArray(CompletableFuture[]::new)).exceptionally(e -> null).join();
+                copies.forEach(DocumentHeapBudget.Reservation::close);
+            }
+        }
+    }
+
+    /**
+     * Estimates the heap used by an opened document: the size of the file, limited by the main memory
+     * PDFBox may use for its buffers, as the rest goes to a scratch file.
+     * @param fileSize size of the PDF file
+     * @return estimated heap usage in bytes
+     */
+    private long heapEstimate(long fileSize) {
+        return "memory".equals(buffer) ? fileSize : Math.min(fileSize, maxDocumentHeap.toBytes());
+    }
+
+    /**
+     * Creates the buffering settings of a document according to {@code pdf.ingestion.buffer}:
+     * {@code mixed} keeps up to {@code pdf.ingestion.max-document-heap} in heap and the rest in a scratch file,
+     * {@code temp-file} keeps all buffers in a scratch file, {@code memory} keeps everything in heap.
+     * @return new buffering settings, scratch files are created next to the spooled uploads
+     */
+    private MemoryUsageSetting memoryUsageSetting() {
+        MemoryUsageSetting setting = switch (buffer) {
+            case "memory" -> MemoryUsageSetting.setupMainMemoryOnly();
+            case "temp-file" -> MemoryUsageSetting.setupTempFileOnly();
+            case "mixed" -> MemoryUsageSetting.setupMixed(maxDocumentHeap.toBytes());
+            default -> throw new IllegalStateException("Unknown pdf.ingestion.buffer: " + buffer + ", expected mixed, temp-file or memory");
         };
+        return setting.setTempDir(uploadSpool.getDirectory().toFile());
+    }
+
+    /**
+     * Extracts and cleans the text of a range of pages in a single pass of the text engine.
+     * Every page is recorded as a {@link PdfPageEvent} when Flight Recorder is recording.
+     * @param document  PDF document
+     * @param firstPage number of the first page, starting from 1
+     * @param lastPage  number of the last page, inclusive
+     * @param fileName  original name of the file, recorded in the page events
+     * @param fileSize  size of the file, recorded in the page events
+     * @return cleaned text of the pages, every non-empty page ends with a line break
+     * @throws IOException if the document can't be parsed
+     */
+    private static String extractPages(PDDocument document, int firstPage, int lastPage, String fileName, long fileSize) throws IOException {
+        StringBuilder text = new StringBuilder(); // Для хранения итогового текста
+        PageTextStripper stripper = new PageTextStripper(fileName, fileSize, pageText -> {
+            // If the page text is not empty, continue processing
+            if (!pageText.isEmpty()) {
+                // Add the processed text to the overall result
+                text.append(cleanPage(pageText).trim()).append("\n");
+            }
+        });
+        stripper.setStartPage(firstPage);
+        stripper.setEndPage(lastPage);
+        stripper.writeText(document, stripper.getPageBuffer());
+        return text.toString();
+    }
 
-        // Regular expression to find the first Roman numeral
-        String romanNumerals = "\\b[IVXLCDM]+\\b";  // Roman numerals I, V, X, L, C, D, M
+    /**
+     * Removes page decorations: the first line matching each of the patterns to remove,
+     * then the first Roman numeral and the first Arabic number.
+     * @param pageText text of a page
+     * @return cleaned text of the page
+     */
+    private static String cleanPage(String pageText) {
+        // Remove lines matching the patterns
+        for (Pattern pattern : PATTERNS_TO_REMOVE) {
+            pageText = pattern.matcher(pageText).replaceFirst(""); // Remove only the first occurrence
+        }
 
-        // Regular expression to find the first Arabic number
-        String arabicNumbers = "\\b\\d+\\b";        // Sequence of one or more digits
+        // Remove the first encountered Roman numeral
+        pageText = ROMAN_NUMERALS.matcher(pageText).replaceFirst("");
 
-        try (PDDocument document = PDDocument.load(file.getInputStream())) {
-            PDFTextStripper stripper = new PDFTextStripper();
-            int numberOfPages = document.getNumberOfPages();
+        // Remove the first encountered Arabic number (sequence of digits)
+        return ARABIC_NUMBERS.matcher(pageText).replaceFirst("");
+    }
 
-            // Process each page of the PDF file
-            for (int pageNum = 1; pageNum <= numberOfPages; pageNum++) {
-                stripper.setStartPage(pageNum);
-                stripper.setEndPage(pageNum);
-                String pageText = stripper.getText(document);
+    /**
+     * Text stripper passing the text of every page to a consumer as soon as the page is finished.
+     * The page buffer must be used as the output of {@link #writeText}, it holds the text of the current page only.
+     */
+    private static class PageTextStripper extends PDFTextStripper {
+        private final StringWriter pageBuffer = new StringWriter();
+        private final String fileName;
+        private final long fileSize;
+        private final Consumer<String> onPage;
+        private PdfPageEvent event;
 
-                // If the page text is not empty, continue processing
-                if (pageText != null && !pageText.isEmpty()) {
-                    // Remove lines matching the patterns
-                    for (String pattern : patternsToRemove) {
-                        pageText = pageText.replaceFirst(pattern, ""); // Remove only the first occurrence
-                    }
+        PageTextStripper(String fileName, long fileSize, Consumer<String> onPage) throws IOException {
+            this.fileName = fileName;
+            this.fileSize = fileSize;
+            this.onPage = onPage;
+        }
 
-                    // Remove the first encountered Roman numeral
-                    pageText = pageText.replaceFirst(romanNumerals, "");
+        StringWriter getPageBuffer() {
+            return pageBuffer;
+        }
 
-                    // Remove the first encountered Arabic number (sequence of digits)
-                    pageText = pageText.replaceFirst(arabicNumbers, "");
+        @Override
+        protected void startPage(PDPage page) {
+            pageBuffer.getBuffer().setLength(0);
+            event = new PdfPageEvent();
+            event.begin();
+        }
 
-                    // Add the processed text to the overall result
-                    text.append(pageText.trim()).append("\n");
-                }
+        @Override
+        protected void endPage(PDPage page) {
+            onPage.accept(pageBuffer.toString());
+            if (event.shouldCommit()) {
+                event.fileName = fileName;
+                event.fileSize = fileSize;
+                event.page = getCurrentPageNo();
+                event.pages = document.getNumberOfPages();
+                event.textLength = pageBuffer.getBuffer().length();
+                event.commit();
             }
-
-        } catch (IOException e) {
-            e.printStackTrace();
         }
-        return text.toString();
+    }
+
+    /**
+     * Text extracted from a PDF file.
+     * @param sha256 SHA-256 of the file content
+     * @param text   Extracted and formatted content of the file
+     */
+    public record PdfText(String sha256, String text) {
     }
 }
@@ -0,0 +1,59 @@
+package ru.bonch.szfo2024.service.files;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
+import ru.bonch.szfo2024.cache.TwoTierCache;
+import ru.bonch.szfo2024.dto.response.CacheStatsDto;
+
+import java.nio.file.Path;
+
+/**
+ * Cache of cleaned text extracted from regulation PDFs, keyed by SHA-256 of the file content.
+ * A repeated upload of the same PDF skips parsing entirely.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Component
+public class PdfTextCache {
+
+    private final boolean enabled;
+    private final TwoTierCache cache;
+
+    public PdfTextCache(@Value("${pdf.cache.enabled:true}") boolean enabled,
+                        @Value("${pdf.cache.memory-max-size:64MB}") DataSize memoryMaxSize,
+                        @Value("${pdf.cache.disk-dir:}") String diskDir,
+                        @Value("${pdf.cache.disk-max-size:1GB}") DataSize diskMaxSize) {
+        this.enabled = enabled;
+        this.cache = new TwoTierCache("pdf-text", memoryMaxSize.toBytes(),
+                enabled && StringUtils.hasText(diskDir) ? Path.of(diskDir) : null, diskMaxSize.toBytes(), null);
+    }
+
+    /**
+     * Returns cached text of the PDF.
+     * @param sha256 SHA-256 of the PDF file
+     * @return extracted text or null if the PDF has not been parsed yet
+     */
+    public String get(String sha256) {
+        return enabled ? cache.get(sha256) : null;
+    }
+
+    /**
+     * Stores extracted text of the PDF.
+     * @param sha256 SHA-256 of the PDF file
+     * @param text   extracted and cleaned text
+     */
+    public void put(String sha256, String text) {
+        if (enabled) {
+            cache.put(sha256, text);
+        }
+    }
+
+    /**
+     * @return statistics of the cache
+     */
+    public CacheStatsDto stats() {
+        return cache.stats();
+    }
+}
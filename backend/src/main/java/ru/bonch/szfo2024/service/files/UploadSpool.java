@@ -0,0 +1,65 @@
+package ru.bonch.szfo2024.service.files;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Temporary files of uploaded documents, so they are parsed from disk instead of heap.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Slf4j
+@Component
+public class UploadSpool {
+
+    private final Path directory;
+
+    public UploadSpool(@Value("${pdf.ingestion.temp-dir:${java.io.tmpdir}/szfo2024/ingest}") Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Moves the upload to a temporary file in {@code pdf.ingestion.temp-dir}.
+     * Uploads stored on disk by the servlet container are moved without copying; the upload can't be read afterwards.
+     * @param file   uploaded file
+     * @param suffix suffix of the temporary file, e.g. {@code .pdf}
+     * @return path of the temporary file, to be removed with {@link #delete(Path)}
+     * @throws IOException if the file can't be written
+     */
+    public Path spool(MultipartFile file, String suffix) throws IOException {
+        Files.createDirectories(directory);
+        Path spooled = Files.createTempFile(directory, "upload-", suffix);
+        try {
+            file.transferTo(spooled.toFile());
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(spooled);
+            throw e;
+        }
+        return spooled;
+    }
+
+    /**
+     * Removes a temporary file, logging instead of failing if it can't be removed.
+     * @param spooled path returned by {@link #spool(MultipartFile, String)}
+     */
+    public void delete(Path spooled) {
+        try {
+            Files.deleteIfExists(spooled);
+        } catch (IOException e) {
+            log.warn("Can't remove spooled upload {}: {}", spooled, e.getMessage());
+        }
+    }
+
+    /**
+     * @return directory of the temporary files, also used for scratch files of the parsers
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+}
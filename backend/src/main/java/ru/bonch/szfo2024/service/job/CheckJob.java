@@ -0,0 +1,86 @@
+package ru.bonch.szfo2024.service.job;
+
+import lombok.Getter;
+import ru.bonch.szfo2024.dto.CheckPairDto;
+import ru.bonch.szfo2024.dto.response.CheckJobDto;
+import ru.bonch.szfo2024.dto.response.CheckJobStatus;
+import ru.bonch.szfo2024.dto.response.RegulationResponseDto;
+import ru.bonch.szfo2024.service.CheckPipelineService;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory state of a check job.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Getter
+class CheckJob {
+    private final String id;
+    private final long createdAt;
+    private final Path dir; // Directory holding the input and the checkpointed results
+    private final Map<CheckPairDto, RegulationResponseDto> results = new ConcurrentHashMap<>();
+    private final AtomicInteger failed = new AtomicInteger();
+    private volatile CheckPipelineService.Plan plan; // Null while the input files are being prepared
+    private volatile String error;                   // Reason the preparation has failed
+    private volatile long finishedAt;                // Time the job has finished, epoch millis, 0 while it is unfinished
+
+    CheckJob(String id, long createdAt, Path dir) {
+        this.id = id;
+        this.createdAt = createdAt;
+        this.dir = dir;
+    }
+
+    /**
+     * Sets the plan of the prepared job.
+     *
+     * @param plan plan of the check
+     */
+    void start(CheckPipelineService.Plan plan) {
+        this.plan = plan;
+    }
+
+    /**
+     * Marks the job as failed to prepare.
+     *
+     * @param error reason of the failure
+     */
+    void fail(String error) {
+        this.error = error;
+        finish(System.currentTimeMillis());
+    }
+
+    /**
+     * Marks the job as finished, so it expires after the retention period.
+     *
+     * @param finishedAt time the job has finished, epoch millis
+     */
+    void finish(long finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+
+    /**
+     * @return true if every pair has a result or the preparation has failed
+     */
+    boolean isFinished() {
+        return finishedAt > 0;
+    }
+
+    /**
+     * @return current state of the job
+     */
+    CheckJobDto toDto() {
+        CheckPipelineService.Plan plan = this.plan;
+        if (error != null || plan == null) {
+            return new CheckJobDto(id, error != null ? CheckJobStatus.FAILED : CheckJobStatus.PREPARING,
+                    0, 0, 0, createdAt, error);
+        }
+        int total = plan.getPairs().size();
+        int done = results.size();
+        return new CheckJobDto(id, done >= total ? CheckJobStatus.DONE : CheckJobStatus.RUNNING,
+                done, failed.get(), total, createdAt, null);
+    }
+}
@@ -0,0 +1,385 @@
+package ru.bonch.szfo2024.service.job;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.multipart.MultipartFile;
+import ru.bonch.szfo2024.dto.CheckJobInputDto;
+import ru.bonch.szfo2024.dto.CheckJobRequestDto;
+import ru.bonch.szfo2024.dto.CheckJobResultDto;
+import ru.bonch.szfo2024.dto.CheckPairDto;
+import ru.bonch.szfo2024.dto.RequirementDto;
+import ru.bonch.szfo2024.dto.response.CheckJobDto;
+import ru.bonch.szfo2024.dto.response.RegulationResponseDto;
+import ru.bonch.szfo2024.dto.response.UcResponseDto;
+import ru.bonch.szfo2024.error.exception.common.BadRequest;
+import ru.bonch.szfo2024.error.exception.common.InternalServerError;
+import ru.bonch.szfo2024.error.exception.common.NotFound;
+import ru.bonch.szfo2024.service.CheckPipelineService;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Stream;
+
+/**
+ * Service running checks as asynchronous jobs.
+ * A job is submitted as soon as its files are spooled into the job directory; they are read and itemised on the check executor.
+ * The input of a job and every successfully checked pair are persisted in the job directory,
+ * so the job is resumed after a restart without checking the finished pairs again.
+ * A job expires once it has been finished for {@code check.jobs.retention}.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CheckJobService {
+    private static final String INPUT_FILE = "input.json";
+    private static final String RESULTS_FILE = "results.ndjson";
+    private static final String REQUEST_FILE = "request.json";
+    private static final String UPLOADS_DIR = "uploads";
+    private static final String USE_CASE_UPLOAD = "use-case";
+    private static final String REGULATION_UPLOAD = "regulation";
+
+    private final CheckPipelineService checkPipelineService;
+    private final ObjectMapper objectMapper;
+    private final ExecutorService checkExecutor;
+    private final Map<String, CheckJob> jobs = new ConcurrentHashMap<>();
+
+    @Value("${check.jobs.dir:${java.io.tmpdir}/szfo2024/jobs}")
+    private Path jobsDir;
+
+    @Value("${check.jobs.retention:1d}")
+    private Duration retention;
+
+    /**
+     * Spools the input files into the job directory and starts preparing the job on the check executor.
+     * The job is returned as soon as the files are stored: reading and itemising them is part of the job.
+     *
+     * @param useCaseFiles    list of Use Case files (DOCX)
+     * @param regulationFiles list of regulation files (PDF), may be null
+     * @param regulationIds   list of identifiers of catalog regulations, may be null
+     * @return state of the submitted job
+     * @throws NotFound   if a regulation identifier is unknown
+     * @throws BadRequest if a catalog regulation has the same name as another regulation of the job
+     */
+    public CheckJobDto submit(List<MultipartFile> useCaseFiles, List<MultipartFile> regulationFiles, List<String> regulationIds) {
+        removeExpiredJobs();
+        // Resolve catalog regulations before storing any file, so an unknown identifier or a name clash still fails the request
+        checkPipelineService.catalogRegulations(regulationFiles, regulationIds);
+        List<String> ids = regulationIds == null ? List.of() : List.copyOf(regulationIds);
+        List<MultipartFile> regulationUploads = regulationFiles == null ? List.of() : regulationFiles;
+        CheckJobRequestDto request = new CheckJobRequestDto(System.currentTimeMillis(),
+                useCaseFiles.stream().map(MultipartFile::getOriginalFilename).toList(),
+                regulationUploads.stream().map(MultipartFile::getOriginalFilename).toList(), ids);
+
+        String id = UUID.randomUUID().toString();
+        Path dir = jobsDir.resolve(id);
+        try {
+            Files.createDirectories(dir.resolve(UPLOADS_DIR));
+            for (int i = 0; i < useCaseFiles.size(); i++) {
+                useCaseFiles.get(i).transferTo(upload(dir, USE_CASE_UPLOAD, i).toFile());
+            }
+            for (int i = 0; i < regulationUploads.size(); i++) {
+                regulationUploads.get(i).transferTo(upload(dir, REGULATION_UPLOAD, i).toFile());
+            }
+            write(dir, REQUEST_FILE, request);
+        } catch (IOException e) {
+            delete(dir);
+            throw new InternalServerError("Can't persist check job " + id, e);
+        }
+
+        CheckJob job = new CheckJob(id, request.getCreatedAt(), dir);
+        jobs.put(id, job);
+        log.info("Check job {} submitted: {} Use Cases, {} regulation files, {} catalog regulations",
+                id, useCaseFiles.size(), regulationUploads.size(), ids.size());
+        prepare(job, request);
+        return job.toDto();
+    }
+
+    /**
+     * Returns the state of the job.
+     *
+     * @param id identifier of the job
+     * @return state of the job
+     * @throws NotFound if there is no such job
+     */
+    public CheckJobDto getStatus(String id) {
+        return getJob(id).toDto();
+    }
+
+    /**
+     * Returns the results available so far.
+     *
+     * @param id identifier of the job
+     * @return list of responses for each Use Case, containing only the checked pairs, empty until the job is prepared
+     * @throws NotFound if there is no such job
+     */
+    public List<UcResponseDto> getResults(String id) {
+        CheckJob job = getJob(id);
+        CheckPipelineService.Plan plan = job.getPlan();
+        return plan == null ? List.of() : CheckPipelineService.toResponse(plan, job.getResults());
+    }
+
+    /**
+     * Resumes the unfinished jobs persisted before the restart.
+     * Jobs interrupted while being prepared are prepared again from their spooled files.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resume() {
+        if (!Files.isDirectory(jobsDir)) {
+            return;
+        }
+        try (Stream<Path> dirs = Files.list(jobsDir)) {
+            for (Path dir : dirs.filter(Files::isDirectory).toList()) {
+                try {
+                    if (Files.exists(dir.resolve(INPUT_FILE))) {
+                        CheckJob job = load(dir);
+                        jobs.put(job.getId(), job);
+                        int remaining = job.getPlan().getPairs().size() - job.getResults().size();
+                        if (remaining > 0) {
+                            log.info("Check job {} resumed: {} of {} pairs remaining", job.getId(), remaining, job.getPlan().getPairs().size());
+                            run(job);
+                        }
+                    } else if (Files.exists(dir.resolve(REQUEST_FILE))) {
+                        CheckJobRequestDto request = objectMapper.readValue(dir.resolve(REQUEST_FILE).toFile(), CheckJobRequestDto.class);
+                        CheckJob job = new CheckJob(dir.getFileName().toString(), request.getCreatedAt(), dir);
+                        jobs.put(job.getId(), job);
+                        log.info("Check job {} resumed: preparing the input files again", job.getId());
+                        prepare(job, request);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Check job in {} can't be resumed: {}", dir, e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Check jobs in {} can't be listed: {}", jobsDir, e.getMessage());
+        }
+        // Only after loading, so the directory of an unfinished job is never taken for an expired one
+        removeExpiredJobs();
+    }
+
+    /**
+     * Reads and itemises the spooled input files on the check executor, then persists the input and runs the job.
+     * Nothing waits for the itemisation: the job is started by the task completing the last regulation.
+     * If the preparation fails, the job is kept in memory as failed and its directory is removed.
+     *
+     * @param job     job to prepare
+     * @param request persisted request of the job
+     */
+    private void prepare(CheckJob job, CheckJobRequestDto request) {
+        CompletableFuture.supplyAsync(() -> checkPipelineService.prepare(
+                        uploads(job.getDir(), USE_CASE_UPLOAD, request.getUseCases()),
+                        uploads(job.getDir(), REGULATION_UPLOAD, request.getRegulations()),
+                        request.getRegulationIds()), checkExecutor)
+                .thenCompose(plan -> CompletableFuture.allOf(plan.getRegulations().values().toArray(CompletableFuture[]::new))
+                        .thenApply(ignored -> plan))
+                .whenComplete((plan, e) -> {
+                    try {
+                        if (e != null) {
+                            throw e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                        }
+                        // The requirements are part of the persisted input
+                        Map<String, List<RequirementDto>> regulations = new LinkedHashMap<>();
+                        plan.getRegulations().forEach((name, requirements) -> regulations.put(name, requirements.join()));
+                        write(job.getDir(), INPUT_FILE, new CheckJobInputDto(job.getCreatedAt(), plan.getUseCases(), regulations, plan.getPairs()));
+                    } catch (Throwable cause) {
+                        log.warn("Check job {} can't be prepared: {}", job.getId(), cause.getMessage(), cause);
+                        job.fail("Input files can't be prepared: " + cause.getMessage());
+                        delete(job.getDir());
+                        return;
+                    }
+                    delete(job.getDir().resolve(UPLOADS_DIR));
+                    delete(job.getDir().resolve(REQUEST_FILE));
+                    job.start(plan);
+                    log.info("Check job {} prepared: {} pairs", job.getId(), plan.getPairs().size());
+                    run(job);
+                });
+    }
+
+    /**
+     * Submits every pair of the job that has no result yet.
+     *
+     * @param job job to run
+     */
+    private void run(CheckJob job) {
+        List<CheckPairDto> remaining = job.getPlan().getPairs().stream()
+                .filter(pair -> !job.getResults().containsKey(pair))
+                .toList();
+        if (remaining.isEmpty()) {
+            job.finish(System.currentTimeMillis());
+            return;
+        }
+        checkPipelineService.submitAll(job.getPlan(), remaining).forEach((pair, future) -> {
+            future.whenComplete((response, e) -> {
+                if (e != null) {
+                    job.getFailed().incrementAndGet();
+                    job.getResults().put(pair, CheckPipelineService.failedPair(pair, e));
+                } else {
+                    checkpoint(job, new CheckJobResultDto(pair, response));
+                    job.getResults().put(pair, response);
+                }
+                if (job.getResults().size() == job.getPlan().getPairs().size()) {
+                    job.finish(System.currentTimeMillis());
+                    log.info("Check job {} done: {} pairs, {} failed", job.getId(), job.getPlan().getPairs().size(), job.getFailed().get());
+                }
+            });
+        });
+    }
+
+    /**
+     * Appends the result to the results file of the job.
+     * Failed pairs are not persisted, so they are checked again when the job is resumed.
+     *
+     * @param job    job of the result
+     * @param result result to persist
+     */
+    private void checkpoint(CheckJob job, CheckJobResultDto result) {
+        try {
+            String line = objectMapper.writeValueAsString(result) + "\n";
+            synchronized (job) {
+                try (BufferedWriter writer = Files.newBufferedWriter(job.getDir().resolve(RESULTS_FILE), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    writer.write(line);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Result of {} in check job {} can't be persisted: {}", result.getPair(), job.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Loads a persisted job with its checkpointed results.
+     *
+     * @param dir directory of the job
+     * @return loaded job
+     * @throws IOException if the input of the job can't be read
+     */
+    private CheckJob load(Path dir) throws IOException {
+        CheckJobInputDto input = objectMapper.readValue(dir.resolve(INPUT_FILE).toFile(), CheckJobInputDto.class);
+        Map<String, CompletableFuture<List<RequirementDto>>> regulations = new LinkedHashMap<>();
+        input.getRegulations().forEach((name, requirements) -> regulations.put(name, CompletableFuture.completedFuture(List.copyOf(requirements))));
+        CheckPipelineService.Plan plan = new CheckPipelineService.Plan(input.getUseCases(), regulations, input.getPairs());
+        CheckJob job = new CheckJob(dir.getFileName().toString(), input.getCreatedAt(), dir);
+        job.start(plan);
+
+        Path results = dir.resolve(RESULTS_FILE);
+        if (Files.exists(results)) {
+            for (String line : Files.readAllLines(results, StandardCharsets.UTF_8)) {
+                try {
+                    CheckJobResultDto result = objectMapper.readValue(line, CheckJobResultDto.class);
+                    job.getResults().put(result.getPair(), result.getResponse());
+                } catch (IOException e) {
+                    log.warn("Check job {}: skipping unreadable result line", job.getId()); // Last line of an interrupted write
+                }
+            }
+        }
+        if (job.getResults().size() >= plan.getPairs().size()) {
+            // Finished before the restart: it expires counting from its last write
+            job.finish(Files.getLastModifiedTime(Files.exists(results) ? results : dir.resolve(INPUT_FILE)).toMillis());
+        }
+        return job;
+    }
+
+    /**
+     * Removes jobs finished earlier than the retention period; unfinished jobs are never removed.
+     * Directories of no known job, left by a job that can't be resumed, are removed once not modified for the retention period.
+     */
+    private void removeExpiredJobs() {
+        long expiredBefore = System.currentTimeMillis() - retention.toMillis();
+        jobs.values().removeIf(job -> {
+            if (!job.isFinished() || job.getFinishedAt() >= expiredBefore) {
+                return false;
+            }
+            delete(job.getDir());
+            return true;
+        });
+        if (!Files.isDirectory(jobsDir)) {
+            return;
+        }
+        try (Stream<Path> dirs = Files.list(jobsDir)) {
+            for (Path dir : dirs.filter(Files::isDirectory).toList()) {
+                if (!jobs.containsKey(dir.getFileName().toString())
+                        && Files.getLastModifiedTime(dir).toMillis() < expiredBefore) {
+                    delete(dir);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Check jobs in {} can't be listed: {}", jobsDir, e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a file of the job atomically, so an interrupted write never leaves a partial file.
+     *
+     * @param dir   directory of the job
+     * @param name  name of the file
+     * @param value value written as JSON
+     * @throws IOException if the file can't be written
+     */
+    private void write(Path dir, String name, Object value) throws IOException {
+        Path tmp = dir.resolve(name + ".tmp");
+        objectMapper.writeValue(tmp.toFile(), value);
+        Files.move(tmp, dir.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param dir   directory of the job
+     * @param kind  {@link #USE_CASE_UPLOAD} or {@link #REGULATION_UPLOAD}
+     * @param index index of the file in upload order
+     * @return path of the spooled upload
+     */
+    private static Path upload(Path dir, String kind, int index) {
+        return dir.resolve(UPLOADS_DIR).resolve(kind + "-" + index);
+    }
+
+    /**
+     * @param dir   directory of the job
+     * @param kind  {@link #USE_CASE_UPLOAD} or {@link #REGULATION_UPLOAD}
+     * @param names original file names in upload order
+     * @return spooled uploads under their original names
+     */
+    private static List<MultipartFile> uploads(Path dir, String kind, List<String> names) {
+        List<MultipartFile> uploads = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            uploads.add(new SpooledUpload(upload(dir, kind, i), names.get(i)));
+        }
+        return uploads;
+    }
+
+    private void delete(Path dir) {
+        try {
+            FileSystemUtils.deleteRecursively(dir);
+        } catch (IOException e) {
+            log.warn("Check job directory {} can't be removed: {}", dir, e.getMessage());
+        }
+    }
+
+    private CheckJob getJob(String id) {
+        CheckJob job = jobs.get(id);
+        if (job == null) {
+            throw new NotFound("Check job " + id + " is not found!");
+        }
+        return job;
+    }
+}
@@ -0,0 +1,256 @@
+package ru.bonch.szfo2024.service.neuro;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrency limiter adjusting its limit to the observed latency and errors (AIMD with a latency gradient).
+ * The limit grows by one per window of successful calls while the latency stays close to its long-term average
+ * and is multiplied by the backoff ratio when a call is dropped or the latency exceeds the tolerated ratio.
+ * Permits are acquired either by waiting on the calling thread or asynchronously, without holding a thread.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+public class AdaptiveLimiter {
+
+    private static final double BASELINE_SMOOTHING = 0.05;
+    private static final int WARM_UP_CALLS = 10; // Successful calls averaged before the latency is judged
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private double limit;           // guarded by lock
+    private int inFlight;           // guarded by lock
+    private double baselineNanos;   // guarded by lock, long-term average latency, 0 until the first call
+    private long successes;         // guarded by lock
+    private final Deque<CompletableFuture<Void>> waiters = new ArrayDeque<>(); // guarded by lock, asynchronous acquirers
+
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Creates a limiter.
+     *
+     * @param initialLimit     initial number of concurrent calls
+     * @param minLimit         lower bound of the limit
+     * @param maxLimit         upper bound of the limit
+     * @param backoffRatio     factor applied to the limit on a drop, between 0 and 1
+     * @param latencyTolerance ratio of latency to its average above which the limit is decreased
+     */
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, double backoffRatio, double latencyTolerance) {
+        if (minLimit < 1 || maxLimit < minLimit || backoffRatio <= 0 || backoffRatio >= 1 || latencyTolerance < 1) {
+            throw new IllegalArgumentException("Invalid limiter settings");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Waits for a permit to make a call.
+     *
+     * @param timeout maximum time to wait
+     * @return true if the permit has been acquired, false if the call is rejected
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public boolean acquire(Duration timeout) throws InterruptedException {
+        long remaining = timeout.toNanos();
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= (int) limit) {
+                if (remaining <= 0) {
+                    rejected.incrementAndGet();
+                    return false;
+                }
+                remaining = released.awaitNanos(remaining);
+            }
+            inFlight++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Acquires a permit without blocking: the returned future is completed when a permit is granted.
+     * Cancelling the future gives up the wait; a permit granted to a cancelled future is released at once.
+     *
+     * @param timeout maximum time to wait
+     * @return future completed when the permit is acquired, or exceptionally with a {@link TimeoutException}
+     * if the call is rejected
+     */
+    public CompletableFuture<Void> acquireAsync(Duration timeout) {
+        CompletableFuture<Void> waiter;
+        lock.lock();
+        try {
+            if (waiters.isEmpty() && inFlight < (int) limit) {
+                inFlight++;
+                return CompletableFuture.completedFuture(null);
+            }
+            waiter = new CompletableFuture<>();
+            waiters.add(waiter);
+        } finally {
+            lock.unlock();
+        }
+        waiter.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS).whenComplete((ignored, e) -> {
+            if (e instanceof TimeoutException) {
+                rejected.incrementAndGet();
+            }
+        });
+        return waiter;
+    }
+
+    /**
+     * Releases the permit of a successful call and adjusts the limit to its latency.
+     *
+     * @param latencyNanos duration of the call
+     */
+    public void onSuccess(long latencyNanos) {
+        List<CompletableFuture<Void>> granted;
+        lock.lock();
+        try {
+            if (successes >= WARM_UP_CALLS && latencyNanos > baselineNanos * latencyTolerance) {
+                decrease();
+            } else if (inFlight * 2 >= limit) {
+                // Grow only while the limit is actually used
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            successes++;
+            // Plain average during the warm-up, exponential moving average afterwards
+            baselineNanos += (latencyNanos - baselineNanos) * Math.max(BASELINE_SMOOTHING, 1.0 / successes);
+            granted = release();
+        } finally {
+            lock.unlock();
+        }
+        grant(granted);
+    }
+
+    /**
+     * Releases the permit of a call failed because of overload or a timeout and decreases the limit.
+     */
+    public void onDropped() {
+        dropped.incrementAndGet();
+        List<CompletableFuture<Void>> granted;
+        lock.lock();
+        try {
+            decrease();
+            granted = release();
+        } finally {
+            lock.unlock();
+        }
+        grant(granted);
+    }
+
+    /**
+     * Releases the permit of a call whose outcome says nothing about the load.
+     */
+    public void onIgnored() {
+        List<CompletableFuture<Void>> granted;
+        lock.lock();
+        try {
+            granted = release();
+        } finally {
+            lock.unlock();
+        }
+        grant(granted);
+    }
+
+    /**
+     * @return current limit of concurrent calls
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of calls being executed
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return long-term average latency of successful calls in milliseconds
+     */
+    public long getBaselineMillis() {
+        lock.lock();
+        try {
+            return TimeUnit.NANOSECONDS.toMillis((long) baselineNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of calls rejected after waiting for a permit
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return number of calls dropped because of overload or a timeout
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private void decrease() {
+        limit = Math.max(minLimit, limit * backoffRatio);
+    }
+
+    /**
+     * Releases a permit and hands the free permits over to the asynchronous acquirers still waiting.
+     * Must be called with the lock held; the returned futures are completed by {@link #grant} after unlocking,
+     * so that no continuation runs under the lock.
+     *
+     * @return waiters the permits have been handed over to
+     */
+    private List<CompletableFuture<Void>> release() {
+        inFlight--;
+        List<CompletableFuture<Void>> granted = new ArrayList<>();
+        while (inFlight < (int) limit && !waiters.isEmpty()) {
+            CompletableFuture<Void> waiter = waiters.poll();
+            if (!waiter.isDone()) { // Timed out or cancelled waiters are skipped
+                inFlight++;
+                granted.add(waiter);
+            }
+        }
+        released.signalAll();
+        return granted;
+    }
+
+    private void grant(List<CompletableFuture<Void>> granted) {
+        for (CompletableFuture<Void> waiter : granted) {
+            if (!waiter.complete(null)) {
+                // The waiter has timed out or has been cancelled in the meantime
+                onIgnored();
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package ru.bonch.szfo2024.service.neuro;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Circuit breaker tracking the failure rate over a sliding window of the last calls.
+ * When the rate reaches the threshold the circuit opens and calls are rejected without being sent;
+ * after the open duration a single trial call is let through and closes the circuit on success.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,    // Calls are sent
+        OPEN,      // Calls are rejected
+        HALF_OPEN  // A single trial call is sent
+    }
+
+    private final String name;
+    private final double failureRateThreshold;
+    private final int minimumCalls;
+    private final long openDurationMillis;
+
+    private final boolean[] window; // true for a failed call, guarded by this
+    private int windowCalls;        // guarded by this
+    private int windowFailures;     // guarded by this
+    private int windowNext;         // guarded by this
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Creates a circuit breaker.
+     *
+     * @param name                 name used in logs
+     * @param failureRateThreshold failure rate in percent that opens the circuit
+     * @param windowSize           number of last calls the failure rate is calculated over
+     * @param minimumCalls         number of calls in the window required to calculate the failure rate
+     * @param openDuration         time the circuit stays open before a trial call
+     */
+    public CircuitBreaker(String name, double failureRateThreshold, int windowSize, int minimumCalls, Duration openDuration) {
+        if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize) {
+            throw new IllegalArgumentException("Invalid circuit breaker settings");
+        }
+        this.name = name;
+        this.failureRateThreshold = failureRateThreshold;
+        this.minimumCalls = minimumCalls;
+        this.openDurationMillis = openDuration.toMillis();
+        this.window = new boolean[windowSize];
+    }
+
+    /**
+     * Checks whether a call may be sent.
+     * Every permitted call must be reported with {@link #onSuccess()}, {@link #onFailure()} or {@link #release()}.
+     *
+     * @return true if the call is permitted, false if it is rejected
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openDurationMillis) {
+            state = State.HALF_OPEN;
+            log.info("Circuit {}: half-open, sending a trial call", name);
+        }
+        if (state == State.CLOSED || state == State.HALF_OPEN && !trialInFlight) {
+            trialInFlight = state == State.HALF_OPEN;
+            return true;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Reports a successful call.
+     */
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN && trialInFlight) {
+            state = State.CLOSED;
+            trialInFlight = false;
+            resetWindow();
+            log.info("Circuit {}: closed", name);
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    /**
+     * Reports a failed call.
+     */
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN && trialInFlight) {
+            trialInFlight = false;
+            open();
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (windowCalls >= minimumCalls && windowFailures * 100.0 / windowCalls >= failureRateThreshold) {
+                open();
+            }
+        }
+    }
+
+    /**
+     * Releases a permitted call which has not been sent.
+     */
+    public synchronized void release() {
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+        }
+    }
+
+    /**
+     * @return current state
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return failure rate in percent over the window, -1 if there are not enough calls
+     */
+    public synchronized double getFailureRate() {
+        return windowCalls < minimumCalls ? -1 : windowFailures * 100.0 / windowCalls;
+    }
+
+    /**
+     * @return number of calls rejected while the circuit was open
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        log.warn("Circuit {}: open for {} ms, failure rate {}%", name, openDurationMillis, getFailureRate());
+    }
+
+    private void record(boolean failed) {
+        if (windowCalls == window.length) {
+            if (window[windowNext]) {
+                windowFailures--;
+            }
+        } else {
+            windowCalls++;
+        }
+        window[windowNext] = failed;
+        if (failed) {
+            windowFailures++;
+        }
+        windowNext = (windowNext + 1) % window.length;
+    }
+
+    private void resetWindow() {
+        windowCalls = 0;
+        windowFailures = 0;
+        windowNext = 0;
+    }
+}
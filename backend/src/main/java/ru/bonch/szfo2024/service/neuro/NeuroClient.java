@@ -0,0 +1,191 @@
+package ru.bonch.szfo2024.service.neuro;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.core5.pool.ConnPoolControl;
+import org.apache.hc.core5.pool.PoolStats;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import ru.bonch.szfo2024.dto.response.NeuroPoolStatsDto;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP client of the neural network service.
+ * In blocking mode requests go through a pooled RestTemplate, in reactive mode through a pooled WebClient.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Slf4j
+public class NeuroClient {
+
+    private final String baseUrl;
+    private final RestTemplate restTemplate;         // null in reactive mode
+    private final ConnPoolControl<?> connectionPool; // null in reactive mode
+    private final WebClient webClient;               // null in blocking mode
+    private final Duration responseTimeout;
+    private final int maxConnections;
+    private final int maxConnectionsPerRoute;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    private NeuroClient(String baseUrl, RestTemplate restTemplate, ConnPoolControl<?> connectionPool, WebClient webClient,
+                        Duration responseTimeout, int maxConnections, int maxConnectionsPerRoute) {
+        this.baseUrl = baseUrl;
+        this.restTemplate = restTemplate;
+        this.connectionPool = connectionPool;
+        this.webClient = webClient;
+        this.responseTimeout = responseTimeout;
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    /**
+     * Creates a client sending requests through a pooled RestTemplate.
+     *
+     * @param baseUrl         base URL of the neural network service
+     * @param restTemplate    RestTemplate backed by the connection pool
+     * @param connectionPool  connection pool of the RestTemplate, used for statistics
+     * @param maxPerRoute     maximum number of connections per route
+     * @return blocking client
+     */
+    public static NeuroClient blocking(String baseUrl, RestTemplate restTemplate, ConnPoolControl<?> connectionPool, int maxPerRoute) {
+        return new NeuroClient(baseUrl, restTemplate, connectionPool, null, null,
+                connectionPool.getMaxTotal(), maxPerRoute);
+    }
+
+    /**
+     * Creates a client sending requests through a pooled WebClient.
+     *
+     * @param baseUrl         base URL of the neural network service
+     * @param webClient       WebClient backed by the connection pool
+     * @param responseTimeout maximum time to wait for a response
+     * @param maxConnections  maximum number of connections
+     * @return reactive client
+     */
+    public static NeuroClient reactive(String baseUrl, WebClient webClient, Duration responseTimeout, int maxConnections) {
+        return new NeuroClient(baseUrl, null, null, webClient, responseTimeout, maxConnections, maxConnections);
+    }
+
+    /**
+     * Sends the body as JSON with a POST request and waits for the response.
+     *
+     * @param path path relative to the base URL
+     * @param body body of the request
+     * @return body of the response
+     */
+    public String post(String path, Object body) {
+        return post(path, body, null);
+    }
+
+    /**
+     * Sends the body as JSON with a POST request and waits for the response.
+     *
+     * @param path            path relative to the base URL
+     * @param body            body of the request, already encoded bytes if the content encoding is set
+     * @param contentEncoding content encoding of the body, e.g. {@code gzip}, null if the body is not encoded
+     * @return body of the response
+     */
+    public String post(String path, Object body, String contentEncoding) {
+        if (webClient != null) {
+            return postAsync(path, body, contentEncoding).block(responseTimeout);
+        }
+        inFlight.incrementAndGet();
+        requests.incrementAndGet();
+        try {
+            // Set up HTTP headers
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            if (contentEncoding != null) {
+                headers.set(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+            }
+
+            ResponseEntity<String> response = restTemplate.exchange(
+                    baseUrl + path,                 // URL for the neural network endpoint
+                    HttpMethod.POST,                // HTTP method
+                    new HttpEntity<>(body, headers), // Request entity containing the data
+                    String.class                    // Expected response type
+            );
+            return response.getBody();
+        } catch (RuntimeException e) {
+            errors.incrementAndGet();
+            throw e;
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Sends the body as JSON with a POST request without blocking.
+     * In blocking mode the request is executed on a bounded elastic thread, so the subscribing thread is never blocked.
+     *
+     * @param path path relative to the base URL
+     * @param body body of the request
+     * @return publisher of the response body
+     */
+    public Mono<String> postAsync(String path, Object body) {
+        return postAsync(path, body, null);
+    }
+
+    /**
+     * Sends the body as JSON with a POST request without blocking.
+     * In blocking mode the request is executed on a bounded elastic thread, so the subscribing thread is never blocked.
+     *
+     * @param path            path relative to the base URL
+     * @param body            body of the request, already encoded bytes if the content encoding is set
+     * @param contentEncoding content encoding of the body, e.g. {@code gzip}, null if the body is not encoded
+     * @return publisher of the response body
+     */
+    public Mono<String> postAsync(String path, Object body, String contentEncoding) {
+        if (webClient == null) {
+            return Mono.fromCallable(() -> post(path, body, contentEncoding)).subscribeOn(Schedulers.boundedElastic());
+        }
+        return webClient.post()
+                .uri(baseUrl + path)
+                .contentType(MediaType.APPLICATION_JSON)
+                .headers(headers -> {
+                    if (contentEncoding != null) {
+                        headers.set(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+                    }
+                })
+                .bodyValue(body)
+                .retrieve()
+                .bodyToMono(String.class)
+                .doOnSubscribe(subscription -> {
+                    inFlight.incrementAndGet();
+                    requests.incrementAndGet();
+                })
+                .doOnError(e -> errors.incrementAndGet())
+                .doFinally(signal -> inFlight.decrementAndGet());
+    }
+
+    /**
+     * @return true if requests go through the WebClient
+     */
+    public boolean isReactive() {
+        return webClient != null;
+    }
+
+    /**
+     * @return current state of the connection pool
+     */
+    public NeuroPoolStatsDto stats() {
+        if (connectionPool == null) {
+            return new NeuroPoolStatsDto("reactive", inFlight.get(), -1, -1, -1,
+                    maxConnections, maxConnectionsPerRoute, requests.get(), errors.get());
+        }
+        PoolStats pool = connectionPool.getTotalStats();
+        return new NeuroPoolStatsDto("blocking", inFlight.get(), pool.getLeased(), pool.getPending(), pool.getAvailable(),
+                pool.getMax(), maxConnectionsPerRoute, requests.get(), errors.get());
+    }
+}
@@ -0,0 +1,269 @@
+package ru.bonch.szfo2024.service.neuro;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+import ru.bonch.szfo2024.dto.response.NeuroGuardStatsDto;
+import ru.bonch.szfo2024.error.exception.common.ServiceUnavailable;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Protection of the calls to the neural network service.
+ * Every call passes the circuit breaker and the adaptive concurrency limiter;
+ * transient failures (timeouts, connection errors, HTTP 408, 429 and 5xx) are retried with exponential backoff and full jitter.
+ * Asynchronous calls share the same limiter and circuit breaker but wait for permits and retries without holding a thread.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Slf4j
+@Component
+public class NeuroGuard {
+
+    private final AdaptiveLimiter limiter;
+    private final CircuitBreaker circuitBreaker;
+    private final Duration acquireTimeout;
+    private final int maxAttempts;
+    private final Duration baseDelay;
+    private final Duration maxDelay;
+
+    private final AtomicLong retries = new AtomicLong();
+
+    public NeuroGuard(@Value("${neuro.limiter.initial-limit:4}") int initialLimit,
+                      @Value("${neuro.limiter.min-limit:1}") int minLimit,
+                      @Value("${neuro.limiter.max-limit:32}") int maxLimit,
+                      @Value("${neuro.limiter.backoff-ratio:0.7}") double backoffRatio,
+                      @Value("${neuro.limiter.latency-tolerance:2.0}") double latencyTolerance,
+                      @Value("${neuro.limiter.acquire-timeout:60s}") Duration acquireTimeout,
+                      @Value("${neuro.circuit.failure-rate-threshold:50}") double failureRateThreshold,
+                      @Value("${neuro.circuit.window-size:20}") int windowSize,
+                      @Value("${neuro.circuit.minimum-calls:10}") int minimumCalls,
+                      @Value("${neuro.circuit.open-duration:30s}") Duration openDuration,
+                      @Value("${neuro.retry.max-attempts:3}") int maxAttempts,
+                      @Value("${neuro.retry.base-delay:500ms}") Duration baseDelay,
+                      @Value("${neuro.retry.max-delay:10s}") Duration maxDelay) {
+        this.limiter = new AdaptiveLimiter(initialLimit, minLimit, maxLimit, backoffRatio, latencyTolerance);
+        this.circuitBreaker = new CircuitBreaker("neuro", failureRateThreshold, windowSize, minimumCalls, openDuration);
+        this.acquireTimeout = acquireTimeout;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Executes the call, retrying transient failures.
+     *
+     * @param call call to the neural network service
+     * @param <T>  type of the result
+     * @return result of the call
+     * @throws ServiceUnavailable if the circuit is open or no permit is acquired in time
+     */
+    public <T> T call(Supplier<T> call) {
+        for (int attempt = 1; ; attempt++) {
+            RuntimeException failure;
+            try {
+                return callOnce(call);
+            } catch (RuntimeException e) {
+                if (!isTransient(e) || attempt >= maxAttempts) {
+                    throw e;
+                }
+                failure = e;
+            }
+            retries.incrementAndGet();
+            Duration delay = backoff(attempt, failure);
+            log.warn("Neuro call failed (attempt {} of {}), retrying in {} ms: {}",
+                    attempt, maxAttempts, delay.toMillis(), failure.getMessage());
+            try {
+                Thread.sleep(delay.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Executes the asynchronous call, retrying transient failures.
+     * The call is made on subscription; waiting for a permit and the delays between attempts don't block any thread.
+     *
+     * @param call call to the neural network service, invoked once per attempt
+     * @param <T>  type of the result
+     * @return publisher of the result of the call, failing with {@link ServiceUnavailable}
+     * if the circuit is open or no permit is acquired in time
+     */
+    public <T> Mono<T> callAsync(Supplier<Mono<T>> call) {
+        return Mono.defer(() -> callOnceAsync(call))
+                .retryWhen(Retry.from(signals -> signals.concatMap(signal -> {
+                    int attempt = (int) signal.totalRetries() + 1;
+                    Throwable failure = signal.failure();
+                    if (!isTransient(failure) || attempt >= maxAttempts) {
+                        return Mono.error(failure);
+                    }
+                    retries.incrementAndGet();
+                    Duration delay = backoff(attempt, failure);
+                    log.warn("Neuro call failed (attempt {} of {}), retrying in {} ms: {}",
+                            attempt, maxAttempts, delay.toMillis(), failure.getMessage());
+                    return Mono.delay(delay);
+                })));
+    }
+
+    /**
+     * @return current state of the limiter and the circuit breaker
+     */
+    public NeuroGuardStatsDto stats() {
+        return new NeuroGuardStatsDto(limiter.getLimit(), limiter.getInFlight(), limiter.getBaselineMillis(),
+                limiter.getRejected(), limiter.getDropped(), circuitBreaker.getState().name(),
+                circuitBreaker.getFailureRate(), circuitBreaker.getRejected(), retries.get());
+    }
+
+    /**
+     * Executes a single attempt of the call and reports its outcome to the limiter and the circuit breaker.
+     *
+     * @param call call to the neural network service
+     * @param <T>  type of the result
+     * @return result of the call
+     */
+    private <T> T callOnce(Supplier<T> call) {
+        if (!circuitBreaker.tryAcquire()) {
+            throw new ServiceUnavailable("AI service is unavailable, the circuit is open");
+        }
+        boolean acquired;
+        try {
+            acquired = limiter.acquire(acquireTimeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            circuitBreaker.release();
+            throw new ServiceUnavailable("AI service is overloaded, concurrency limit of " + limiter.getLimit() + " reached");
+        }
+
+        long start = System.nanoTime();
+        try {
+            T result = call.get();
+            limiter.onSuccess(System.nanoTime() - start);
+            circuitBreaker.onSuccess();
+            return result;
+        } catch (RuntimeException e) {
+            if (isTransient(e)) {
+                limiter.onDropped();
+                circuitBreaker.onFailure();
+            } else {
+                // The service has answered, the request itself is wrong
+                limiter.onIgnored();
+                circuitBreaker.onSuccess();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Executes a single attempt of the asynchronous call and reports its outcome to the limiter and the circuit breaker.
+     * A cancelled attempt gives its permit back without affecting the limit.
+     *
+     * @param call call to the neural network service
+     * @param <T>  type of the result
+     * @return publisher of the result of the call
+     */
+    private <T> Mono<T> callOnceAsync(Supplier<Mono<T>> call) {
+        if (!circuitBreaker.tryAcquire()) {
+            return Mono.error(new ServiceUnavailable("AI service is unavailable, the circuit is open"));
+        }
+        CompletableFuture<Void> permit = limiter.acquireAsync(acquireTimeout);
+        return Mono.fromFuture(permit, true)
+                .doOnCancel(() -> {
+                    if (!permit.cancel(false) && !permit.isCompletedExceptionally()) {
+                        // The permit has been granted just before the cancellation
+                        limiter.onIgnored();
+                    }
+                    circuitBreaker.release();
+                })
+                .onErrorMap(TimeoutException.class, e -> {
+                    circuitBreaker.release();
+                    return new ServiceUnavailable("AI service is overloaded, concurrency limit of " + limiter.getLimit() + " reached");
+                })
+                .then(Mono.defer(() -> {
+                    long start = System.nanoTime();
+                    return call.get()
+                            .doOnSuccess(result -> {
+                                limiter.onSuccess(System.nanoTime() - start);
+                                circuitBreaker.onSuccess();
+                            })
+                            .doOnError(e -> {
+                                if (isTransient(e)) {
+                                    limiter.onDropped();
+                                    circuitBreaker.onFailure();
+                                } else {
+                                    // The service has answered, the request itself is wrong
+                                    limiter.onIgnored();
+                                    circuitBreaker.onSuccess();
+                                }
+                            })
+                            .doOnCancel(() -> {
+                                limiter.onIgnored();
+                                circuitBreaker.release();
+                            });
+                }));
+    }
+
+    /**
+     * Calculates the delay before the next attempt: a random duration up to the exponential backoff,
+     * but not less than the Retry-After header of the response.
+     *
+     * @param attempt number of the failed attempt
+     * @param failure failure of the attempt
+     * @return delay before the next attempt
+     */
+    private Duration backoff(int attempt, Throwable failure) {
+        long ceiling = Math.min(maxDelay.toMillis(), baseDelay.toMillis() << Math.min(attempt - 1, 20));
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        HttpHeaders headers = failure instanceof RestClientResponseException e ? e.getResponseHeaders()
+                : failure instanceof WebClientResponseException e ? e.getHeaders()
+                : null;
+        String retryAfter = headers != null ? headers.getFirst(HttpHeaders.RETRY_AFTER) : null;
+        if (retryAfter != null && !retryAfter.isEmpty() && retryAfter.chars().allMatch(Character::isDigit)) {
+            delay = Math.max(delay, Math.min(maxDelay.toMillis(), Long.parseLong(retryAfter) * 1000));
+        }
+        return Duration.ofMillis(delay);
+    }
+
+    /**
+     * @param e failure of a call
+     * @return true if the call may succeed when repeated
+     */
+    private static boolean isTransient(Throwable e) {
+        if (e instanceof ServiceUnavailable) {
+            return false;
+        }
+        if (e instanceof ResourceAccessException || e instanceof WebClientRequestException) {
+            return true;
+        }
+        HttpStatusCode status = e instanceof RestClientResponseException r ? r.getStatusCode()
+                : e instanceof WebClientResponseException w ? w.getStatusCode()
+                : null;
+        if (status != null) {
+            return status.is5xxServerError() || status.value() == 408 || status.value() == 429;
+        }
+        // Timeouts of the reactive client are wrapped into runtime exceptions
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof TimeoutException) {
+                return true;
+            }
+        }
+        return e instanceof IllegalStateException && e.getMessage() != null && e.getMessage().startsWith("Timeout on blocking read");
+    }
+}
@@ -0,0 +1,31 @@
+package ru.bonch.szfo2024.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for the itemisation of a regulation into requirements.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Name("ru.bonch.szfo2024.Itemisation")
+@Label("Itemisation")
+@Category({"SZFO 2024", "Check"})
+@Description("Itemisation of the text of a regulation into requirements")
+@StackTrace(false)
+public class ItemisationEvent extends Event {
+
+    @Label("Regulation")
+    public String regulation;
+
+    @Label("Text Length")
+    @Description("Number of characters of the regulation text")
+    public int textLength;
+
+    @Label("Requirements")
+    public int requirements;
+}
@@ -0,0 +1,44 @@
+package ru.bonch.szfo2024.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for the check of Use Cases against a regulation by the neural network service,
+ * including the cache lookup and the retries.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Name("ru.bonch.szfo2024.NeuroCall")
+@Label("Neuro Call")
+@Category({"SZFO 2024", "Check"})
+@Description("Check of Use Cases against a regulation by the neural network service")
+@StackTrace(false)
+public class NeuroCallEvent extends Event {
+
+    @Label("Use Case")
+    @Description("File name of the Use Case, or of the first Use Case of a batch")
+    public String useCase;
+
+    @Label("Use Cases")
+    public int useCases;
+
+    @Label("Regulation")
+    public String regulation;
+
+    @Label("Requirements")
+    public int requirements;
+
+    @Label("Payload Size")
+    @Description("UTF-8 size of the Use Case texts and the requirements")
+    @DataAmount
+    public long payloadSize;
+
+    @Label("Failed")
+    public boolean failed;
+}
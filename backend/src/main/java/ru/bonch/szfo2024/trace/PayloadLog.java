@@ -0,0 +1,124 @@
+package ru.bonch.szfo2024.trace;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Debug logging of large payloads: requirements, Use Case texts and responses of the neural network.
+ * Only a {@code logging.payload.sample-rate} share of the payloads is logged (none by default), each rendered lazily
+ * into a buffer of {@code logging.payload.max-length} characters, so the cost of a log line does not grow with
+ * the documents.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Component
+public class PayloadLog {
+
+    private final ObjectMapper objectMapper;
+    private final int maxLength;
+    private final double sampleRate;
+
+    public PayloadLog(ObjectMapper objectMapper,
+                      @Value("${logging.payload.max-length:2000}") int maxLength,
+                      @Value("${logging.payload.sample-rate:0}") double sampleRate) {
+        this.objectMapper = objectMapper;
+        this.maxLength = maxLength;
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Logs the message at DEBUG level if it is enabled and the payload is sampled.
+     *
+     * @param log       logger of the calling class
+     * @param format    message format, the payload is the last argument
+     * @param arguments arguments of the message, the last one is the payload
+     */
+    public void debug(Logger log, String format, Object... arguments) {
+        if (arguments.length == 0 || !sampled() || !log.isDebugEnabled()) {
+            return;
+        }
+        Object[] truncated = Arrays.copyOf(arguments, arguments.length);
+        truncated[truncated.length - 1] = new Truncated(arguments[arguments.length - 1]);
+        log.debug(format, truncated);
+    }
+
+    private boolean sampled() {
+        return sampleRate >= 1 || sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    /**
+     * Payload rendered only when the message is formatted. A text is cut without being copied, any other payload
+     * is written as JSON into a {@link CappedWriter} that stops the serialisation once the limit is reached.
+     */
+    private class Truncated {
+
+        private final Object payload;
+
+        private Truncated(Object payload) {
+            this.payload = payload;
+        }
+
+        @Override
+        public String toString() {
+            if (payload == null) {
+                return "null";
+            }
+            if (payload instanceof CharSequence text) {
+                return text.length() <= maxLength ? text.toString()
+                        : text.subSequence(0, maxLength) + "... (" + (text.length() - maxLength) + " more characters)";
+            }
+            CappedWriter writer = new CappedWriter(maxLength);
+            try {
+                objectMapper.writeValue(writer, payload);
+            } catch (IOException e) {
+                if (!writer.isFull()) {
+                    return "<" + payload.getClass().getSimpleName() + " not rendered: " + e.getMessage() + ">";
+                }
+            }
+            return writer.isFull() ? writer.text + "... (truncated)" : writer.text.toString();
+        }
+    }
+
+    /**
+     * Writer keeping at most {@code capacity} characters and failing the write that exceeds them.
+     */
+    private static class CappedWriter extends Writer {
+
+        private final StringBuilder text = new StringBuilder();
+        private final int capacity;
+        private boolean full;
+
+        private CappedWriter(int capacity) {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+            int free = capacity - text.length();
+            text.append(buffer, offset, Math.min(length, free));
+            if (length > free) {
+                full = true;
+                throw new IOException("Payload is longer than " + capacity + " characters");
+            }
+        }
+
+        private boolean isFull() {
+            return full;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
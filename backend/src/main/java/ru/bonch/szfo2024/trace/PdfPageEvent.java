@@ -0,0 +1,40 @@
+package ru.bonch.szfo2024.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for the text extraction of a single PDF page.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Name("ru.bonch.szfo2024.PdfPage")
+@Label("PDF Page")
+@Category({"SZFO 2024", "Check"})
+@Description("Text extraction of a page of a regulation")
+@StackTrace(false)
+public class PdfPageEvent extends Event {
+
+    @Label("File Name")
+    public String fileName;
+
+    @Label("File Size")
+    @DataAmount
+    public long fileSize;
+
+    @Label("Page")
+    public int page;
+
+    @Label("Pages")
+    @Description("Number of pages of the document")
+    public int pages;
+
+    @Label("Text Length")
+    @Description("Number of characters extracted from the page")
+    public int textLength;
+}
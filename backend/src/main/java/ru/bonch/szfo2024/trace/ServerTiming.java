@@ -0,0 +1,135 @@
+package ru.bonch.szfo2024.trace;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Durations of the stages of a single request, reported in the {@code Server-Timing} response header.
+ * The timing of the request is bound to the request thread by {@link ServerTimingFilter} and must be propagated
+ * to the tasks the request submits to executors, see {@link #propagate(Supplier)}.
+ * Without a bound timing recording is a no-op.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+public final class ServerTiming {
+
+    private static final ThreadLocal<ServerTiming> CURRENT = new ThreadLocal<>();
+
+    private final long start = System.nanoTime();
+    private final Map<String, long[]> stages = new LinkedHashMap<>(); // Stage → total duration in ns and count
+
+    /**
+     * Adds the duration of a stage to the timing bound to the current thread.
+     * Durations of stages executed concurrently are summed.
+     *
+     * @param stage name of the stage
+     * @param nanos duration of the stage in nanoseconds
+     */
+    public static void record(String stage, long nanos) {
+        ServerTiming timing = CURRENT.get();
+        if (timing != null) {
+            timing.add(stage, nanos);
+        }
+    }
+
+    /**
+     * @param task task to be executed on another thread
+     * @return task executed with the timing bound to the calling thread, the task itself if there is none
+     */
+    public static <T> Supplier<T> propagate(Supplier<T> task) {
+        ServerTiming timing = CURRENT.get();
+        if (timing == null) {
+            return task;
+        }
+        return () -> {
+            try (Scope ignored = timing.bind()) {
+                return task.get();
+            }
+        };
+    }
+
+    /**
+     * @param task task to be executed on another thread
+     * @return task executed with the timing bound to the calling thread, the task itself if there is none
+     */
+    public static <T, R> Function<T, R> propagate(Function<T, R> task) {
+        ServerTiming timing = CURRENT.get();
+        if (timing == null) {
+            return task;
+        }
+        return value -> {
+            try (Scope ignored = timing.bind()) {
+                return task.apply(value);
+            }
+        };
+    }
+
+    /**
+     * @param task task to be executed on another thread
+     * @return task executed with the timing bound to the calling thread, the task itself if there is none
+     */
+    public static Runnable propagate(Runnable task) {
+        ServerTiming timing = CURRENT.get();
+        if (timing == null) {
+            return task;
+        }
+        return () -> {
+            try (Scope ignored = timing.bind()) {
+                task.run();
+            }
+        };
+    }
+
+    /**
+     * Binds this timing to the current thread until the scope is closed.
+     *
+     * @return scope restoring the previous binding on close
+     */
+    public Scope bind() {
+        ServerTiming previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    /**
+     * Formats the stages recorded so far, e.g. {@code pdf;dur=43.2;desc="2", total;dur=1612.5}.
+     * The description holds the number of times a stage was executed; {@code total} is the time since the request started.
+     *
+     * @return value of the {@code Server-Timing} header
+     */
+    public synchronized String header() {
+        StringJoiner header = new StringJoiner(", ");
+        stages.forEach((stage, value) -> header.add(stage + ";dur=" + millis(value[0]) + ";desc=\"" + value[1] + "\""));
+        header.add("total;dur=" + millis(System.nanoTime() - start));
+        return header.toString();
+    }
+
+    private synchronized void add(String stage, long nanos) {
+        long[] value = stages.computeIfAbsent(stage, name -> new long[2]);
+        value[0] += nanos;
+        value[1]++;
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1e6);
+    }
+
+    /**
+     * Binding of a timing to a thread.
+     */
+    @FunctionalInterface
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,79 @@
+package ru.bonch.szfo2024.trace;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Filter adding the {@code Server-Timing} header with the durations of the stages of the request,
+ * enabled by {@code check.server-timing.enabled}.
+ * The header is added right before the body is written, so a response written at the end of the check
+ * reports all its stages, while a streamed response reports the stages before its first event.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+@Component
+@ConditionalOnProperty(name = "check.server-timing.enabled", havingValue = "true")
+public class ServerTimingFilter extends OncePerRequestFilter {
+
+    private static final String HEADER = "Server-Timing";
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        ServerTiming timing = new ServerTiming();
+        TimingResponse timingResponse = new TimingResponse(response, timing);
+        try (ServerTiming.Scope ignored = timing.bind()) {
+            filterChain.doFilter(request, timingResponse);
+        } finally {
+            timingResponse.addTiming();
+        }
+    }
+
+    /**
+     * Response adding the timing header before anything is written to it.
+     */
+    private static final class TimingResponse extends HttpServletResponseWrapper {
+        private final ServerTiming timing;
+        private boolean added;
+
+        TimingResponse(HttpServletResponse response, ServerTiming timing) {
+            super(response);
+            this.timing = timing;
+        }
+
+        void addTiming() {
+            if (!added && !isCommitted()) {
+                added = true;
+                setHeader(HEADER, timing.header());
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            addTiming();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            addTiming();
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            addTiming();
+            super.flushBuffer();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package ru.bonch.szfo2024.util;
+
+import ru.bonch.szfo2024.dto.RequirementDto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Helpers for content hashing used as cache keys.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+public final class Hashes {
+
+    private Hashes() {
+    }
+
+    /**
+     * Calculates SHA-256 of the whole stream without loading it into memory.
+     * The stream is read to the end but not closed.
+     *
+     * @param inputStream stream to hash
+     * @return lowercase hex SHA-256 digest
+     * @throws IOException if the stream can't be read
+     */
+    public static String sha256(InputStream inputStream) throws IOException {
+        MessageDigest digest = newSha256();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Calculates SHA-256 of the UTF-8 representation of a string.
+     *
+     * @param text string to hash
+     * @return lowercase hex SHA-256 digest
+     */
+    public static String sha256(String text) {
+        return HexFormat.of().formatHex(newSha256().digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Calculates SHA-256 of the requirements.
+     * The section and the text of every requirement are hashed as in {@link #update(MessageDigest, String)},
+     * so the hash is easy to reproduce on the neural network side.
+     *
+     * @param requirements requirements to hash
+     * @return lowercase hex SHA-256 digest
+     */
+    public static String sha256(List<RequirementDto> requirements) {
+        MessageDigest digest = newSha256();
+        for (RequirementDto requirement : requirements) {
+            update(digest, requirement.getSection());
+            update(digest, requirement.getRequirement());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Adds the string to the digest prefixed with the big-endian 32-bit length of its UTF-8 bytes,
+     * so different splits of the same text give different hashes. A null string is hashed as the length -1.
+     *
+     * @param digest digest to update
+     * @param value  string to add, may be null
+     */
+    public static void update(MessageDigest digest, String value) {
+        if (value == null) {
+            digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(-1).array());
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
+    /**
+     * Creates a new SHA-256 digest.
+     *
+     * @return SHA-256 message digest
+     */
+    public static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by the runtime", e);
+        }
+    }
+}
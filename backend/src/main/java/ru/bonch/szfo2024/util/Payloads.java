@@ -0,0 +1,78 @@
+package ru.bonch.szfo2024.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ru.bonch.szfo2024.dto.RequirementDto;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Helpers for estimating the size of payloads sent to the neural network.
+ *
+ * @author Andrey Kurnosov (GutChoice)
+ */
+public final class Payloads {
+
+    private Payloads() {
+    }
+
+    /**
+     * Calculates the length of the text in UTF-8 without encoding it.
+     *
+     * @param text text to measure, may be null
+     * @return number of UTF-8 bytes
+     */
+    public static long utf8Length(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Calculates the UTF-8 length of the sections and texts of the requirements.
+     *
+     * @param requirements requirements to measure
+     * @return number of UTF-8 bytes
+     */
+    public static long utf8Length(List<RequirementDto> requirements) {
+        long length = 0;
+        for (RequirementDto requirement : requirements) {
+            length += utf8Length(requirement.getSection()) + utf8Length(requirement.getRequirement());
+        }
+        return length;
+    }
+
+    /**
+     * Serializes the payload to gzip-compressed JSON.
+     *
+     * @param objectMapper mapper to serialize with
+     * @param payload      payload to serialize
+     * @return compressed JSON
+     * @throws IOException if the payload can't be serialized
+     */
+    public static byte[] gzipJson(ObjectMapper objectMapper, Object payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream gzip = new GZIPOutputStream(bytes, 8192)) {
+            objectMapper.writeValue(gzip, payload);
+        }
+        return bytes.toByteArray();
+    }
+}
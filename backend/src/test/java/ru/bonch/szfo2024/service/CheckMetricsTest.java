@@ -0,0 +1,39 @@
+package ru.bonch.szfo2024.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CheckMetricsTest {
+
+	@Test
+	void stagesAreTimedAndTrackedInFlight() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		CheckMetrics metrics = new CheckMetrics(registry);
+
+		try (CheckMetrics.Stage ignored = metrics.stage(CheckMetrics.PDF)) {
+			assertEquals(1, registry.get("check.stage.in.flight").tag("stage", "pdf").gauge().value());
+			metrics.pages(12);
+		}
+		assertEquals(0, registry.get("check.stage.in.flight").tag("stage", "pdf").gauge().value());
+		assertEquals(1, registry.get("check.stage").tag("stage", "pdf").timer().count());
+		assertEquals(12, registry.get("check.pdf.pages").counter().count());
+	}
+
+	@Test
+	void failedNeuroCallsAreCounted() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		CheckMetrics metrics = new CheckMetrics(registry);
+
+		assertEquals("answer", metrics.neuroCall("check-uc", () -> "answer"));
+		assertThrows(IllegalStateException.class, () -> metrics.neuroCall("check-uc", () -> {
+			throw new IllegalStateException("Timeout on blocking read");
+		}));
+		assertEquals(1, registry.get("neuro.call").tags("endpoint", "check-uc", "outcome", "success").timer().count());
+		assertEquals(1, registry.get("neuro.call").tags("endpoint", "check-uc", "outcome", "error").timer().count());
+		assertEquals(1, registry.get("neuro.errors").tag("exception", "IllegalStateException").counter().count());
+		assertEquals(0, registry.get("check.stage.in.flight").tag("stage", "neuro").gauge().value());
+	}
+}
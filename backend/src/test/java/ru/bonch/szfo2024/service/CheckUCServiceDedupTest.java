@@ -0,0 +1,105 @@
+package ru.bonch.szfo2024.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.client.RestTemplate;
+import ru.bonch.szfo2024.dto.RequirementDto;
+import ru.bonch.szfo2024.dto.UcAndRegulationDto;
+import ru.bonch.szfo2024.dto.UcAndRegulationRefDto;
+import ru.bonch.szfo2024.service.neuro.NeuroClient;
+import ru.bonch.szfo2024.service.neuro.NeuroGuard;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// The service under test calls the stub of this application, the configured AI services are never called
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {"neuro.stub.enabled=true",
+		"makson.connection.url=http://localhost:5000/", "danya.connection.url=http://localhost:5001/"})
+class CheckUCServiceDedupTest {
+
+	@LocalServerPort
+	int port;
+
+	@Autowired
+	NeuroGuard neuroGuard;
+
+	@Autowired
+	ObjectMapper objectMapper;
+
+	private final List<UcAndRegulationRefDto> sent = new ArrayList<>();
+	private PoolingHttpClientConnectionManager connectionManager;
+	private NeuroClient neuroClient;
+	private CheckUCService service;
+
+	@BeforeEach
+	void setUp() {
+		connectionManager = new PoolingHttpClientConnectionManager();
+		RestTemplate restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(
+				HttpClients.custom().setConnectionManager(connectionManager).build()));
+		// Record every request sent by reference, decompressed
+		restTemplate.getInterceptors().add((request, body, execution) -> {
+			if (request.getURI().getPath().endsWith("check-uc-ref")) {
+				assertEquals("gzip", request.getHeaders().getFirst("Content-Encoding"));
+				sent.add(objectMapper.readValue(new GZIPInputStream(new ByteArrayInputStream(body)), UcAndRegulationRefDto.class));
+			}
+			return execution.execute(request, body);
+		});
+		neuroClient = NeuroClient.blocking("http://localhost:" + port + "/stub/neuro/", restTemplate, connectionManager, 8);
+		NeuroResultCache noCache = new NeuroResultCache(false, DataSize.ofMegabytes(1), "", DataSize.ofMegabytes(1), null);
+		NeuroVerdictStore noVerdicts = new NeuroVerdictStore(false, 0, DataSize.ofMegabytes(1), "", DataSize.ofMegabytes(1), null);
+		service = new CheckUCService(neuroClient, neuroGuard, noCache, noVerdicts, new RequirementChunker(false, 4000, 4, 4), objectMapper,
+				new CheckMetrics(new SimpleMeterRegistry()), true);
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		connectionManager.close();
+	}
+
+	@Test
+	void regulationIsUploadedOnce() {
+		List<RequirementDto> regulation = new ArrayList<>();
+		for (int i = 1; i <= 100; i++) {
+			regulation.add(new RequirementDto("5." + i, "The manufacturer shall demonstrate requirement " + i));
+		}
+		UcAndRegulationDto first = new UcAndRegulationDto("Remote software update of the telematics unit", regulation);
+		UcAndRegulationDto second = new UcAndRegulationDto("Diagnostics over the air", regulation);
+
+		// Same answer as the plain endpoint
+		assertEquals(neuroClient.post("check-uc", first), service.sendDataToNeuro(first));
+		assertEquals(2, sent.size());
+		assertNull(sent.get(0).getUseCase());
+		assertNull(sent.get(0).getRegulation());
+		assertNotNull(sent.get(1).getUseCase());
+		assertEquals(100, sent.get(1).getRegulation().size());
+
+		// Only the new Use Case is uploaded
+		sent.clear();
+		assertEquals(neuroClient.post("check-uc", second), service.sendDataToNeuro(second));
+		assertEquals(2, sent.size());
+		assertEquals(second.getUseCase(), sent.get(1).getUseCase());
+		assertNull(sent.get(1).getRegulation());
+
+		// Nothing but hashes for a known pair
+		sent.clear();
+		service.sendDataToNeuro(first);
+		assertEquals(1, sent.size());
+	}
+}
@@ -0,0 +1,135 @@
+package ru.bonch.szfo2024.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.client.RestTemplate;
+import ru.bonch.szfo2024.dto.RequirementDto;
+import ru.bonch.szfo2024.dto.UcAndRegulationDto;
+import ru.bonch.szfo2024.service.neuro.NeuroClient;
+import ru.bonch.szfo2024.service.neuro.NeuroGuard;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CheckUCServiceIncrementalTest {
+
+	private static final int TOP_N = 16; // N_REQUIREMENTS of the neural network service
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final List<UcAndRegulationDto> sent = new ArrayList<>();
+	private PoolingHttpClientConnectionManager connectionManager;
+	private CheckUCService service;
+
+	@BeforeEach
+	void setUp() {
+		connectionManager = new PoolingHttpClientConnectionManager();
+		RestTemplate restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(
+				HttpClients.custom().setConnectionManager(connectionManager).build()));
+		// Answer like the neural network service: only the TOP_N points most similar to the use case (here the first ones sent)
+		// are checked, all of them if fewer are sent; a line per violated requirement, named by a point of its section
+		restTemplate.getInterceptors().add((request, body, execution) -> {
+			UcAndRegulationDto dto = objectMapper.readValue(body, UcAndRegulationDto.class);
+			sent.add(dto);
+			StringBuilder answer = new StringBuilder();
+			for (int i = 0; i < Math.min(TOP_N, dto.getRegulation().size()); i++) {
+				RequirementDto requirement = dto.getRegulation().get(i);
+				if (requirement.getRequirement().contains("violated")) {
+					answer.append("According to ").append(requirement.getSection()).append(".1: violates ")
+							.append(requirement.getSection()).append('\n');
+				}
+			}
+			MockClientHttpResponse response = new MockClientHttpResponse(objectMapper.writeValueAsBytes(
+					answer.isEmpty() ? NeuroVerdictStore.REQUIREMENTS_MET : answer.toString()), HttpStatus.OK);
+			response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+			return response;
+		});
+		NeuroClient neuroClient = NeuroClient.blocking("http://localhost/", restTemplate, connectionManager, 8);
+		NeuroGuard neuroGuard = new NeuroGuard(4, 1, 32, 0.7, 2.0, Duration.ofSeconds(1), 50, 20, 10, Duration.ofSeconds(30),
+				1, Duration.ofMillis(1), Duration.ofMillis(1));
+		NeuroResultCache noCache = new NeuroResultCache(false, DataSize.ofMegabytes(1), "", DataSize.ofMegabytes(1), null);
+		NeuroVerdictStore verdicts = new NeuroVerdictStore(true, TOP_N, DataSize.ofMegabytes(1), "", DataSize.ofMegabytes(1), null);
+		service = new CheckUCService(neuroClient, neuroGuard, noCache, verdicts, new RequirementChunker(false, 4000, 4, 4), objectMapper,
+				new CheckMetrics(new SimpleMeterRegistry()), false);
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		connectionManager.close();
+	}
+
+	@Test
+	void onlyRevisedRequirementsAreSent() throws IOException {
+		List<RequirementDto> regulation = new ArrayList<>();
+		for (int i = 1; i <= 12; i++) {
+			regulation.add(new RequirementDto("5." + i, "Requirement " + i + (i == 1 || i == 4 ? " is violated" : " is met")));
+		}
+		String useCase = "Remote software update of the telematics unit";
+		assertEquals("According to 5.1.1: violates 5.1\nAccording to 5.4.1: violates 5.4\n",
+				answer(service.sendDataToNeuro(new UcAndRegulationDto(useCase, regulation))));
+		assertEquals(12, sent.get(0).getRegulation().size());
+
+		// Revise a section and add another, the verdicts of the unchanged sections are reused
+		sent.clear();
+		List<RequirementDto> revised = new ArrayList<>(regulation);
+		revised.set(2, new RequirementDto("5.3", "Requirement 3 is violated now"));
+		revised.add(new RequirementDto("5.13", "Requirement 13 is met"));
+		assertEquals("According to 5.1.1: violates 5.1\nAccording to 5.3.1: violates 5.3\nAccording to 5.4.1: violates 5.4\n",
+				answer(service.sendDataToNeuro(new UcAndRegulationDto(useCase, revised))));
+		assertEquals(1, sent.size());
+		assertEquals(List.of("5.3", "5.13"), sent.get(0).getRegulation().stream().map(RequirementDto::getSection).toList());
+
+		// Nothing is sent again for the same regulation, but everything for another Use Case
+		sent.clear();
+		service.sendDataToNeuro(new UcAndRegulationDto(useCase, revised));
+		assertEquals(0, sent.size());
+		service.sendDataToNeuro(new UcAndRegulationDto("Diagnostics over the air", revised));
+		assertEquals(13, sent.get(0).getRegulation().size());
+	}
+
+	@Test
+	void regulationsLargerThanTheServiceChecksAreNotIncremental() throws IOException {
+		List<RequirementDto> regulation = new ArrayList<>();
+		for (int i = 1; i <= TOP_N + 4; i++) {
+			regulation.add(new RequirementDto("5." + i, "Requirement " + i + (i == TOP_N + 2 ? " is violated" : " is met")));
+		}
+		String useCase = "Remote software update of the telematics unit";
+		// The violated requirement is outside the points checked, its empty verdict must not be stored as met
+		assertEquals(NeuroVerdictStore.REQUIREMENTS_MET, answer(service.sendDataToNeuro(new UcAndRegulationDto(useCase, regulation))));
+		assertEquals("According to 5." + (TOP_N + 2) + ".1: violates 5." + (TOP_N + 2) + "\n",
+				answer(service.sendDataToNeuro(new UcAndRegulationDto(useCase, regulation.subList(TOP_N, regulation.size())))));
+		assertEquals(List.of(TOP_N + 4, 4), sent.stream().map(dto -> dto.getRegulation().size()).toList());
+
+		assertThrows(IllegalStateException.class,
+				() -> new NeuroVerdictStore(true, 0, DataSize.ofMegabytes(1), "", DataSize.ofMegabytes(1), null));
+	}
+
+	@Test
+	void linesAreAttributedToTheLongestSection() {
+		List<RequirementDto> requirements = List.of(new RequirementDto("5", "a"), new RequirementDto("5.1", "b"),
+				new RequirementDto("5.10", "c"));
+		assertEquals(List.of(List.of("According to 5.2: x"), List.of("According to 5.1.3: y continued"), List.of("According to 5.10: z")),
+				NeuroVerdictStore.attribute(requirements, "According to 5.2: x\nAccording to 5.1.3: y\ncontinued\nAccording to 5.10: z\n"));
+		assertEquals(List.of(List.of(), List.of(), List.of()), NeuroVerdictStore.attribute(requirements, NeuroVerdictStore.REQUIREMENTS_MET));
+		assertNull(NeuroVerdictStore.attribute(requirements, "According to 6.1: unknown point"));
+	}
+
+	private String answer(String response) throws IOException {
+		return objectMapper.readValue(response, String.class);
+	}
+}
@@ -0,0 +1,54 @@
+package ru.bonch.szfo2024.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class NameRelationIndexTest {
+
+	private static final List<String> SAMPLES = List.of(
+			"", " ", "  leading", "trailing  ", "Cyber Security", "Software Update", "CSMS", "SUMS", "OTA",
+			"Over-the-air update", "Cyber", "Cybersecurity", "cyber security management", "UN R155", "R155",
+			"GOST R 56939", "ГОСТ", "Телематика", "İnfotainment", "infotainment", "Info", "ECU", "ecu",
+			"Engine Control Unit", "e", "E", "A", "ab", "AB", "Abc", "abcd", "abcdef", "abcdefg", "x y z", "X-Y",
+			"Diagnostics / OBD", "OBD", "Telematics Control Unit", "TCU", "tcu firmware", "123", "V2X", "v2x stack");
+
+	private final NameRelationService service = new NameRelationService();
+
+	@Test
+	void sameResultsAsAreRelated() {
+		assertSameResults(SAMPLES, SAMPLES);
+	}
+
+	@Test
+	void sameResultsAsAreRelatedOnRandomNames() {
+		Random random = new Random(42);
+		String alphabet = "aAbBcCeEiIxX -/1İı";
+		List<String> names = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			StringBuilder name = new StringBuilder();
+			int length = random.nextInt(9);
+			for (int j = 0; j < length; j++) {
+				name.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			}
+			names.add(name.toString());
+		}
+		assertSameResults(names, names);
+	}
+
+	private void assertSameResults(List<String> systemNames, List<String> regulationNames) {
+		NameRelationIndex index = service.index(regulationNames);
+		for (String systemName : systemNames) {
+			BitSet related = index.related(systemName);
+			for (int i = 0; i < regulationNames.size(); i++) {
+				assertEquals(service.areRelated(systemName, regulationNames.get(i)), related.get(i),
+						"'" + systemName + "' / '" + regulationNames.get(i) + "'");
+			}
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package ru.bonch.szfo2024.service;
+
+import org.junit.jupiter.api.Test;
+import ru.bonch.szfo2024.dto.RequirementDto;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RegulationItemisationServiceTest {
+
+	private static final String UN_REGULATION = String.join("\n",
+			"UNITED NATIONS",
+			"Contents",
+			"1. Scope",
+			"This Regulation applies to vehicles.",
+			"2. Definitions",
+			"2.1. \"Vehicle type\" means",
+			"vehicles which do not differ.",
+			"2.3. Skipped number is still accepted",
+			"2.1. Going back is not a point",
+			"3. Application for approval",
+			"Annex 1",
+			"4. Not processed");
+
+	private final RegulationItemisationService service = new RegulationItemisationService();
+
+	@Test
+	void itemisesUnitedNationsPoints() {
+		assertEquals(List.of(
+				"1. |ScopeThis Regulation applies to vehicles.",
+				"2. |Definitions",
+				"2.1. |\"Vehicle type\" meansvehicles which do not differ.",
+				"2.3. |Skipped number is still accepted2.1. Going back is not a point"),
+				strings(service.itemise(UN_REGULATION)));
+	}
+
+	@Test
+	void itemisesGostPoints() {
+		String text = "1 Scope\nText\n1.1 First\n1.2 Second\n2 Next\n10 Not a point\nEnd";
+		assertEquals(List.of("1|ScopeText", "1.1|First", "1.2|Second"), strings(service.stream(text).toList()));
+	}
+
+	@Test
+	void readsOnlyAsFarAsNeeded() {
+		StringBuilder text = new StringBuilder("1 Scope\n1.1 First\n1.2 Second\n");
+		for (int i = 3; i < 10_000; i++) {
+			text.append("1.").append(i).append(" Requirement\n");
+		}
+		CountingText counting = new CountingText(text);
+		assertEquals("1|Scope", strings(service.stream(counting).limit(1).toList()).get(0));
+		assertTrue(counting.read < text.length() / 2, "read " + counting.read + " of " + text.length());
+	}
+
+	private static List<String> strings(List<RequirementDto> requirements) {
+		return requirements.stream().map(r -> r.getSection() + "|" + r.getRequirement()).toList();
+	}
+
+	private static final class CountingText implements CharSequence {
+		private final CharSequence text;
+		private int read; // Highest index read + 1
+
+		CountingText(CharSequence text) {
+			this.text = text;
+		}
+
+		@Override
+		public int length() {
+			return text.length();
+		}
+
+		@Override
+		public char charAt(int index) {
+			read = Math.max(read, index + 1);
+			return text.charAt(index);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			read = Math.max(read, end);
+			return text.subSequence(start, end);
+		}
+	}
+}
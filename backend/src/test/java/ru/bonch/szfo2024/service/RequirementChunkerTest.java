@@ -0,0 +1,48 @@
+package ru.bonch.szfo2024.service;
+
+import org.junit.jupiter.api.Test;
+import ru.bonch.szfo2024.dto.RequirementDto;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RequirementChunkerTest {
+
+	// 1 character per token: every requirement below costs its text length + 1 for the section + 8 of overhead
+	private final RequirementChunker chunker = new RequirementChunker(true, 100, 1, 4);
+
+	@Test
+	void chunksFitTheBudgetWithoutSplittingSections() {
+		List<RequirementDto> requirements = List.of(
+				new RequirementDto("1", "a".repeat(30)),
+				new RequirementDto("2", "b".repeat(30)),
+				new RequirementDto("2", "c".repeat(30)),
+				new RequirementDto("3", "d".repeat(150)),
+				new RequirementDto("4", "e".repeat(10)));
+
+		// The Use Case leaves 90 tokens: section 2 (78 tokens) doesn't fit after section 1 (39 tokens),
+		// section 3 is larger than the budget and is sent on its own
+		assertEquals(List.of("1", "2,2", "3", "4"), sections(chunker.split("u".repeat(10), requirements)));
+		assertEquals(List.of("1,2,2,3,4"), sections(new RequirementChunker(false, 100, 1, 4).split("u", requirements)));
+
+		// Every Use Case of a batch is sent with every chunk: two of them leave 50 tokens, too few for sections 1 and 4
+		List<RequirementDto> shared = List.of(requirements.get(0), requirements.get(4));
+		assertEquals(List.of("1,4"), sections(chunker.split("u".repeat(25), shared)));
+		assertEquals(List.of("1", "4"), sections(chunker.split(List.of("u".repeat(25), "v".repeat(25)), shared)));
+	}
+
+	@Test
+	void answersAreMergedWithoutEmptyFindings() {
+		assertEquals("According to 1.1: x\nAccording to 4.2: y\n", RequirementChunker.merge(List.of(
+				"According to 1.1: x\n", NeuroVerdictStore.REQUIREMENTS_MET, "According to 4.2: y")));
+		assertEquals(NeuroVerdictStore.REQUIREMENTS_MET, RequirementChunker.merge(List.of(
+				NeuroVerdictStore.REQUIREMENTS_MET, "Requirements are met")));
+	}
+
+	private static List<String> sections(List<List<RequirementDto>> chunks) {
+		return chunks.stream()
+				.map(chunk -> String.join(",", chunk.stream().map(RequirementDto::getSection).toList()))
+				.toList();
+	}
+}
@@ -0,0 +1,47 @@
+package ru.bonch.szfo2024.service;
+
+import org.junit.jupiter.api.Test;
+import ru.bonch.szfo2024.dto.RequirementDto;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequirementFilterServiceTest {
+
+	private static final List<RequirementDto> REQUIREMENTS = List.of(
+			new RequirementDto("7.1", "The manufacturer shall protect the update process against manipulation."),
+			new RequirementDto("7.2", "The vehicle shall inform the driver about an over-the-air software update."),
+			new RequirementDto("7.3", "Brakes shall be tested annually."),
+			new RequirementDto("7.4", "Software update packages shall be authenticated before the update is installed."),
+			new RequirementDto("7.5", "Lighting devices shall comply with Regulation 48."));
+
+	private static final String USE_CASE = "Remote software update: the telematics unit downloads an update package, "
+			+ "checks that it is authenticated and installs the software update.";
+
+	@Test
+	void keepsTopRequirementsInRegulationOrder() {
+		RequirementFilterService service = new RequirementFilterService(true, 2, 0, 1.2, 0.75);
+		List<RequirementDto> relevant = service.filter(service.index(REQUIREMENTS), List.of(USE_CASE));
+		assertEquals(List.of("7.2", "7.4"), relevant.stream().map(RequirementDto::getSection).toList());
+	}
+
+	@Test
+	void thresholdAndFallback() {
+		// A threshold nothing reaches is respected; only a Use Case without any shared term falls back to every requirement
+		RequirementFilterService strict = new RequirementFilterService(true, 10, 1000, 1.2, 0.75);
+		assertEquals(List.of(), strict.filter(strict.index(REQUIREMENTS), List.of(USE_CASE)));
+		assertEquals(REQUIREMENTS, strict.filter(strict.index(REQUIREMENTS), List.of("Headrest geometry")));
+
+		RequirementFilterService service = new RequirementFilterService(true, 10, 0, 1.2, 0.75);
+		List<RequirementDto> relevant = service.filter(service.index(REQUIREMENTS), List.of(USE_CASE, "Brakes are tested"));
+		assertTrue(relevant.stream().noneMatch(requirement -> requirement.getSection().equals("7.5")));
+		assertTrue(relevant.stream().anyMatch(requirement -> requirement.getSection().equals("7.3")));
+	}
+
+	@Test
+	void termsSkipStopWordsAndSingleCharacters() {
+		assertEquals(List.of("over", "air", "update", "ecu", "48"), RequirementIndex.terms("Over-the-air update of a ECU (48)"));
+	}
+}
@@ -0,0 +1,62 @@
+package ru.bonch.szfo2024.service.catalog;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import ru.bonch.szfo2024.dto.RequirementDto;
+import ru.bonch.szfo2024.dto.response.RegulationDto;
+import ru.bonch.szfo2024.error.exception.common.NotFound;
+import ru.bonch.szfo2024.service.RegulationItemisationService;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RegulationCatalogServiceTest {
+
+	private static final String ID = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void requirementsAreLoadedLazilyAfterRestart() throws Exception {
+		List<RequirementDto> requirements = new ArrayList<>();
+		for (int i = 1; i <= 500; i++) {
+			requirements.add(new RequirementDto("7." + i, "The vehicle manufacturer shall ensure requirement " + i + " — «ГОСТ»"));
+		}
+		requirements.add(new RequirementDto("8", ""));
+
+		RegulationDto stored = catalog().store(ID, "Cyber Security", "Cyber_Security_ENG.pdf", 123_456, requirements);
+		assertEquals(501, stored.getRequirements());
+		assertTrue(stored.getStoredBytes() < 123_456, "stored " + stored.getStoredBytes());
+
+		RegulationCatalogService restarted = catalog();
+		assertEquals(List.of(ID), restarted.list().stream().map(RegulationDto::getId).toList());
+		assertEquals("Cyber Security", restarted.get(ID).getName());
+		List<RequirementDto> loaded = restarted.getRequirements(ID);
+		assertEquals(requirements.toString(), loaded.toString());
+		assertTrue(loaded == restarted.getRequirements(ID), "requirements are kept in memory");
+	}
+
+	@Test
+	void unknownAndDeletedRegulationsAreNotFound() {
+		RegulationCatalogService catalog = catalog();
+		assertThrows(NotFound.class, () -> catalog.get("../" + ID));
+		catalog.store(ID, "Software Update", "Software_Update_EN.pdf", 10, List.of(new RequirementDto("1", "Scope")));
+		catalog.delete(ID);
+		assertThrows(NotFound.class, () -> catalog.getRequirements(ID));
+		assertEquals(List.of(), catalog().list());
+		assertTrue(Files.notExists(dir.resolve(ID + ".requirements.gz")));
+	}
+
+	private RegulationCatalogService catalog() {
+		return new RegulationCatalogService(null, new RegulationItemisationService(), new ObjectMapper(), dir, DataSize.ofMegabytes(1));
+	}
+}
@@ -0,0 +1,203 @@
+package ru.bonch.szfo2024.service.files;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.poi.openxml4j.exceptions.NotOfficeXmlFileException;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+import ru.bonch.szfo2024.dto.UseCaseDto;
+import ru.bonch.szfo2024.service.CheckMetrics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DocxReadServiceTest {
+
+	private static final String NAMESPACES = "xmlns:w=\"http://schemas.openxmlformats.org/wordprocessingml/2006/main\""
+			+ " xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\""
+			+ " xmlns:mc=\"http://schemas.openxmlformats.org/markup-compatibility/2006\""
+			+ " xmlns:wp=\"http://schemas.openxmlformats.org/drawingml/2006/wordprocessingDrawing\""
+			+ " xmlns:a=\"http://schemas.openxmlformats.org/drawingml/2006/main\""
+			+ " xmlns:wps=\"http://schemas.microsoft.com/office/word/2010/wordprocessingShape\""
+			+ " xmlns:v=\"urn:schemas-microsoft-com:vml\"";
+
+	private static final String BODY = """
+			<w:p><w:r><w:t>Use Case UC-07 Remote diagnostics</w:t></w:r></w:p>
+			<w:p><w:r><w:t xml:space="preserve">Primary system / </w:t></w:r><w:hyperlink r:id="rId9"><w:r><w:t>Telematics</w:t></w:r></w:hyperlink><w:r><w:t xml:space="preserve"> Control Unit </w:t></w:r></w:p>
+			<w:p><w:r><w:t>Secondary</w:t><w:br/><w:t>system / OBD</w:t><w:cr/><w:t>third / ECU</w:t></w:r></w:p>
+			<w:p><w:smartTag w:uri="u" w:element="e"><w:r><w:t>Smart / Tag</w:t></w:r><w:smartTag><w:r><w:t>Nested</w:t></w:r></w:smartTag></w:smartTag></w:p>
+			<w:p><w:fldSimple w:instr="PAGE"><w:r><w:t>12</w:t></w:r></w:fldSimple><w:r><w:fldChar w:fldCharType="begin"/></w:r><w:r><w:instrText>HYPERLINK x</w:instrText></w:r><w:r><w:fldChar w:fldCharType="separate"/></w:r><w:r><w:t>shown</w:t></w:r><w:r><w:fldChar w:fldCharType="end"/></w:r></w:p>
+			<w:p><w:r><w:t>A</w:t></w:r><w:ins w:id="1" w:author="x"><w:r><w:t>B</w:t></w:r><w:ins w:id="2"><w:r><w:t>C</w:t></w:r></w:ins><w:r><w:t>D</w:t></w:r><w:hyperlink><w:r><w:t>lost</w:t></w:r></w:hyperlink></w:ins><w:del w:id="3"><w:r><w:delText>deleted</w:delText></w:r><w:r><w:t>kept</w:t><w:delText>x</w:delText></w:r><w:r><w:delInstrText>instr</w:delInstrText></w:r></w:del><w:moveTo><w:r><w:t>E</w:t></w:r></w:moveTo></w:p>
+			<w:p><w:sdt><w:sdtPr><w:alias w:val="name"/></w:sdtPr><w:sdtContent><w:r><w:t>one</w:t></w:r><w:sdt><w:sdtContent><w:r><w:t>two</w:t></w:r></w:sdtContent></w:sdt><w:r><w:t>three</w:t></w:r><w:r><w:delText>four</w:delText></w:r><w:sdt><w:sdtContent><w:r><w:t>five</w:t></w:r></w:sdtContent></w:sdt></w:sdtContent></w:sdt><w:r><w:t>after</w:t></w:r></w:p>
+			<w:p><w:r><w:rPr><w:caps/></w:rPr><w:t>capitals</w:t></w:r><w:r><w:rPr><w:caps w:val="false"/><w:smallCaps w:val="1"/></w:rPr><w:t>small</w:t></w:r><w:r><w:rPr><w:caps w:val="0"/></w:rPr><w:t>lower</w:t></w:r></w:p>
+			<w:p><w:r><w:fldChar w:fldCharType="begin"><w:ffData><w:checkBox><w:default w:val="1"/></w:checkBox></w:ffData></w:fldChar></w:r><w:r><w:fldChar w:fldCharType="begin"><w:ffData><w:checkBox><w:default/></w:checkBox><w:checkBox/></w:ffData></w:fldChar></w:r><w:r><w:tab/><w:ptab w:relativeTo="margin" w:alignment="left" w:leader="none"/><w:noBreakHyphen/><w:softHyphen/><w:sym w:char="F020"/><w:t>end</w:t></w:r></w:p>
+			<w:p><w:r><w:ruby><w:rubyPr><w:rubyAlign w:val="center"/></w:rubyPr><w:rt><w:r><w:t>kan</w:t></w:r></w:rt><w:rubyBase><w:r><w:t>漢</w:t></w:r></w:rubyBase></w:ruby><w:t>tail</w:t></w:r></w:p>
+			<w:p><w:r><w:t>Picture</w:t><w:drawing><wp:inline><a:graphic><a:graphicData><wps:wsp><wps:txbx><w:txbxContent><w:p><w:r><w:t>box one</w:t></w:r></w:p><w:p><w:r><w:t></w:t><w:t>box two</w:t></w:r></w:p></w:txbxContent></wps:txbx></wps:wsp></a:graphicData></a:graphic></wp:inline></w:drawing></w:r><w:r><w:pict><v:shape><v:textbox><w:txbxContent><w:p><w:r><w:t>vml</w:t></w:r></w:p></w:txbxContent></v:textbox></v:shape></w:pict></w:r></w:p>
+			<w:p><w:r><mc:AlternateContent><mc:Choice Requires="wps"><w:drawing><w:t>alternate</w:t></w:drawing></mc:Choice></mc:AlternateContent><w:t>alt</w:t></w:r></w:p>
+			<w:p><w:r><w:t>Note</w:t></w:r><w:r><w:footnoteReference w:id="2"/></w:r><w:r><w:t xml:space="preserve"> and </w:t><w:endnoteReference w:id="1"/></w:r><w:r><w:footnoteReference w:id="7"/></w:r><w:del><w:r><w:footnoteReference w:id="3"/></w:r></w:del></w:p>
+			<w:tbl><w:tr><w:tc><w:p><w:r><w:t>Cell / hidden</w:t></w:r></w:p></w:tc></w:tr></w:tbl>
+			<w:sdt><w:sdtContent><w:p><w:r><w:t>Block / control</w:t></w:r></w:p></w:sdtContent></w:sdt>
+			<w:p/>
+			<w:p><w:r><w:t>Description</w:t></w:r></w:p>
+			<w:p><w:r><w:t>After / description</w:t></w:r></w:p>
+			<w:p><w:customXml><w:r><w:t>custom</w:t></w:r></w:customXml><w:r><w:t>&lt;escaped &amp; &#1046;&gt;</w:t></w:r></w:p>
+			""";
+
+	private static final String FOOTNOTES = """
+			<w:footnote w:type="separator" w:id="-1"><w:p><w:r><w:separator/></w:r></w:p></w:footnote>
+			<w:footnote w:id="2"><w:p><w:r><w:footnoteRef/><w:t xml:space="preserve"> First line</w:t></w:r></w:p><w:p><w:r><w:t>Second / line</w:t></w:r></w:p></w:footnote>
+			<w:footnote w:id="3"><w:p><w:r><w:t>Deleted note</w:t></w:r></w:p></w:footnote>
+			""";
+
+	private static final String ENDNOTES = """
+			<w:endnote w:id="1"><w:p><w:r><w:t>End</w:t></w:r></w:p><w:tbl><w:tr><w:tc><w:p><w:r><w:t>table</w:t></w:r></w:p></w:tc></w:tr></w:tbl></w:endnote>
+			""";
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void sameUseCaseAsDocumentModel() throws IOException {
+		assertSameUseCase(docx(BODY, FOOTNOTES, ENDNOTES));
+	}
+
+	@Test
+	void sameUseCaseWithoutNotes() throws IOException {
+		assertSameUseCase(docx(BODY, null, null));
+	}
+
+	@Test
+	void sameUseCaseAsDocumentModelOfGeneratedDocument() throws IOException {
+		try (XWPFDocument document = new XWPFDocument()) {
+			for (String line : new String[]{"Use Case UC-01 Remote software update",
+					"Primary system / Software Update Management System",
+					"Secondary system / Cyber Security Management System",
+					"Description",
+					"The update package is verified / signed by the manufacturer before installation."}) {
+				document.createParagraph().createRun().setText(line);
+			}
+			XWPFTable table = document.createTable(2, 2);
+			table.getRow(0).getCell(0).setText("Step / table text");
+			XWPFRun run = document.createParagraph().createRun();
+			run.setText("Line with tab");
+			run.addTab();
+			run.setText("after tab");
+			run.addBreak();
+			run.setText("after break");
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			document.write(out);
+			assertSameUseCase(out.toByteArray());
+		}
+	}
+
+	@Test
+	void sameErrorForFileThatIsNotDocx() throws IOException {
+		byte[] broken = new byte[]{'P', 'K', 3, 4, 0, 0};
+		assertThrows(NotOfficeXmlFileException.class, () -> documentModelUseCase(broken));
+		assertThrows(NotOfficeXmlFileException.class, () -> service().getUseCases(List.of(file(broken))));
+		try (Stream<Path> spooled = Files.list(tempDir)) {
+			assertEquals(0, spooled.count());
+		}
+	}
+
+	private void assertSameUseCase(byte[] docx) throws IOException {
+		UseCaseDto expected = documentModelUseCase(docx);
+		UseCaseDto actual = service().getUseCases(List.of(file(docx))).get("uc.docx");
+		assertEquals(expected.getText(), actual.getText());
+		assertEquals(expected.getSystemNames(), actual.getSystemNames());
+	}
+
+	private DocxReadService service() {
+		return new DocxReadService(new UploadSpool(tempDir), new CheckMetrics(new SimpleMeterRegistry()));
+	}
+
+	private static MockMultipartFile file(byte[] content) {
+		return new MockMultipartFile("useCases", "uc.docx",
+				"application/vnd.openxmlformats-officedocument.wordprocessingml.document", content);
+	}
+
+	/**
+	 * Use Case as it was read with the POI document model before the streaming reader.
+	 */
+	private static UseCaseDto documentModelUseCase(byte[] docx) throws IOException {
+		StringBuilder text = new StringBuilder();
+		try (XWPFDocument document = new XWPFDocument(new ByteArrayInputStream(docx))) {
+			for (XWPFParagraph paragraph : document.getParagraphs()) {
+				text.append(paragraph.getText()).append("\n");
+			}
+		}
+		List<String> systemNames = new ArrayList<>();
+		for (String line : text.toString().split("\\n")) {
+			if (line.contains("Description")) {
+				break;
+			}
+			int slashIndex = line.indexOf('/');
+			if (slashIndex != -1) {
+				systemNames.add(line.substring(slashIndex + 1).trim());
+			}
+		}
+		return new UseCaseDto(systemNames, text.toString());
+	}
+
+	private static byte[] docx(String body, String footnotes, String endnotes) throws IOException {
+		Map<String, String> parts = new LinkedHashMap<>();
+		StringBuilder types = new StringBuilder("""
+				<?xml version="1.0" encoding="UTF-8" standalone="yes"?>
+				<Types xmlns="http://schemas.openxmlformats.org/package/2006/content-types">
+				<Default Extension="rels" ContentType="application/vnd.openxmlformats-package.relationships+xml"/>
+				<Default Extension="xml" ContentType="application/xml"/>
+				<Override PartName="/word/document.xml" ContentType="application/vnd.openxmlformats-officedocument.wordprocessingml.document.main+xml"/>
+				""");
+		StringBuilder relationships = new StringBuilder("""
+				<?xml version="1.0" encoding="UTF-8" standalone="yes"?>
+				<Relationships xmlns="http://schemas.openxmlformats.org/package/2006/relationships">
+				<Relationship Id="rId9" Type="http://schemas.openxmlformats.org/officeDocument/2006/relationships/hyperlink" Target="http://example.com" TargetMode="External"/>
+				""");
+		if (footnotes != null) {
+			types.append("<Override PartName=\"/word/footnotes.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.wordprocessingml.footnotes+xml\"/>");
+			relationships.append("<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/footnotes\" Target=\"footnotes.xml\"/>");
+			parts.put("word/footnotes.xml", "<w:footnotes " + NAMESPACES + ">" + footnotes + "</w:footnotes>");
+		}
+		if (endnotes != null) {
+			types.append("<Override PartName=\"/word/endnotes.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.wordprocessingml.endnotes+xml\"/>");
+			relationships.append("<Relationship Id=\"rId2\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/endnotes\" Target=\"endnotes.xml\"/>");
+			parts.put("word/endnotes.xml", "<w:endnotes " + NAMESPACES + ">" + endnotes + "</w:endnotes>");
+		}
+		parts.put("[Content_Types].xml", types.append("</Types>").toString());
+		parts.put("_rels/.rels", """
+				<?xml version="1.0" encoding="UTF-8" standalone="yes"?>
+				<Relationships xmlns="http://schemas.openxmlformats.org/package/2006/relationships">
+				<Relationship Id="rId1" Type="http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument" Target="word/document.xml"/>
+				</Relationships>""");
+		parts.put("word/_rels/document.xml.rels", relationships.append("</Relationships>").toString());
+		parts.put("word/document.xml", "<w:document " + NAMESPACES + "><w:body>" + body + "<w:sectPr/></w:body></w:document>");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(out)) {
+			for (Map.Entry<String, String> part : parts.entrySet()) {
+				zip.putNextEntry(new ZipEntry(part.getKey()));
+				zip.write(part.getValue().getBytes(StandardCharsets.UTF_8));
+				zip.closeEntry();
+			}
+		}
+		return out.toByteArray();
+	}
+}